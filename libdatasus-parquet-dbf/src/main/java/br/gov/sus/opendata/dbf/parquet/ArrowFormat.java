@@ -0,0 +1,27 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+/**
+ * {@link ArrowFormat} is the Arrow IPC format of a conversion output, instead of parquet.
+ *
+ * @see ConvertTask#getArrowFormat()
+ */
+public enum ArrowFormat {
+  /** Random access file format, which readers can memory-map. */
+  FILE(".arrow"),
+
+  /** Streaming format, read sequentially batch by batch. */
+  STREAM(".arrows");
+
+  private final String extension;
+
+  ArrowFormat(String extension) {
+    this.extension = extension;
+  }
+
+  /**
+   * @return extension appended to output file names, e.g. "file.dbc.arrow".
+   */
+  public String getExtension() {
+    return extension;
+  }
+}
@@ -0,0 +1,316 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import com.linuxense.javadbf.DBFDataType;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link ColumnProfile} summarizes the values of a column, computed while the column is written:
+ *
+ * <ul>
+ *   <li>value, null and blank (only spaces or NULs) counts.
+ *   <li>distinct count, estimated by a HyperLogLog sketch.
+ *   <li>min and max of NUMERIC, FLOATING_POINT and DATE columns.
+ * </ul>
+ *
+ * Profiles are mergeable, so the profile of a dataset is the merge of the profiles of its files.
+ * Each parquet file stores them in the footer key-value metadata, under {@link
+ * ColumnProfile#FOOTER_KEY_PREFIX} followed by the column name.
+ */
+public class ColumnProfile {
+
+  public static final String FOOTER_KEY_PREFIX = "libdatasus.profile.";
+
+  private static final Logger logger = LogManager.getLogger(ColumnProfile.class);
+
+  private final String name;
+
+  private final DBFDataType type;
+
+  private final HyperLogLog distinct;
+
+  private long valueCount = 0;
+
+  private long nullCount = 0;
+
+  private long blankCount = 0;
+
+  private Comparable<?> min;
+
+  private Comparable<?> max;
+
+  ColumnProfile(String name, DBFDataType type) {
+    this(name, type, new HyperLogLog());
+  }
+
+  private ColumnProfile(String name, DBFDataType type, HyperLogLog distinct) {
+    this.name = name;
+    this.type = type;
+    this.distinct = distinct;
+  }
+
+  /**
+   * Column name.
+   * @return DBF field name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Column DBF type.
+   * @return DBF data type.
+   */
+  public DBFDataType getType() {
+    return type;
+  }
+
+  /**
+   * Non null values.
+   * @return value count.
+   */
+  public long getValueCount() {
+    return valueCount;
+  }
+
+  /**
+   * Values written as null, blank fields of blank as null columns included.
+   * @return null count.
+   * @see ConvertTask#getBlankAsNullTypes()
+   */
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  /**
+   * Fields holding only spaces or NULs in the DBF file, whatever they were converted to.
+   * @return blank count.
+   */
+  public long getBlankCount() {
+    return blankCount;
+  }
+
+  /**
+   * Estimated number of distinct non null values, about 2.3% standard error.
+   * @return distinct count estimate.
+   */
+  public long getDistinctCount() {
+    return distinct.estimate();
+  }
+
+  /**
+   * Smallest value: {@link BigDecimal} for NUMERIC, {@link Float} for FLOATING_POINT and {@link
+   * LocalDate} for DATE columns.
+   * @return min value, null for other types or when every value is null.
+   */
+  public Object getMin() {
+    return min;
+  }
+
+  /**
+   * Greatest value, same types of {@link ColumnProfile#getMin()}.
+   * @return max value, null for other types or when every value is null.
+   */
+  public Object getMax() {
+    return max;
+  }
+
+  /**
+   * @return a new profile of both columns values.
+   * @throws IllegalArgumentException when the columns have different types.
+   */
+  public ColumnProfile merge(ColumnProfile other) {
+    if (type != other.type) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Cannot merge profiles of column %s: %s and %s", name, type.name(), other.type.name()));
+    }
+    ColumnProfile merged = new ColumnProfile(name, type, distinct.copy());
+    merged.distinct.merge(other.distinct);
+    merged.valueCount = valueCount + other.valueCount;
+    merged.nullCount = nullCount + other.nullCount;
+    merged.blankCount = blankCount + other.blankCount;
+    merged.min = min;
+    merged.max = max;
+    merged.updateRange(other.min);
+    merged.updateRange(other.max);
+    return merged;
+  }
+
+  /**
+   * Reads the profiles stored in a parquet footer.
+   * @param keyValueMetaData footer key-value metadata.
+   * @return column name to profile, empty when the file has no profiles.
+   */
+  public static Map<String, ColumnProfile> fromFooter(Map<String, String> keyValueMetaData) {
+    Map<String, ColumnProfile> profiles = new LinkedHashMap<>();
+    keyValueMetaData.forEach(
+        (key, value) -> {
+          if (key.startsWith(FOOTER_KEY_PREFIX)) {
+            String column = key.substring(FOOTER_KEY_PREFIX.length());
+            profiles.put(column, parse(column, value));
+          }
+        });
+    return profiles;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ColumnProfile{name=%s, type=%s, values=%s, nulls=%s, blanks=%s, distinct=%s, min=%s, max=%s}",
+        name, type.name(), valueCount, nullCount, blankCount, getDistinctCount(), min, max);
+  }
+
+  /**
+   * Merges every source profile into the target map, by column name. Columns with different types
+   * in both maps keep the target profile.
+   */
+  static void mergeInto(Map<String, ColumnProfile> target, Map<String, ColumnProfile> source) {
+    source.forEach(
+        (column, profile) -> {
+          ColumnProfile current = target.get(column);
+          if (current == null) {
+            target.put(column, profile);
+          } else if (current.type != profile.type) {
+            logger.warn(
+                String.format(
+                    "Column %s has types %s and %s, keeping the %s profile",
+                    column, current.type.name(), profile.type.name(), current.type.name()));
+          } else {
+            target.put(column, current.merge(profile));
+          }
+        });
+  }
+
+  /**
+   * Adds the values of a decoded column batch, read from records [from, from + size) of the batch.
+   */
+  void update(DbfColumnBatch columnBatch, DbfRecordBatch records, int from) {
+    for (int i = 0; i < columnBatch.size; ++i) {
+      if (columnBatch.isBlank(records, from + i)) {
+        ++blankCount;
+      }
+      if (columnBatch.nulls[i]) {
+        ++nullCount;
+        continue;
+      }
+      ++valueCount;
+
+      switch (type) {
+        case CHARACTER:
+          distinct.add(
+              HyperLogLog.hash(columnBatch.bytes, columnBatch.offsets[i], columnBatch.length(i)));
+          break;
+        case NUMERIC:
+          BigDecimal decimal = columnBatch.decimal(i);
+          // Same hash for the same number, e.g. 1.0 and 1.00.
+          BigDecimal normalized = decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros();
+          byte[] unscaled = normalized.unscaledValue().toByteArray();
+          distinct.add(
+              HyperLogLog.hash(unscaled, 0, unscaled.length) ^ HyperLogLog.hash(normalized.scale()));
+          updateRange(decimal);
+          break;
+        case FLOATING_POINT:
+          float value = columnBatch.floats[i];
+          distinct.add(HyperLogLog.hash(Float.floatToIntBits(value)));
+          if (!Float.isNaN(value)) {
+            updateRange(value);
+          }
+          break;
+        case DATE:
+          int epochDay = columnBatch.ints[i];
+          distinct.add(HyperLogLog.hash(epochDay));
+          updateRange(LocalDate.ofEpochDay(epochDay));
+          break;
+        case LOGICAL:
+          distinct.add(HyperLogLog.hash(columnBatch.booleans[i] ? 1 : 0));
+          break;
+        default:
+          throw new UnsupportedOperationException(
+              "Cannot profile DBF column: unknown type " + type.name());
+      }
+    }
+  }
+
+  /**
+   * @return the profile as a footer value, e.g. "type=DATE;values=10;nulls=0;blanks=0;min=...".
+   */
+  String toFooterValue() {
+    StringBuilder value = new StringBuilder();
+    value
+        .append("type=").append(type.name())
+        .append(";values=").append(valueCount)
+        .append(";nulls=").append(nullCount)
+        .append(";blanks=").append(blankCount)
+        .append(";distinct=").append(getDistinctCount());
+    if (min != null) {
+      value.append(";min=").append(format(min)).append(";max=").append(format(max));
+    }
+    value.append(";hll=").append(Base64.getEncoder().encodeToString(distinct.toBytes()));
+    return value.toString();
+  }
+
+  static ColumnProfile parse(String name, String footerValue) {
+    Map<String, String> entries = new HashMap<>();
+    for (String entry : footerValue.split(";")) {
+      int separator = entry.indexOf('=');
+      if (separator < 0) {
+        throw new IllegalArgumentException(
+            String.format("Invalid profile of column %s: %s", name, footerValue));
+      }
+      entries.put(entry.substring(0, separator), entry.substring(separator + 1));
+    }
+
+    DBFDataType type = DBFDataType.valueOf(entries.get("type"));
+    ColumnProfile profile =
+        new ColumnProfile(
+            name, type, HyperLogLog.fromBytes(Base64.getDecoder().decode(entries.get("hll"))));
+    profile.valueCount = Long.parseLong(entries.get("values"));
+    profile.nullCount = Long.parseLong(entries.get("nulls"));
+    profile.blankCount = Long.parseLong(entries.get("blanks"));
+    if (entries.containsKey("min")) {
+      profile.min = parseValue(type, entries.get("min"));
+      profile.max = parseValue(type, entries.get("max"));
+    }
+    return profile;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void updateRange(Comparable value) {
+    if (value == null) {
+      return;
+    }
+    if (min == null || value.compareTo(min) < 0) {
+      min = value;
+    }
+    if (max == null || value.compareTo(max) > 0) {
+      max = value;
+    }
+  }
+
+  private static String format(Object value) {
+    if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).toPlainString();
+    }
+    return value.toString();
+  }
+
+  private static Comparable<?> parseValue(DBFDataType type, String value) {
+    switch (type) {
+      case NUMERIC:
+        return new BigDecimal(value);
+      case FLOATING_POINT:
+        return Float.parseFloat(value);
+      case DATE:
+        return LocalDate.parse(value);
+      default:
+        throw new IllegalArgumentException("No range for DBF type " + type.name());
+    }
+  }
+}
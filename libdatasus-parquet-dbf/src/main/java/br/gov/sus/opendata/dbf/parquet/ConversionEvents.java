@@ -0,0 +1,100 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the conversions, recorded with the usual JFR settings, e.g. {@code
+ * -XX:StartFlightRecording} or {@code jcmd <pid> JFR.start}. <br>
+ * Without a recording, an event is an allocation the JIT usually removes and no-op calls: fields
+ * are only filled when {@link Event#shouldCommit()}.
+ */
+final class ConversionEvents {
+
+  static final String CATEGORY = "libdatasus";
+
+  private ConversionEvents() {}
+
+  @Name("br.gov.sus.opendata.dbf.Decompress")
+  @Label("DBC Decompression")
+  @Category({CATEGORY, "DBF Parquet"})
+  @Description("Native decompression of a DBC file to a temporary DBF file")
+  static final class Decompress extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Compressed Size")
+    @DataAmount
+    long compressedBytes;
+
+    @Label("Decompressed Size")
+    @DataAmount
+    long decompressedBytes;
+  }
+
+  @Name("br.gov.sus.opendata.dbf.Schema")
+  @Label("Schema Creation")
+  @Category({CATEGORY, "DBF Parquet"})
+  @Description("Conversion of a DBF header schema to a parquet or arrow schema")
+  static final class Schema extends Event {
+
+    @Label("Schema")
+    String schema;
+
+    @Label("Format")
+    String format;
+
+    @Label("Fields")
+    int fieldCount;
+  }
+
+  @Name("br.gov.sus.opendata.dbf.RowGroupFlush")
+  @Label("Row Group Flush")
+  @Category({CATEGORY, "DBF Parquet"})
+  @Description("Encoding, compression and write of a parquet row group")
+  static final class RowGroupFlush extends Event {
+
+    @Label("Schema")
+    String schema;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Buffered Size")
+    @DataAmount
+    long bufferedBytes;
+
+    @Label("Written Size")
+    @DataAmount
+    long writtenBytes;
+  }
+
+  @Name("br.gov.sus.opendata.dbf.Conversion")
+  @Label("Conversion")
+  @Category({CATEGORY, "DBF Parquet"})
+  @Description("Conversion of a file, or of the directory of a combining or partitioned task")
+  static final class Conversion extends Event {
+
+    @Label("Input")
+    String input;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Declared Rows")
+    long declaredRows;
+
+    @Label("Record Bytes Read")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Written")
+    @DataAmount
+    long bytesOut;
+  }
+}
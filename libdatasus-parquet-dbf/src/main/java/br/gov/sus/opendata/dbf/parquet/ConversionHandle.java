@@ -0,0 +1,69 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link ConversionHandle} is a conversion started by {@link DbfParquet#convertAsync(ConvertTask)}.
+ * <br>
+ * Cancellation is cooperative: the conversion checks it before each job and between record
+ * batches, stops, deletes its partial output files, then completes the future with a {@link
+ * CancellationException}. Files of a directory task converted before the cancellation are kept.
+ * Cancelling the future itself also stops the conversion, without waiting for the cleanup.
+ */
+public class ConversionHandle {
+
+  private final ConvertTask convertTask;
+
+  private final CompletableFuture<ConversionResult> future = new CompletableFuture<>();
+
+  private volatile boolean cancelled;
+
+  ConversionHandle(ConvertTask convertTask) {
+    this.convertTask = convertTask;
+    future.whenComplete(
+        (result, failure) -> {
+          if (failure instanceof CancellationException) {
+            cancelled = true;
+          }
+        });
+  }
+
+  public ConvertTask getConvertTask() {
+    return convertTask;
+  }
+
+  /**
+   * @return completed with the result of the task, or with its failure.
+   */
+  public CompletableFuture<ConversionResult> getFuture() {
+    return future;
+  }
+
+  /**
+   * Requests the conversion to stop, the future completes once it is stopped and cleaned up.
+   *
+   * @return false when the conversion was already done.
+   */
+  public boolean cancel() {
+    if (future.isDone()) {
+      return false;
+    }
+    cancelled = true;
+    return true;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @throws CancellationException when the conversion was cancelled.
+   */
+  void checkCancelled() {
+    if (cancelled) {
+      throw new CancellationException(
+          String.format("Conversion of %s cancelled", convertTask.getInput()));
+    }
+  }
+}
@@ -0,0 +1,322 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFField;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+
+/**
+ * {@link ConversionManifest} records the inputs converted to the outputs of a directory, for {@link
+ * ConvertTask#incremental()} conversions. <br>
+ * Each output has an entry with the size, modification time, SHA-256 fingerprint and schema of its
+ * input, and the writer settings of the task. An input is converted again only when its size,
+ * modification time or settings changed and its fingerprint differs, or when the output is missing
+ * or was modified. An input with the fingerprint and settings of another entry is copied from that
+ * entry output. <br>
+ * The manifest is a tab separated text file, rewritten after each conversion. A {@link DbfParquet}
+ * shares one manifest of each output directory between its tasks and calls. Each rewrite re-reads
+ * the file and merges its entries, under a lock of the manifest file in the process, so manifests
+ * of the same directory loaded by other engines of the process keep each other's entries. It is not
+ * safe for several processes.
+ */
+class ConversionManifest {
+
+  static final String FILE_NAME = ".libdatasus-manifest";
+
+  private static final String HEADER = "# libdatasus conversion manifest v1";
+
+  private static final Logger logger = LogManager.getLogger(ConversionManifest.class);
+
+  /* Lock of each manifest file in the process, by absolute path. */
+  private static final ConcurrentMap<Path, Object> fileLocks = new ConcurrentHashMap<>();
+
+  private final Path file;
+
+  /* Entry of each output, by output file name. */
+  private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+  private ConversionManifest(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * @param directory directory of the outputs.
+   * @return the manifest of the directory, empty when it does not exist yet.
+   */
+  static ConversionManifest load(Path directory) throws IOException {
+    ConversionManifest manifest =
+        new ConversionManifest(directory.toAbsolutePath().normalize().resolve(FILE_NAME));
+    synchronized (manifest.fileLock()) {
+      manifest.entries.putAll(read(manifest.file));
+    }
+    return manifest;
+  }
+
+  private static Map<String, Entry> read(Path file) throws IOException {
+    Map<String, Entry> entries = new LinkedHashMap<>();
+    if (Files.exists(file)) {
+      for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        Entry entry = Entry.parse(line);
+        entries.put(entry.output, entry);
+      }
+    }
+    return entries;
+  }
+
+  private Object fileLock() {
+    return fileLocks.computeIfAbsent(file, key -> new Object());
+  }
+
+  /**
+   * Converts the input, unless the manifest shows the output is up to date or another output holds
+   * the same content.
+   */
+  ConversionResult convert(
+      Path input,
+      Path output,
+      ConvertTask convertTask,
+      Configuration conf,
+      Conversion conversion)
+      throws IOException {
+    String settings = fingerprint(convertTask.describeSettings());
+    long size = Files.size(input);
+    long modified = Files.getLastModifiedTime(input).toMillis();
+    String outputName = output.getFileName().toString();
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(outputName);
+    }
+
+    if (entry != null
+        && entry.size == size
+        && entry.modified == modified
+        && entry.settings.equals(settings)
+        && entry.isIntact(output)) {
+      logger.info(String.format("Input %s unchanged, skipping conversion", input.toUri()));
+      return entry.toResult(convertTask, output, conf);
+    }
+
+    String content = fingerprint(input);
+    String schema = describeSchema(input, convertTask.getSchemaName());
+    if (entry != null
+        && entry.content.equals(content)
+        && entry.settings.equals(settings)
+        && entry.isIntact(output)) {
+      logger.info(String.format("Input %s content unchanged, skipping conversion", input.toUri()));
+      record(new Entry(outputName, input, size, modified, content, settings, schema,
+          entry.rowCount, entry.outputSize));
+      return entry.toResult(convertTask, output, conf);
+    }
+
+    Entry same = find(content, settings, output.toAbsolutePath().getParent());
+    if (same != null) {
+      Path source = output.resolveSibling(same.output);
+      logger.info(String.format("Input %s content already converted to %s, copying",
+          input.toUri(), source.toUri()));
+      Files.copy(source, output, StandardCopyOption.REPLACE_EXISTING);
+      record(new Entry(outputName, input, size, modified, content, settings, schema,
+          same.rowCount, Files.size(output)));
+      return same.toResult(convertTask, output, conf);
+    }
+
+    ConversionResult result = conversion.convert();
+    record(new Entry(outputName, input, size, modified, content, settings, schema,
+        result.getRowCount(), Files.size(output)));
+    return result;
+  }
+
+  private synchronized Entry find(String content, String settings, Path directory)
+      throws IOException {
+    for (Entry entry : entries.values()) {
+      if (entry.content.equals(content)
+          && entry.settings.equals(settings)
+          && entry.isIntact(directory.resolve(entry.output))) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Rewrites the manifest file with the entry, merged with the entries written meanwhile by other
+   * manifests of the directory.
+   */
+  private void record(Entry entry) throws IOException {
+    synchronized (fileLock()) {
+      synchronized (this) {
+        entries.putAll(read(file));
+        entries.put(entry.output, entry);
+        Files.createDirectories(file.getParent());
+        Path temporary = file.resolveSibling(FILE_NAME + "." + UUID.randomUUID() + ".tmp");
+        try {
+          try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Entry each : entries.values()) {
+              writer.write(each.format());
+              writer.newLine();
+            }
+          }
+          Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          Files.deleteIfExists(temporary);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return hex SHA-256 of the file content.
+   */
+  static String fingerprint(Path file) throws IOException {
+    MessageDigest digest = sha256();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = Files.newInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  private static String fingerprint(String text) {
+    return hex(sha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * @return the header fields, e.g. "CODMUN:C:6:0,VALOR:N:12:2".
+   */
+  private static String describeSchema(Path input, String schemaName) throws IOException {
+    try (InternalDbfReader header = InternalDbfReader.readHeader(input, schemaName)) {
+      DbfSchema schema = header.schema;
+      StringJoiner fields = new StringJoiner(",");
+      for (DBFField field : schema.fields) {
+        fields.add(field.getName() + ":" + field.getType().getCharCode() + ":" + field.getLength()
+            + ":" + field.getDecimalCount());
+      }
+      return fields.toString();
+    }
+  }
+
+  /**
+   * A conversion run when the manifest has no up to date output.
+   */
+  @FunctionalInterface
+  interface Conversion {
+    ConversionResult convert() throws IOException;
+  }
+
+  private static final class Entry {
+    final String output;
+
+    final String input;
+
+    final long size;
+
+    final long modified;
+
+    final String content;
+
+    final String settings;
+
+    final String schema;
+
+    final long rowCount;
+
+    final long outputSize;
+
+    Entry(String output, Path input, long size, long modified, String content, String settings,
+        String schema, long rowCount, long outputSize) {
+      this(output, input.getFileName().toString(), size, modified, content, settings, schema,
+          rowCount, outputSize);
+    }
+
+    private Entry(String output, String input, long size, long modified, String content,
+        String settings, String schema, long rowCount, long outputSize) {
+      this.output = output;
+      this.input = input;
+      this.size = size;
+      this.modified = modified;
+      this.content = content;
+      this.settings = settings;
+      this.schema = schema;
+      this.rowCount = rowCount;
+      this.outputSize = outputSize;
+    }
+
+    static Entry parse(String line) throws IOException {
+      String[] values = line.split("\t", -1);
+      if (values.length != 9) {
+        throw new IOException("Invalid manifest entry: " + line);
+      }
+      return new Entry(values[0], values[1], Long.parseLong(values[2]), Long.parseLong(values[3]),
+          values[4], values[5], values[6], Long.parseLong(values[7]), Long.parseLong(values[8]));
+    }
+
+    String format() {
+      return String.join("\t", output, input, Long.toString(size), Long.toString(modified),
+          content, settings, schema, Long.toString(rowCount), Long.toString(outputSize));
+    }
+
+    /**
+     * @return true when the output exists with the recorded size.
+     */
+    boolean isIntact(Path output) throws IOException {
+      return Files.isRegularFile(output) && Files.size(output) == outputSize;
+    }
+
+    /**
+     * The result of the recorded conversion, with the column profiles of the parquet footer.
+     */
+    ConversionResult toResult(ConvertTask convertTask, Path output, Configuration conf)
+        throws IOException {
+      if (!convertTask.profileColumns() || convertTask.getArrowFormat() != null) {
+        return new ConversionResult(convertTask, List.of(output), rowCount);
+      }
+      try (ParquetFileReader reader = ParquetFileReader.open(
+          HadoopInputFile.fromPath(new org.apache.hadoop.fs.Path(output.toUri()), conf))) {
+        return new ConversionResult(convertTask, List.of(output), rowCount,
+            ColumnProfile.fromFooter(reader.getFooter().getFileMetaData().getKeyValueMetaData()));
+      }
+    }
+  }
+}
@@ -0,0 +1,297 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ConversionMetrics} counts the conversions of the {@link DbfParquet} sharing it: files and
+ * rows converted, bytes decompressed, failures, queued conversions and the latency of each phase.
+ * <br>
+ * Counters and histograms are lock-free, updated once per file or phase. Values are read from code
+ * through the getters, or scraped in the Prometheus text format with {@link #toPrometheusText()}
+ * and {@link #serve(int)}. A registry may be shared by several {@link DbfParquet}, it is safe for
+ * concurrent use.
+ *
+ * @see DbfParquet.Builder#withMetrics(ConversionMetrics)
+ */
+public class ConversionMetrics {
+
+  private static final String PREFIX = "libdatasus_";
+
+  /* Upper bounds, in seconds, of the latency buckets. */
+  private static final double[] LATENCY_BUCKETS = {
+    0.01, 0.05, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 900
+  };
+
+  private final Counter filesConverted =
+      new Counter("files_converted_total", "DBF and DBC files converted");
+
+  private final Counter rowsConverted = new Counter("rows_converted_total", "Records converted");
+
+  private final Counter bytesDecompressed =
+      new Counter("bytes_decompressed_total", "DBF bytes decompressed from DBC files");
+
+  private final Counter failures =
+      new Counter("conversion_failures_total", "Failed conversions of a task or a file");
+
+  private final Gauge queueDepth =
+      new Gauge("conversion_queue_depth", "Conversions waiting for an executor thread");
+
+  private final Histogram decompressLatency =
+      new Histogram("decompress_seconds", "Native decompression of a DBC file");
+
+  private final Histogram writeLatency =
+      new Histogram("write_seconds", "Read and write of the records of a conversion");
+
+  private final Histogram flushLatency =
+      new Histogram("flush_seconds", "Flush and close of the outputs of a conversion");
+
+  private final Histogram conversionLatency =
+      new Histogram("conversion_seconds", "Conversion of a file, or of a combining or partitioned task");
+
+  public Counter getFilesConverted() {
+    return filesConverted;
+  }
+
+  public Counter getRowsConverted() {
+    return rowsConverted;
+  }
+
+  public Counter getBytesDecompressed() {
+    return bytesDecompressed;
+  }
+
+  public Counter getFailures() {
+    return failures;
+  }
+
+  public Gauge getQueueDepth() {
+    return queueDepth;
+  }
+
+  public Histogram getDecompressLatency() {
+    return decompressLatency;
+  }
+
+  public Histogram getWriteLatency() {
+    return writeLatency;
+  }
+
+  public Histogram getFlushLatency() {
+    return flushLatency;
+  }
+
+  public Histogram getConversionLatency() {
+    return conversionLatency;
+  }
+
+  /**
+   * @return every metric in the Prometheus text exposition format.
+   */
+  public String toPrometheusText() {
+    StringBuilder text = new StringBuilder();
+    filesConverted.appendTo(text);
+    rowsConverted.appendTo(text);
+    bytesDecompressed.appendTo(text);
+    failures.appendTo(text);
+    queueDepth.appendTo(text);
+    decompressLatency.appendTo(text);
+    writeLatency.appendTo(text);
+    flushLatency.appendTo(text);
+    conversionLatency.appendTo(text);
+    return text.toString();
+  }
+
+  /**
+   * Serves {@link #toPrometheusText()} at {@code /metrics}, on the loopback address only.
+   *
+   * @param port local port, 0 for any free port.
+   * @return the endpoint, stopped when closed.
+   */
+  public Endpoint serve(int port) throws IOException {
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    server.createContext(
+        "/metrics",
+        exchange -> {
+          byte[] body = toPrometheusText().getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.start();
+    return new Endpoint(server);
+  }
+
+  private static void appendHeader(StringBuilder text, String name, String help, String type) {
+    text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  /** A monotonic count. */
+  public static final class Counter {
+
+    private final String name;
+
+    private final String help;
+
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name, String help) {
+      this.name = name;
+      this.help = help;
+    }
+
+    void add(long delta) {
+      value.add(delta);
+    }
+
+    void increment() {
+      value.increment();
+    }
+
+    public long get() {
+      return value.sum();
+    }
+
+    void appendTo(StringBuilder text) {
+      appendHeader(text, name, help, "counter");
+      text.append(PREFIX).append(name).append(' ').append(get()).append('\n');
+    }
+  }
+
+  /** A value going up and down. */
+  public static final class Gauge {
+
+    private final String name;
+
+    private final String help;
+
+    private final AtomicLong value = new AtomicLong();
+
+    Gauge(String name, String help) {
+      this.name = name;
+      this.help = help;
+    }
+
+    void increment() {
+      value.incrementAndGet();
+    }
+
+    void decrement() {
+      value.decrementAndGet();
+    }
+
+    public long get() {
+      return value.get();
+    }
+
+    void appendTo(StringBuilder text) {
+      appendHeader(text, name, help, "gauge");
+      text.append(PREFIX).append(name).append(' ').append(get()).append('\n');
+    }
+  }
+
+  /** Latencies counted in fixed buckets, in seconds. */
+  public static final class Histogram {
+
+    private final String name;
+
+    private final String help;
+
+    /* One count per bucket, the last one for latencies above every bound. */
+    private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(String name, String help) {
+      this.name = name;
+      this.help = help;
+      Arrays.setAll(buckets, i -> new LongAdder());
+    }
+
+    void record(long nanos) {
+      double seconds = nanos / 1e9;
+      int bucket = 0;
+      while (bucket < LATENCY_BUCKETS.length && seconds > LATENCY_BUCKETS[bucket]) {
+        ++bucket;
+      }
+      buckets[bucket].increment();
+      sumNanos.add(nanos);
+    }
+
+    /**
+     * @return upper bounds of the buckets, in seconds.
+     */
+    public double[] getBounds() {
+      return LATENCY_BUCKETS.clone();
+    }
+
+    /**
+     * @return count of each bucket, not cumulative, the last one counting latencies above every
+     *     bound.
+     */
+    public long[] getBucketCounts() {
+      long[] counts = new long[buckets.length];
+      for (int i = 0; i < counts.length; ++i) {
+        counts[i] = buckets[i].sum();
+      }
+      return counts;
+    }
+
+    public long getCount() {
+      long count = 0;
+      for (LongAdder bucket : buckets) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    public double getSumSeconds() {
+      return sumNanos.sum() / 1e9;
+    }
+
+    void appendTo(StringBuilder text) {
+      appendHeader(text, name, help, "histogram");
+      long[] counts = getBucketCounts();
+      long cumulative = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        cumulative += counts[i];
+        String bound = i < LATENCY_BUCKETS.length ? Double.toString(LATENCY_BUCKETS[i]) : "+Inf";
+        text.append(PREFIX).append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+            .append(cumulative).append('\n');
+      }
+      text.append(PREFIX).append(name).append("_sum ").append(getSumSeconds()).append('\n');
+      text.append(PREFIX).append(name).append("_count ").append(cumulative).append('\n');
+    }
+  }
+
+  /** A running {@link #serve(int)} endpoint. */
+  public static final class Endpoint implements Closeable {
+
+    private final HttpServer server;
+
+    Endpoint(HttpServer server) {
+      this.server = server;
+    }
+
+    public int getPort() {
+      return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+      server.stop(0);
+    }
+  }
+}
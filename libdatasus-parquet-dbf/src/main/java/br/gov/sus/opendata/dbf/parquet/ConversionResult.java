@@ -0,0 +1,152 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ConversionResult} reports the output of a {@link ConvertTask}.
+ */
+public class ConversionResult {
+  private final ConvertTask convertTask;
+
+  private final List<Path> files;
+
+  private final long rowCount;
+
+  private final Map<String, ColumnProfile> columnProfiles;
+
+  private final List<ConversionResult> targetResults;
+
+  private final Map<Path, Exception> failures;
+
+  ConversionResult(ConvertTask convertTask, List<Path> files, long rowCount) {
+    this(convertTask, files, rowCount, Map.of());
+  }
+
+  ConversionResult(
+      ConvertTask convertTask,
+      List<Path> files,
+      long rowCount,
+      Map<String, ColumnProfile> columnProfiles) {
+    this(convertTask, files, rowCount, columnProfiles, List.of());
+  }
+
+  ConversionResult(
+      ConvertTask convertTask,
+      List<Path> files,
+      long rowCount,
+      Map<String, ColumnProfile> columnProfiles,
+      List<ConversionResult> targetResults) {
+    this(convertTask, files, rowCount, columnProfiles, targetResults, Map.of());
+  }
+
+  ConversionResult(
+      ConvertTask convertTask,
+      List<Path> files,
+      long rowCount,
+      Map<String, ColumnProfile> columnProfiles,
+      List<ConversionResult> targetResults,
+      Map<Path, Exception> failures) {
+    this.convertTask = convertTask;
+    this.files = List.copyOf(files);
+    this.rowCount = rowCount;
+    this.columnProfiles = Collections.unmodifiableMap(new LinkedHashMap<>(columnProfiles));
+    this.targetResults = List.copyOf(targetResults);
+    this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+  }
+
+  /**
+   * Sums the results of the files of a task: files, rows, profiles and the results of each target.
+   */
+  static ConversionResult combine(ConvertTask convertTask, List<ConversionResult> results) {
+    return combine(convertTask, results, Map.of());
+  }
+
+  /**
+   * Sums the results of the converted files of a task, along with the files which failed.
+   */
+  static ConversionResult combine(
+      ConvertTask convertTask, List<ConversionResult> results, Map<Path, Exception> failures) {
+    List<Path> files = new ArrayList<>();
+    long rowCount = 0;
+    Map<String, ColumnProfile> columnProfiles = new LinkedHashMap<>();
+    List<List<ConversionResult>> targetResults = new ArrayList<>();
+    for (int i = 0; i < convertTask.getTargets().size(); ++i) {
+      targetResults.add(new ArrayList<>());
+    }
+
+    for (ConversionResult result : results) {
+      files.addAll(result.files);
+      rowCount += result.rowCount;
+      ColumnProfile.mergeInto(columnProfiles, result.columnProfiles);
+      for (int i = 0; i < result.targetResults.size(); ++i) {
+        targetResults.get(i).add(result.targetResults.get(i));
+      }
+    }
+
+    List<ConversionResult> combinedTargets = new ArrayList<>();
+    for (int i = 0; i < targetResults.size(); ++i) {
+      combinedTargets.add(combine(convertTask.getTargets().get(i), targetResults.get(i)));
+    }
+    return new ConversionResult(
+        convertTask, files, rowCount, columnProfiles, combinedTargets, failures);
+  }
+
+  /**
+   * Task which produced this result.
+   * @return conversion task.
+   */
+  public ConvertTask getConvertTask() {
+    return convertTask;
+  }
+
+  /**
+   * Parquet files written by the task, in creation order.
+   * @return paths to the written files.
+   */
+  public List<Path> getFiles() {
+    return files;
+  }
+
+  /**
+   * Rows written across every file.
+   * @return row count.
+   */
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Profiles of every column, merged across files.
+   * @return column name to profile, empty unless {@link ConvertTask#profileColumns()}.
+   */
+  public Map<String, ColumnProfile> getColumnProfiles() {
+    return columnProfiles;
+  }
+
+  /**
+   * Results of the {@link ConvertTask#getTargets()}, in the same order.
+   * @return target results, empty when the task has no targets.
+   */
+  public List<ConversionResult> getTargetResults() {
+    return targetResults;
+  }
+
+  /**
+   * Input files of a directory task which could not be converted, the other files are converted
+   * regardless.
+   * @return input file to failure, empty when every file was converted.
+   */
+  public Map<Path, Exception> getFailures() {
+    return failures;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ConversionResult{files=%s, rowCount=%s}", files, rowCount);
+  }
+}
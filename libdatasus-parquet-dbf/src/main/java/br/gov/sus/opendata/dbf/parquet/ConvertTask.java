@@ -1,12 +1,29 @@
 package br.gov.sus.opendata.dbf.parquet;
 
+import com.linuxense.javadbf.DBFDataType;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 
 /**
  * {@link ConvertTask} provides configurations about DBC/DBF conversion process
  */
 public class ConvertTask {
+  public static final long DEFAULT_SORT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  public static final int DEFAULT_MAX_OPEN_WRITERS = 8;
+
   private final Path input;
 
   private final Path output;
@@ -15,30 +32,167 @@ public class ConvertTask {
 
   private final boolean combine;
 
+  private final int combineParallelism;
+
+  private final Map<String, Long> bloomFilterNdv;
+
+  private final Map<String, Double> bloomFilterFpp;
+
+  private final int statisticsTruncateLength;
+
+  private final int columnIndexTruncateLength;
+
+  private final int pageRowCountLimit;
+
+  private final List<String> sortColumns;
+
+  private final boolean zOrder;
+
+  private final long sortMemoryBudget;
+
+  private final Path sortSpillDirectory;
+
+  private final PartitionRule partitionRule;
+
+  private final int maxOpenWriters;
+
+  private final long maxRowsPerFile;
+
+  private final long targetFileSize;
+
+  private final int maxInFlightRowGroups;
+
+  private final CompressionCodecName compressionCodec;
+
+  private final boolean parallelCompression;
+
+  private final Set<DBFDataType> blankAsNullTypes;
+
+  private final boolean profileColumns;
+
+  private final ArrowFormat arrowFormat;
+
+  private final List<String> columns;
+
+  private final Map<String, Predicate<String>> filters;
+
+  private final List<ConvertTask> targets;
+
+  private final boolean incremental;
+
   private ConvertTask(Builder builder) {
     this.input = builder.input;
     this.output = builder.output;
     this.schemaName = builder.schemaName;
     this.combine = builder.combine;
+    this.combineParallelism = builder.combineParallelism;
+    this.bloomFilterNdv = Collections.unmodifiableMap(new LinkedHashMap<>(builder.bloomFilterNdv));
+    this.bloomFilterFpp = Collections.unmodifiableMap(new LinkedHashMap<>(builder.bloomFilterFpp));
+    this.statisticsTruncateLength = builder.statisticsTruncateLength;
+    this.columnIndexTruncateLength = builder.columnIndexTruncateLength;
+    this.pageRowCountLimit = builder.pageRowCountLimit;
+    this.sortColumns = builder.sortColumns;
+    this.zOrder = builder.zOrder;
+    this.sortMemoryBudget = builder.sortMemoryBudget;
+    this.sortSpillDirectory = builder.sortSpillDirectory;
+    this.partitionRule = builder.partitionRule;
+    this.maxOpenWriters = builder.maxOpenWriters;
+    this.maxRowsPerFile = builder.maxRowsPerFile;
+    this.targetFileSize = builder.targetFileSize;
+    this.maxInFlightRowGroups = builder.maxInFlightRowGroups;
+    this.compressionCodec = builder.compressionCodec;
+    this.parallelCompression = builder.parallelCompression;
+    this.blankAsNullTypes = Collections.unmodifiableSet(EnumSet.copyOf(builder.blankAsNullTypes));
+    this.profileColumns = builder.profileColumns;
+    this.arrowFormat = builder.arrowFormat;
+    this.columns = builder.columns;
+    this.filters = Collections.unmodifiableMap(new LinkedHashMap<>(builder.filters));
+    this.targets = List.copyOf(builder.targets);
+    this.incremental = builder.incremental;
   }
 
   public static Builder builder() {
     return new Builder();
   }
 
+  /**
+   * @return a builder with every setting of this task, e.g. to convert other inputs the same way.
+   */
+  public Builder toBuilder() {
+    Builder builder = new Builder();
+    builder.input = input;
+    builder.output = output;
+    builder.schemaName = schemaName;
+    builder.combine = combine;
+    builder.combineParallelism = combineParallelism;
+    builder.bloomFilterNdv.putAll(bloomFilterNdv);
+    builder.bloomFilterFpp.putAll(bloomFilterFpp);
+    builder.statisticsTruncateLength = statisticsTruncateLength;
+    builder.columnIndexTruncateLength = columnIndexTruncateLength;
+    builder.pageRowCountLimit = pageRowCountLimit;
+    builder.sortColumns = sortColumns;
+    builder.zOrder = zOrder;
+    builder.sortMemoryBudget = sortMemoryBudget;
+    builder.sortSpillDirectory = sortSpillDirectory;
+    builder.partitionRule = partitionRule;
+    builder.maxOpenWriters = maxOpenWriters;
+    builder.maxRowsPerFile = maxRowsPerFile;
+    builder.targetFileSize = targetFileSize;
+    builder.maxInFlightRowGroups = maxInFlightRowGroups;
+    builder.compressionCodec = compressionCodec;
+    builder.parallelCompression = parallelCompression;
+    builder.blankAsNullTypes.addAll(blankAsNullTypes);
+    builder.profileColumns = profileColumns;
+    builder.arrowFormat = arrowFormat;
+    builder.columns = columns;
+    builder.filters.putAll(filters);
+    builder.targets.addAll(targets);
+    builder.incremental = incremental;
+    return builder;
+  }
+
+  /**
+   * Tasks are equal when every setting is, filters and partition rules being compared by identity.
+   */
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     ConvertTask that = (ConvertTask) o;
-    return input.equals(that.input)
-        && output.equals(that.output)
-        && schemaName.equals(that.schemaName);
+    return Objects.equals(input, that.input)
+        && Objects.equals(output, that.output)
+        && Objects.equals(schemaName, that.schemaName)
+        && combine == that.combine
+        && combineParallelism == that.combineParallelism
+        && bloomFilterNdv.equals(that.bloomFilterNdv)
+        && bloomFilterFpp.equals(that.bloomFilterFpp)
+        && statisticsTruncateLength == that.statisticsTruncateLength
+        && columnIndexTruncateLength == that.columnIndexTruncateLength
+        && pageRowCountLimit == that.pageRowCountLimit
+        && sortColumns.equals(that.sortColumns)
+        && zOrder == that.zOrder
+        && sortMemoryBudget == that.sortMemoryBudget
+        && Objects.equals(sortSpillDirectory, that.sortSpillDirectory)
+        && Objects.equals(partitionRule, that.partitionRule)
+        && maxOpenWriters == that.maxOpenWriters
+        && maxRowsPerFile == that.maxRowsPerFile
+        && targetFileSize == that.targetFileSize
+        && maxInFlightRowGroups == that.maxInFlightRowGroups
+        && compressionCodec == that.compressionCodec
+        && parallelCompression == that.parallelCompression
+        && blankAsNullTypes.equals(that.blankAsNullTypes)
+        && profileColumns == that.profileColumns
+        && arrowFormat == that.arrowFormat
+        && columns.equals(that.columns)
+        && filters.equals(that.filters)
+        && targets.equals(that.targets)
+        && incremental == that.incremental;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(input, output, schemaName);
+    return Objects.hash(input, output, schemaName, combine, sortColumns, partitionRule, compressionCodec,
+        arrowFormat, columns, filters, targets, incremental);
   }
 
   /**
@@ -73,6 +227,246 @@ public class ConvertTask {
     return combine;
   }
 
+  /**
+   * Files of a combining conversion converted at once, each one to a temporary part with the
+   * combined schema. Parts are merged into the output by copying their row groups, without decoding
+   * them. Column indexes are not kept by the merge.
+   * @return number of files converted in parallel, 1 when files are combined sequentially.
+   */
+  public int getCombineParallelism() {
+    return combineParallelism;
+  }
+
+  /**
+   * Columns which will have a bloom filter written in each row group, mapped to the expected
+   * number of distinct values used to size the filter.
+   * @return column name to expected NDV, in insertion order.
+   */
+  public Map<String, Long> getBloomFilterNdv() {
+    return bloomFilterNdv;
+  }
+
+  /**
+   * False positive probability of the bloom filters, for columns that do not use the parquet default.
+   * @return column name to false positive probability.
+   */
+  public Map<String, Double> getBloomFilterFpp() {
+    return bloomFilterFpp;
+  }
+
+  /**
+   * Max length of min/max values stored in the row group statistics of binary columns.
+   * @return truncate length in bytes.
+   */
+  public int getStatisticsTruncateLength() {
+    return statisticsTruncateLength;
+  }
+
+  /**
+   * Max length of min/max values stored in the column indexes (page level statistics) of binary columns.
+   * @return truncate length in bytes.
+   */
+  public int getColumnIndexTruncateLength() {
+    return columnIndexTruncateLength;
+  }
+
+  /**
+   * Max number of rows in a single page. It defines the granularity of column and offset indexes,
+   * readers can skip pages only at these boundaries.
+   * @return row count limit per page.
+   */
+  public int getPageRowCountLimit() {
+    return pageRowCountLimit;
+  }
+
+  /**
+   * Columns used to sort records before writing. Empty when records are written in DBF physical order.
+   * @return sort columns, most significant first.
+   */
+  public List<String> getSortColumns() {
+    return sortColumns;
+  }
+
+  /**
+   * When enabled, records are sorted by the Z-order (Morton order) of {@link ConvertTask#getSortColumns()}
+   * instead of lexicographically, clustering all sort columns at once.
+   * @return flag indicating Z-order sorting.
+   */
+  public boolean zOrder() {
+    return zOrder;
+  }
+
+  /**
+   * Memory used to buffer records while sorting. Sorted runs exceeding it are spilled to disk and merged.
+   * @return memory budget in bytes.
+   */
+  public long getSortMemoryBudget() {
+    return sortMemoryBudget;
+  }
+
+  /**
+   * Directory for sort spill files, null means the system temporary directory.
+   * @return path to spill directory.
+   */
+  public Path getSortSpillDirectory() {
+    return sortSpillDirectory;
+  }
+
+  /**
+   * Rule deriving Hive-style partition directories from input file names. When set, the output is a
+   * partitioned dataset directory, e.g. "uf=MG/ano=2020/mes=04/part-00000.parquet".
+   * @return partition rule, null when the output is not partitioned.
+   */
+  public PartitionRule getPartitionRule() {
+    return partitionRule;
+  }
+
+  /**
+   * Max number of partition files kept open at once while writing a partitioned output.
+   * @return max open writers.
+   */
+  public int getMaxOpenWriters() {
+    return maxOpenWriters;
+  }
+
+  /**
+   * Max rows written to a single output file before rolling over to the next one.
+   * @return max rows per file, {@link Long#MAX_VALUE} when unlimited.
+   */
+  public long getMaxRowsPerFile() {
+    return maxRowsPerFile;
+  }
+
+  /**
+   * Output file size which, once reached, rolls over to the next file at a row group boundary.
+   * @return target size in bytes, {@link Long#MAX_VALUE} when unlimited.
+   */
+  public long getTargetFileSize() {
+    return targetFileSize;
+  }
+
+  /**
+   * When enabled by {@link ConvertTask#getMaxRowsPerFile()} or {@link ConvertTask#getTargetFileSize()},
+   * each output is a directory of part files: part-00000.parquet, part-00001.parquet and so on.
+   * @return flag indicating output rolling.
+   */
+  public boolean rolling() {
+    return maxRowsPerFile != Long.MAX_VALUE || targetFileSize != Long.MAX_VALUE;
+  }
+
+  /**
+   * Max row groups flushed to the output by a background thread while the next ones are filled.
+   * @return max in-flight row groups, 0 when row groups are flushed by the writing thread.
+   */
+  public int getMaxInFlightRowGroups() {
+    return maxInFlightRowGroups;
+  }
+
+  /**
+   * Compression codec of the output parquet pages.
+   * @return compression codec, uncompressed by default.
+   */
+  public CompressionCodecName getCompressionCodec() {
+    return compressionCodec;
+  }
+
+  /**
+   * When enabled, the column chunks of each row group are encoded and compressed concurrently on a
+   * pool shared by every conversion. The output layout is the same of a sequential write.
+   * @return flag indicating parallel compression.
+   */
+  public boolean parallelCompression() {
+    return parallelCompression;
+  }
+
+  /**
+   * DBF types converted to OPTIONAL parquet columns, where blank fields (only spaces or NULs) are
+   * written as nulls. Other types are REQUIRED columns.
+   * @return types with blank as null, empty by default.
+   */
+  public Set<DBFDataType> getBlankAsNullTypes() {
+    return blankAsNullTypes;
+  }
+
+  /**
+   * When enabled, distinct counts, null and blank counts, and numeric and date ranges of every column are
+   * computed while writing. They are stored in each file footer and reported by {@link ConversionResult#getColumnProfiles()}.
+   * @return flag indicating column profiling.
+   */
+  public boolean profileColumns() {
+    return profileColumns;
+  }
+
+  /**
+   * Arrow IPC format of the output files, written instead of parquet. Each DBC/DBF file results in
+   * a single Arrow file, e.g. "file.dbc.arrow", so partitioning, rolling, combining and sorting do not apply.
+   * @return Arrow format, null when the output is parquet.
+   */
+  public ArrowFormat getArrowFormat() {
+    return arrowFormat;
+  }
+
+  /**
+   * Columns written to the output, in output order. Empty when every column is written.
+   * @return projected column names.
+   */
+  public List<String> getColumns() {
+    return columns;
+  }
+
+  /**
+   * Filters of the written records: only records whose column values match every predicate are written.
+   * Predicates test the raw field text, trimmed, before any type conversion, e.g. "3550308" for a
+   * municipality code or "20200415" for a date.
+   * @return column name to predicate, empty when every record is written.
+   */
+  public Map<String, Predicate<String>> getFilters() {
+    return filters;
+  }
+
+  /**
+   * Additional outputs fed by the same read of the input: each record is decompressed and parsed once, then
+   * written to this task output and to every target. Targets have their own output, columns, filters and
+   * writer settings, their input is ignored. Records are sorted by this task only, targets can not be sorted,
+   * partitioned, combined, incremental, have targets or an Arrow output.
+   * @return target tasks, empty by default.
+   * @see ConversionResult#getTargetResults()
+   */
+  public List<ConvertTask> getTargets() {
+    return targets;
+  }
+
+  /**
+   * When enabled, a manifest beside the outputs records the size, modification time, content fingerprint and
+   * schema of each converted input, with the writer settings of its output. Unchanged inputs are skipped, and
+   * inputs whose content was already converted under another name are copied from the previous output.
+   * Combining, partitioned, rolling, filtered conversions and targets are not incremental.
+   * @return flag indicating incremental conversion.
+   */
+  public boolean incremental() {
+    return incremental;
+  }
+
+  /**
+   * @return the settings changing the content of the outputs, the input and output paths excluded.
+   */
+  String describeSettings() {
+    return String.join(";",
+        "schemaName=" + schemaName,
+        "bloomFilterNdv=" + bloomFilterNdv,
+        "bloomFilterFpp=" + bloomFilterFpp,
+        "statisticsTruncateLength=" + statisticsTruncateLength,
+        "columnIndexTruncateLength=" + columnIndexTruncateLength,
+        "pageRowCountLimit=" + pageRowCountLimit,
+        "sortColumns=" + sortColumns,
+        "zOrder=" + zOrder,
+        "compressionCodec=" + compressionCodec,
+        "blankAsNullTypes=" + blankAsNullTypes,
+        "profileColumns=" + profileColumns,
+        "arrowFormat=" + arrowFormat,
+        "columns=" + columns);
+  }
+
   public static class Builder {
     Path input;
 
@@ -82,6 +476,54 @@ public class ConvertTask {
 
     boolean combine = false;
 
+    int combineParallelism = 1;
+
+    final Map<String, Long> bloomFilterNdv = new LinkedHashMap<>();
+
+    final Map<String, Double> bloomFilterFpp = new LinkedHashMap<>();
+
+    int statisticsTruncateLength = ParquetProperties.DEFAULT_STATISTICS_TRUNCATE_LENGTH;
+
+    int columnIndexTruncateLength = ParquetProperties.DEFAULT_COLUMN_INDEX_TRUNCATE_LENGTH;
+
+    int pageRowCountLimit = ParquetProperties.DEFAULT_PAGE_ROW_COUNT_LIMIT;
+
+    List<String> sortColumns = Collections.emptyList();
+
+    boolean zOrder = false;
+
+    long sortMemoryBudget = DEFAULT_SORT_MEMORY_BUDGET;
+
+    Path sortSpillDirectory;
+
+    PartitionRule partitionRule;
+
+    int maxOpenWriters = DEFAULT_MAX_OPEN_WRITERS;
+
+    long maxRowsPerFile = Long.MAX_VALUE;
+
+    long targetFileSize = Long.MAX_VALUE;
+
+    int maxInFlightRowGroups = 0;
+
+    CompressionCodecName compressionCodec = ParquetWriter.DEFAULT_COMPRESSION_CODEC_NAME;
+
+    boolean parallelCompression = false;
+
+    final Set<DBFDataType> blankAsNullTypes = EnumSet.noneOf(DBFDataType.class);
+
+    boolean profileColumns = false;
+
+    ArrowFormat arrowFormat;
+
+    List<String> columns = Collections.emptyList();
+
+    final Map<String, Predicate<String>> filters = new LinkedHashMap<>();
+
+    final List<ConvertTask> targets = new ArrayList<>();
+
+    boolean incremental = false;
+
     /**
      * @see ConvertTask#getInput()
      */
@@ -122,7 +564,304 @@ public class ConvertTask {
       return this;
     }
 
+    /**
+     * @see ConvertTask#getCombineParallelism()
+     */
+    public Builder combineParallelism(int combineParallelism) {
+      if (combineParallelism <= 0) {
+        throw new IllegalArgumentException("`combineParallelism` must be positive");
+      }
+      this.combineParallelism = combineParallelism;
+      return this;
+    }
+
+    /**
+     * Enables a bloom filter for the given column.
+     * @param column DBF field name.
+     * @param expectedNdv expected number of distinct values in a row group.
+     * @see ConvertTask#getBloomFilterNdv()
+     */
+    public Builder bloomFilter(String column, long expectedNdv) {
+      if (expectedNdv <= 0) {
+        throw new IllegalArgumentException("`expectedNdv` must be positive");
+      }
+      this.bloomFilterNdv.put(column, expectedNdv);
+      return this;
+    }
+
+    /**
+     * Enables a bloom filter for the given column with a custom false positive probability.
+     * @see ConvertTask#getBloomFilterNdv()
+     * @see ConvertTask#getBloomFilterFpp()
+     */
+    public Builder bloomFilter(String column, long expectedNdv, double fpp) {
+      if (fpp <= 0 || fpp >= 1) {
+        throw new IllegalArgumentException("`fpp` must be between 0 and 1");
+      }
+      bloomFilter(column, expectedNdv);
+      this.bloomFilterFpp.put(column, fpp);
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getStatisticsTruncateLength()
+     */
+    public Builder statisticsTruncateLength(int statisticsTruncateLength) {
+      this.statisticsTruncateLength = statisticsTruncateLength;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getColumnIndexTruncateLength()
+     */
+    public Builder columnIndexTruncateLength(int columnIndexTruncateLength) {
+      this.columnIndexTruncateLength = columnIndexTruncateLength;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getPageRowCountLimit()
+     */
+    public Builder pageRowCountLimit(int pageRowCountLimit) {
+      this.pageRowCountLimit = pageRowCountLimit;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getSortColumns()
+     */
+    public Builder sortBy(String... columns) {
+      this.sortColumns = List.copyOf(Arrays.asList(columns));
+      this.zOrder = false;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getSortColumns()
+     * @see ConvertTask#zOrder()
+     */
+    public Builder zOrderBy(String... columns) {
+      this.sortColumns = List.copyOf(Arrays.asList(columns));
+      this.zOrder = true;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getSortMemoryBudget()
+     */
+    public Builder sortMemoryBudget(long sortMemoryBudget) {
+      if (sortMemoryBudget <= 0) {
+        throw new IllegalArgumentException("`sortMemoryBudget` must be positive");
+      }
+      this.sortMemoryBudget = sortMemoryBudget;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getSortSpillDirectory()
+     */
+    public Builder sortSpillDirectory(Path sortSpillDirectory) {
+      this.sortSpillDirectory = sortSpillDirectory;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getPartitionRule()
+     */
+    public Builder partitionBy(PartitionRule partitionRule) {
+      this.partitionRule = partitionRule;
+      return this;
+    }
+
+    /**
+     * Partitions the output by the UF and competência of DATASUS file names.
+     * @see DatasusPartitionRule
+     */
+    public Builder partitionByFileName() {
+      return partitionBy(new DatasusPartitionRule());
+    }
+
+    /**
+     * @see ConvertTask#getMaxOpenWriters()
+     */
+    public Builder maxOpenWriters(int maxOpenWriters) {
+      if (maxOpenWriters <= 0) {
+        throw new IllegalArgumentException("`maxOpenWriters` must be positive");
+      }
+      this.maxOpenWriters = maxOpenWriters;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getMaxRowsPerFile()
+     */
+    public Builder maxRowsPerFile(long maxRowsPerFile) {
+      if (maxRowsPerFile <= 0) {
+        throw new IllegalArgumentException("`maxRowsPerFile` must be positive");
+      }
+      this.maxRowsPerFile = maxRowsPerFile;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getTargetFileSize()
+     */
+    public Builder targetFileSize(long targetFileSize) {
+      if (targetFileSize <= 0) {
+        throw new IllegalArgumentException("`targetFileSize` must be positive");
+      }
+      this.targetFileSize = targetFileSize;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getMaxInFlightRowGroups()
+     */
+    public Builder asyncFlush(int maxInFlightRowGroups) {
+      if (maxInFlightRowGroups <= 0) {
+        throw new IllegalArgumentException("`maxInFlightRowGroups` must be positive");
+      }
+      this.maxInFlightRowGroups = maxInFlightRowGroups;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getCompressionCodec()
+     */
+    public Builder compressionCodec(CompressionCodecName compressionCodec) {
+      this.compressionCodec = compressionCodec;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#parallelCompression()
+     */
+    public Builder parallelCompression(boolean parallelCompression) {
+      this.parallelCompression = parallelCompression;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getBlankAsNullTypes()
+     */
+    public Builder blankAsNull(DBFDataType... types) {
+      this.blankAsNullTypes.addAll(Arrays.asList(types));
+      return this;
+    }
+
+    /**
+     * Blank as null for every DBF type supported by the conversion.
+     * @see ConvertTask#getBlankAsNullTypes()
+     */
+    public Builder blankAsNull() {
+      return blankAsNull(
+          DBFDataType.CHARACTER,
+          DBFDataType.NUMERIC,
+          DBFDataType.FLOATING_POINT,
+          DBFDataType.DATE,
+          DBFDataType.LOGICAL);
+    }
+
+    /**
+     * @see ConvertTask#profileColumns()
+     */
+    public Builder profileColumns(boolean profileColumns) {
+      this.profileColumns = profileColumns;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getArrowFormat()
+     */
+    public Builder arrowFormat(ArrowFormat arrowFormat) {
+      this.arrowFormat = arrowFormat;
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getColumns()
+     */
+    public Builder columns(String... columns) {
+      this.columns = List.copyOf(Arrays.asList(columns));
+      return this;
+    }
+
+    /**
+     * Filters on the given column, combined with other filters of the same column.
+     * @see ConvertTask#getFilters()
+     */
+    public Builder filter(String column, Predicate<String> predicate) {
+      this.filters.merge(column, predicate, Predicate::and);
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#getTargets()
+     */
+    public Builder addTarget(ConvertTask target) {
+      if (target.getOutput() == null) {
+        throw new IllegalArgumentException("`target` must have an output");
+      }
+      if (!target.getSortColumns().isEmpty()
+          || target.getArrowFormat() != null
+          || target.getPartitionRule() != null
+          || target.combine()
+          || target.incremental()
+          || !target.getTargets().isEmpty()) {
+        throw new IllegalArgumentException(
+            "`target` does not support sorting, Arrow output, partitioning, combining, incremental conversion or targets");
+      }
+      this.targets.add(target);
+      return this;
+    }
+
+    /**
+     * @see ConvertTask#incremental()
+     */
+    public Builder incremental(boolean incremental) {
+      this.incremental = incremental;
+      return this;
+    }
+
+    /**
+     * @throws IllegalArgumentException when Arrow output, targets, parallel combining or incremental conversion are
+     *     combined with options they do not support.
+     */
     public ConvertTask build() {
+      if (arrowFormat != null
+          && (combine
+              || partitionRule != null
+              || !sortColumns.isEmpty()
+              || maxRowsPerFile != Long.MAX_VALUE
+              || targetFileSize != Long.MAX_VALUE)) {
+        throw new IllegalArgumentException(
+            "Arrow output does not support combining, partitioning, sorting or rolling files");
+      }
+      if (arrowFormat != null && (!columns.isEmpty() || !filters.isEmpty())) {
+        throw new IllegalArgumentException("Arrow output does not support columns or filters");
+      }
+      if (!targets.isEmpty() && (arrowFormat != null || combine || partitionRule != null)) {
+        throw new IllegalArgumentException(
+            "Targets are not supported by Arrow, combining or partitioned conversions");
+      }
+      if (combineParallelism > 1
+          && (!sortColumns.isEmpty()
+              || maxRowsPerFile != Long.MAX_VALUE
+              || targetFileSize != Long.MAX_VALUE
+              || !bloomFilterNdv.isEmpty())) {
+        throw new IllegalArgumentException(
+            "Parallel combining does not support sorting, rolling files or bloom filters");
+      }
+      if (incremental
+          && (combine
+              || partitionRule != null
+              || maxRowsPerFile != Long.MAX_VALUE
+              || targetFileSize != Long.MAX_VALUE
+              || !filters.isEmpty()
+              || !targets.isEmpty())) {
+        throw new IllegalArgumentException(
+            "Incremental conversion does not support combining, partitioning, rolling files, filters or targets");
+      }
       return new ConvertTask(this);
     }
   }
@@ -0,0 +1,83 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link DatasusPartitionRule} parses the DATASUS file naming convention: system, UF and
+ * competência. E.g.:
+ * <pre>
+ *         CIHAMG2004.dbc (CIHA, MG, 2020-04) => uf=MG/ano=2020/mes=04
+ *         DNAC2010.dbc   (SINASC, AC, 2010)  => uf=AC/ano=2010
+ *         PCEAL11.dbc    (PCE, AL, 2011)     => uf=AL/ano=2011
+ * </pre>
+ * Two digit years from 70 on are read as 19xx.
+ */
+public class DatasusPartitionRule implements PartitionRule {
+
+  public static final String UF = "uf";
+
+  public static final String YEAR = "ano";
+
+  public static final String MONTH = "mes";
+
+  private static final Set<String> UFS =
+      Set.of(
+          "AC", "AL", "AM", "AP", "BA", "CE", "DF", "ES", "GO", "MA", "MG", "MS", "MT", "PA", "PB",
+          "PE", "PI", "PR", "RJ", "RN", "RO", "RR", "RS", "SC", "SE", "SP", "TO", "BR");
+
+  /* SIM and SINASC: DOAC2010, DNRRR2009. */
+  private static final Pattern YEARLY =
+      Pattern.compile("^(?:DO|DN|DOR|DNR)([A-Z]{2})(\\d{4})$");
+
+  /* Monthly systems, SIA files may be split with a letter suffix: CIHAMG2004, PASP2004A. */
+  private static final Pattern MONTHLY =
+      Pattern.compile("^[A-Z]{2,4}([A-Z]{2})(\\d{2})(\\d{2})[A-Z]?$");
+
+  /* Yearly systems with two digit years: PCEAL11, DNRAM94. */
+  private static final Pattern YEARLY_SHORT = Pattern.compile("^[A-Z]{2,4}([A-Z]{2})(\\d{2})$");
+
+  @Override
+  public Optional<Map<String, String>> partition(String fileName) {
+    String name = PartitionRule.baseName(fileName).toUpperCase(Locale.ROOT);
+
+    Matcher matcher = YEARLY.matcher(name);
+    if (matcher.matches() && UFS.contains(matcher.group(1))) {
+      return Optional.of(partition(matcher.group(1), matcher.group(2), null));
+    }
+
+    matcher = MONTHLY.matcher(name);
+    if (matcher.matches() && UFS.contains(matcher.group(1))) {
+      int month = Integer.parseInt(matcher.group(3));
+      if (month >= 1 && month <= 12) {
+        return Optional.of(partition(matcher.group(1), fullYear(matcher.group(2)), matcher.group(3)));
+      }
+    }
+
+    matcher = YEARLY_SHORT.matcher(name);
+    if (matcher.matches() && UFS.contains(matcher.group(1))) {
+      return Optional.of(partition(matcher.group(1), fullYear(matcher.group(2)), null));
+    }
+
+    return Optional.empty();
+  }
+
+  private static Map<String, String> partition(String uf, String year, String month) {
+    Map<String, String> partition = new LinkedHashMap<>();
+    partition.put(UF, uf);
+    partition.put(YEAR, year);
+    if (month != null) {
+      partition.put(MONTH, month);
+    }
+    return partition;
+  }
+
+  private static String fullYear(String shortYear) {
+    return (Integer.parseInt(shortYear) >= 70 ? "19" : "20") + shortYear;
+  }
+}
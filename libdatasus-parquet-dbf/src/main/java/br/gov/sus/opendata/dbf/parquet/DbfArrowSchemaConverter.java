@@ -0,0 +1,83 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
+import com.linuxense.javadbf.DBFField;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+/**
+ * {@link DbfArrowSchemaConverter} maps a {@link DbfSchema} to an Arrow schema, with the same types
+ * of {@link DbfSchemaConverter}: CHARACTER to Utf8, NUMERIC to Decimal, DATE to Date(DAY),
+ * FLOATING_POINT to FloatingPoint(SINGLE) and LOGICAL to Bool.
+ */
+class DbfArrowSchemaConverter {
+
+  static final String SCHEMA_NAME_METADATA = "libdatasus.schema.name";
+
+  /* Max precision of 128 bits Arrow decimals. */
+  private static final int MAX_DECIMAL_PRECISION = 38;
+
+  private final Set<DBFDataType> blankAsNullTypes;
+
+  DbfArrowSchemaConverter() {
+    this(Set.of());
+  }
+
+  /**
+   * @param blankAsNullTypes DBF types converted to nullable fields, where blank fields are nulls.
+   */
+  DbfArrowSchemaConverter(Set<DBFDataType> blankAsNullTypes) {
+    this.blankAsNullTypes = blankAsNullTypes;
+  }
+
+  Schema convert(DbfSchema dbfSchema) {
+    ConversionEvents.Schema event = new ConversionEvents.Schema();
+    event.begin();
+    List<Field> fields = new ArrayList<>(dbfSchema.fields.length);
+    for (DBFField dbfField : dbfSchema.fields) {
+      boolean nullable = blankAsNullTypes.contains(dbfField.getType());
+      fields.add(
+          new Field(dbfField.getName(), new FieldType(nullable, getArrowType(dbfField), null), null));
+    }
+    Schema schema = new Schema(fields, Map.of(SCHEMA_NAME_METADATA, dbfSchema.name));
+    if (event.shouldCommit()) {
+      event.schema = dbfSchema.name;
+      event.format = "arrow";
+      event.fieldCount = dbfSchema.fields.length;
+      event.commit();
+    }
+    return schema;
+  }
+
+  private ArrowType getArrowType(DBFField dbfField) {
+    switch (dbfField.getType()) {
+      case CHARACTER:
+        return ArrowType.Utf8.INSTANCE;
+      case DATE:
+        return new ArrowType.Date(DateUnit.DAY);
+      case NUMERIC:
+        // The field length counts sign and separator, enough digits for any value of the field.
+        int precision =
+            Math.min(
+                Math.max(dbfField.getLength(), dbfField.getDecimalCount() + 1),
+                MAX_DECIMAL_PRECISION);
+        return new ArrowType.Decimal(precision, dbfField.getDecimalCount(), 128);
+      case FLOATING_POINT:
+        return new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+      case LOGICAL:
+        return ArrowType.Bool.INSTANCE;
+      default:
+        throw new UnsupportedOperationException(
+            "Cannot convert DBF file: unknown type " + dbfField.getType().name());
+    }
+  }
+}
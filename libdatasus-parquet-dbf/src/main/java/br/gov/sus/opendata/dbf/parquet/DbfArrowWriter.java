@@ -0,0 +1,190 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
+import com.linuxense.javadbf.DBFException;
+import com.linuxense.javadbf.DBFField;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.Set;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.ipc.ArrowWriter;
+
+/**
+ * {@link DbfArrowWriter} writes {@link DbfRecordBatch} as Arrow IPC record batches, one record batch
+ * per DBF batch. Fields are decoded by {@link DbfColumnBatch}, the same values of {@link
+ * DbfBatchWriter}, straight into the Arrow vectors. <br>
+ * Arrow is a provided dependency: arrow-vector and a memory implementation, e.g.
+ * arrow-memory-unsafe, must be on the classpath.
+ *
+ * @see DbfArrowSchemaConverter
+ */
+class DbfArrowWriter implements Closeable {
+
+  /* Larger than parquet batches, each DBF batch is an Arrow record batch. */
+  static final int DEFAULT_BATCH_SIZE = 16 * 1024;
+
+  private final BufferAllocator allocator;
+
+  private final VectorSchemaRoot root;
+
+  private final ArrowWriter writer;
+
+  private final DbfColumnBatch[] columnBatches;
+
+  private long recordCount = 0;
+
+  /**
+   * @param out output channel, closed with the writer.
+   * @param batchSize max records of the batches written.
+   */
+  DbfArrowWriter(
+      WritableByteChannel out,
+      ArrowFormat format,
+      DbfSchema dbfSchema,
+      Set<DBFDataType> blankAsNullTypes,
+      int batchSize)
+      throws IOException {
+    this.allocator = new RootAllocator();
+    this.root =
+        VectorSchemaRoot.create(
+            new DbfArrowSchemaConverter(blankAsNullTypes).convert(dbfSchema), allocator);
+    this.writer =
+        format == ArrowFormat.FILE
+            ? new ArrowFileWriter(root, null, out)
+            : new ArrowStreamWriter(root, null, out);
+
+    int[] fieldOffsets = dbfSchema.fieldOffsets();
+    this.columnBatches = new DbfColumnBatch[dbfSchema.fields.length];
+    for (int i = 0; i < columnBatches.length; ++i) {
+      DBFField field = dbfSchema.fields[i];
+      columnBatches[i] =
+          new DbfColumnBatch(
+              field, fieldOffsets[i], batchSize, blankAsNullTypes.contains(field.getType()));
+    }
+
+    writer.start();
+  }
+
+  long getRecordCount() {
+    return recordCount;
+  }
+
+  void write(DbfRecordBatch records) throws IOException {
+    if (records.size == 0) {
+      return;
+    }
+
+    root.allocateNew();
+    for (int column = 0; column < columnBatches.length; ++column) {
+      DbfColumnBatch columnBatch = columnBatches[column];
+      columnBatch.decode(records, 0, records.size);
+      if (!columnBatch.blankAsNull) {
+        checkRequired(columnBatch);
+      }
+      writeColumn(columnBatch, root.getVector(column));
+    }
+    root.setRowCount(records.size);
+    writer.writeBatch();
+    recordCount += records.size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writer.end();
+    } finally {
+      writer.close();
+      root.close();
+      allocator.close();
+    }
+  }
+
+  private static void writeColumn(DbfColumnBatch columnBatch, FieldVector vector) {
+    boolean[] nulls = columnBatch.nulls;
+    switch (columnBatch.type) {
+      case CHARACTER:
+        VarCharVector varChars = (VarCharVector) vector;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            varChars.setNull(i);
+            continue;
+          }
+          varChars.setSafe(i, columnBatch.bytes, columnBatch.offsets[i], columnBatch.length(i));
+        }
+        break;
+      case NUMERIC:
+        DecimalVector decimals = (DecimalVector) vector;
+        int scale = decimals.getScale();
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            decimals.setNull(i);
+            continue;
+          }
+          // Values keep the scale of the DBF text, Arrow decimals have the field scale.
+          BigDecimal decimal = columnBatch.decimal(i);
+          decimals.setSafe(
+              i, decimal.scale() == scale ? decimal : decimal.setScale(scale, RoundingMode.HALF_UP));
+        }
+        break;
+      case DATE:
+        DateDayVector dates = (DateDayVector) vector;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            dates.setNull(i);
+            continue;
+          }
+          dates.setSafe(i, columnBatch.ints[i]);
+        }
+        break;
+      case FLOATING_POINT:
+        Float4Vector floats = (Float4Vector) vector;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            floats.setNull(i);
+            continue;
+          }
+          floats.setSafe(i, columnBatch.floats[i]);
+        }
+        break;
+      case LOGICAL:
+        BitVector booleans = (BitVector) vector;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            booleans.setNull(i);
+            continue;
+          }
+          booleans.setSafe(i, columnBatch.booleans[i] ? 1 : 0);
+        }
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Cannot convert DBF file: unknown type " + columnBatch.type.name());
+    }
+    vector.setValueCount(columnBatch.size);
+  }
+
+  private void checkRequired(DbfColumnBatch columnBatch) {
+    for (int i = 0; i < columnBatch.size; ++i) {
+      if (columnBatch.nulls[i]) {
+        throw new DBFException(
+            String.format(
+                "Null value in required field %s of record %s",
+                columnBatch.field.getName(), recordCount + i));
+      }
+    }
+  }
+}
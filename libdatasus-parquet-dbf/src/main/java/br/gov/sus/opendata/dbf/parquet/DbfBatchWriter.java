@@ -0,0 +1,705 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
+import com.linuxense.javadbf.DBFException;
+import com.linuxense.javadbf.DBFField;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnWriteStore;
+import org.apache.parquet.column.ColumnWriter;
+import org.apache.parquet.column.ParquetProperties;
+import org.apache.parquet.crypto.FileEncryptionProperties;
+import org.apache.parquet.hadoop.CodecFactory;
+import org.apache.parquet.hadoop.ColumnChunkPageWriteStore;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.MessageType;
+
+/**
+ * {@link DbfBatchWriter} writes {@link DbfRecordBatch} straight to the parquet column writers. <br>
+ * DBF schemas are flat, so each field is decoded to a {@link DbfColumnBatch} and written a column
+ * at a time, without going through {@link org.apache.parquet.io.api.RecordConsumer}. The output is
+ * the same of {@link DbfParquetWriter}, row groups are checked at batch boundaries. <br>
+ * With async flush, a full row group is handed to a background thread, which writes it to the file
+ * while the next one is filled. Each buffered row group holds its own compressor, the compressor
+ * pool bounds how many row groups are in memory. <br>
+ * With parallel compression, every column has its own page store, so columns are encoded and
+ * compressed concurrently on the compression pool. Column chunks are still written in schema
+ * order, the file layout does not depend on the pool. <br>
+ * With a {@link MemoryBudget}, buffered and pending row groups are accounted in the budget. Row
+ * groups are shrunk to the writer share of the budget, and flushed early once it is exhausted.
+ *
+ * @see DbfParquetWriter.Builder#buildBatchWriter()
+ * @see DbfParquetWriter.Builder#withAsyncFlush(int)
+ * @see DbfParquetWriter.Builder#withParallelCompression(ExecutorService)
+ * @see DbfParquetWriter.Builder#withMemoryBudget(MemoryBudget)
+ */
+class DbfBatchWriter implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger(DbfBatchWriter.class);
+
+  private final DbfSchema dbfSchema;
+
+  private final MessageType schema;
+
+  private final ParquetFileWriter fileWriter;
+
+  private final List<CodecFactory.BytesCompressor> allCompressors = new ArrayList<>();
+
+  private final BlockingQueue<CodecFactory.BytesCompressor> compressors;
+
+  private final ParquetProperties props;
+
+  private final Map<String, String> extraMetaData;
+
+  private final long rowGroupSize;
+
+  private final DbfColumnBatch[] columnBatches;
+
+  private final List<ColumnDescriptor> columns;
+
+  /* Null when columns are not profiled. */
+  private final ColumnProfile[] profiles;
+
+  /* Null when row groups are flushed by the writing thread. */
+  private final ExecutorService flusher;
+
+  /* Null when columns are written by the writing thread. */
+  private final ExecutorService compressionPool;
+
+  private final Deque<Future<?>> pendingFlushes = new ArrayDeque<>();
+
+  private final AtomicLong pendingSize = new AtomicLong();
+
+  /* Null without a memory budget. */
+  private final MemoryBudget memoryBudget;
+
+  private final MemoryBudget.Reservation reservation;
+
+  /* Bytes of the current row group accounted in the budget. */
+  private long reservedSize = 0;
+
+  private RowGroup rowGroup;
+
+  private volatile long nextRowGroupSize;
+
+  private volatile long lastRowGroupEndPos = 0;
+
+  private long recordCount = 0;
+
+  private int rowGroupOrdinal = 0;
+
+  private boolean closed = false;
+
+  DbfBatchWriter(
+      OutputFile file,
+      ParquetFileWriter.Mode mode,
+      DbfSchema dbfSchema,
+      Map<String, String> extraMetaData,
+      CompressionCodecName codecName,
+      long rowGroupSize,
+      int maxPaddingSize,
+      ParquetProperties props,
+      Configuration conf,
+      FileEncryptionProperties encryptionProperties,
+      Set<DBFDataType> blankAsNullTypes,
+      boolean profileColumns,
+      int maxInFlightRowGroups,
+      ExecutorService compressionPool,
+      MemoryBudget memoryBudget)
+      throws IOException {
+    this.dbfSchema = dbfSchema;
+    this.schema = new DbfSchemaConverter(blankAsNullTypes).convert(dbfSchema);
+    this.columns = schema.getColumns();
+    this.extraMetaData = extraMetaData;
+    this.props = props;
+    this.rowGroupSize = rowGroupSize;
+    this.nextRowGroupSize = rowGroupSize;
+
+    this.fileWriter =
+        new ParquetFileWriter(
+            file,
+            schema,
+            mode,
+            rowGroupSize,
+            maxPaddingSize,
+            props.getColumnIndexTruncateLength(),
+            props.getStatisticsTruncateLength(),
+            props.getPageWriteChecksumEnabled(),
+            encryptionProperties);
+    fileWriter.start();
+
+    if (encryptionProperties != null && (maxInFlightRowGroups > 0 || compressionPool != null)) {
+      // The file encryptor is not thread safe, it is shared by every page store.
+      logger.warn("Async flush and parallel compression are not supported with encryption");
+      maxInFlightRowGroups = 0;
+      compressionPool = null;
+    }
+    this.compressionPool = compressionPool;
+
+    // One compressor per row group being filled or flushed, compressors are not thread safe.
+    this.compressors = new ArrayBlockingQueue<>(maxInFlightRowGroups + 1);
+    for (int i = 0; i <= maxInFlightRowGroups; ++i) {
+      CodecFactory.BytesCompressor compressor =
+          compressionPool != null
+              ? new PerThreadCompressor(conf, props.getPageSizeThreshold(), codecName)
+              : new CodecFactory(conf, props.getPageSizeThreshold()).getCompressor(codecName);
+      allCompressors.add(compressor);
+      compressors.add(compressor);
+    }
+    this.flusher =
+        maxInFlightRowGroups > 0
+            ? Executors.newSingleThreadExecutor(
+                runnable -> {
+                  Thread thread = new Thread(runnable, "dbf-parquet-flusher");
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+
+    int[] fieldOffsets = dbfSchema.fieldOffsets();
+    this.columnBatches = new DbfColumnBatch[dbfSchema.fields.length];
+    for (int i = 0; i < columnBatches.length; ++i) {
+      DBFField field = dbfSchema.fields[i];
+      columnBatches[i] =
+          new DbfColumnBatch(
+              field,
+              fieldOffsets[i],
+              DbfRecordBatch.DEFAULT_CAPACITY,
+              blankAsNullTypes.contains(field.getType()));
+    }
+
+    if (profileColumns) {
+      this.profiles = new ColumnProfile[dbfSchema.fields.length];
+      for (int i = 0; i < profiles.length; ++i) {
+        profiles[i] = new ColumnProfile(dbfSchema.fields[i].getName(), dbfSchema.fields[i].getType());
+      }
+    } else {
+      this.profiles = null;
+    }
+
+    rowGroup = newRowGroup();
+    this.memoryBudget = memoryBudget;
+    this.reservation = memoryBudget != null ? memoryBudget.reserve() : null;
+  }
+
+  /**
+   * Writes every record of the batch.
+   */
+  void write(DbfRecordBatch records) throws IOException {
+    write(records, 0, records.size);
+  }
+
+  /**
+   * Writes records [from, from + count) of the batch.
+   */
+  void write(DbfRecordBatch records, int from, int count) throws IOException {
+    while (count > 0) {
+      int slice = Math.min(count, DbfRecordBatch.DEFAULT_CAPACITY);
+      writeSlice(records, from, slice);
+      from += slice;
+      count -= slice;
+    }
+  }
+
+  /**
+   * @return the total size of data written to the file, being flushed and buffered in memory.
+   */
+  long getDataSize() {
+    return lastRowGroupEndPos + pendingSize.get() + rowGroup.getBufferedSize();
+  }
+
+  long getRecordCount() {
+    return recordCount;
+  }
+
+  DbfSchema getDbfSchema() {
+    return dbfSchema;
+  }
+
+  /**
+   * @return column name to profile of the values written so far, empty when columns are not
+   *     profiled.
+   */
+  Map<String, ColumnProfile> getColumnProfiles() {
+    Map<String, ColumnProfile> columnProfiles = new LinkedHashMap<>();
+    if (profiles != null) {
+      for (ColumnProfile profile : profiles) {
+        columnProfiles.put(profile.getName(), profile);
+      }
+    }
+    return columnProfiles;
+  }
+
+  /**
+   * @return the compression pool shared by every writer, one daemon thread per available processor.
+   */
+  static ExecutorService sharedCompressionPool() {
+    return SharedCompressionPool.POOL;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      flush(rowGroup);
+      awaitFlushes(true);
+      fileWriter.end(footerMetaData());
+    } finally {
+      if (flusher != null) {
+        flusher.shutdownNow();
+      }
+      allCompressors.forEach(CodecFactory.BytesCompressor::release);
+      if (reservation != null) {
+        reservation.close();
+      }
+    }
+  }
+
+  private Map<String, String> footerMetaData() {
+    if (profiles == null) {
+      return extraMetaData;
+    }
+    Map<String, String> metaData = new HashMap<>(extraMetaData);
+    for (ColumnProfile profile : profiles) {
+      metaData.put(ColumnProfile.FOOTER_KEY_PREFIX + profile.getName(), profile.toFooterValue());
+    }
+    return metaData;
+  }
+
+  private void writeSlice(DbfRecordBatch records, int from, int count) throws IOException {
+    rowGroup.forEachStore(
+        store -> {
+          for (int i = 0; i < store.columnIndexes.length; ++i) {
+            int column = store.columnIndexes[i];
+            DbfColumnBatch columnBatch = columnBatches[column];
+            columnBatch.decode(records, from, count);
+            writeColumn(columnBatch, store.columnWriters[i]);
+            if (profiles != null) {
+              profiles[column].update(columnBatch, records, from);
+            }
+          }
+          for (int i = 0; i < count; ++i) {
+            store.columnStore.endRecord();
+          }
+        });
+    rowGroup.recordCount += count;
+    recordCount += count;
+
+    checkRowGroupSize();
+  }
+
+  private void writeColumn(DbfColumnBatch columnBatch, ColumnWriter columnWriter) {
+    // OPTIONAL columns write nulls with definition level 0 and values with 1.
+    int definitionLevel = columnBatch.blankAsNull ? 1 : 0;
+    if (!columnBatch.blankAsNull) {
+      checkRequired(columnBatch);
+    }
+
+    boolean[] nulls = columnBatch.nulls;
+    switch (columnBatch.type) {
+      case CHARACTER:
+      case NUMERIC:
+        byte[] bytes = columnBatch.bytes;
+        int[] offsets = columnBatch.offsets;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            columnWriter.writeNull(0, 0);
+            continue;
+          }
+          columnWriter.write(
+              Binary.fromReusedByteArray(bytes, offsets[i], offsets[i + 1] - offsets[i]),
+              0,
+              definitionLevel);
+        }
+        break;
+      case DATE:
+        int[] ints = columnBatch.ints;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            columnWriter.writeNull(0, 0);
+            continue;
+          }
+          columnWriter.write(ints[i], 0, definitionLevel);
+        }
+        break;
+      case FLOATING_POINT:
+        float[] floats = columnBatch.floats;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            columnWriter.writeNull(0, 0);
+            continue;
+          }
+          columnWriter.write(floats[i], 0, definitionLevel);
+        }
+        break;
+      case LOGICAL:
+        boolean[] booleans = columnBatch.booleans;
+        for (int i = 0; i < columnBatch.size; ++i) {
+          if (nulls[i]) {
+            columnWriter.writeNull(0, 0);
+            continue;
+          }
+          columnWriter.write(booleans[i], 0, definitionLevel);
+        }
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Cannot convert DBF file: unknown type " + columnBatch.type.name());
+    }
+  }
+
+  private void checkRequired(DbfColumnBatch columnBatch) {
+    for (int i = 0; i < columnBatch.size; ++i) {
+      if (columnBatch.nulls[i]) {
+        DBFField field = columnBatch.field;
+        throw new DBFException(
+            String.format(
+                "Null value in required field %s of record %s",
+                field.getName(), recordCount + i));
+      }
+    }
+  }
+
+  private RowGroup newRowGroup() throws IOException {
+    CodecFactory.BytesCompressor compressor;
+    try {
+      compressor = compressors.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a row group flush");
+    }
+    return new RowGroup(compressor, rowGroupOrdinal++);
+  }
+
+  /* Same heuristic of parquet-mr InternalParquetRecordWriter, checked once per batch. */
+  private void checkRowGroupSize() throws IOException {
+    long memSize = rowGroup.getBufferedSize();
+    long recordSize = memSize / rowGroup.recordCount;
+    long limit = nextRowGroupSize;
+    if (reservation != null) {
+      reservation.add(memSize - reservedSize);
+      reservedSize = memSize;
+      limit = memoryBudget.rowGroupSize(limit);
+    }
+    if (memSize > (limit - 2 * recordSize)) {
+      logger.debug(
+          String.format(
+              "mem size %s > %s: flushing %s records to disk.",
+              memSize, limit, rowGroup.recordCount));
+      flush(rowGroup);
+      rowGroup = newRowGroup();
+    } else if (reservation != null
+        && memSize >= MemoryBudget.MIN_ROW_GROUP_SIZE
+        && memoryBudget.isExhausted()) {
+      logger.debug(
+          String.format(
+              "memory budget exhausted: flushing %s records of %s bytes to disk.",
+              rowGroup.recordCount, memSize));
+      flush(rowGroup);
+      rowGroup = newRowGroup();
+    }
+  }
+
+  /**
+   * Writes the row group to the file, on the flusher thread when async flush is enabled.
+   */
+  private void flush(RowGroup full) throws IOException {
+    // The row group stays accounted in the memory budget until it is written.
+    long reserved = reservedSize;
+    reservedSize = 0;
+    if (flusher == null) {
+      try {
+        full.flush();
+      } finally {
+        release(reserved);
+      }
+      return;
+    }
+
+    awaitFlushes(false);
+    long size = full.getBufferedSize();
+    pendingSize.addAndGet(size);
+    pendingFlushes.add(
+        flusher.submit(
+            () -> {
+              try {
+                full.flush();
+              } finally {
+                pendingSize.addAndGet(-size);
+                release(reserved);
+              }
+              return null;
+            }));
+  }
+
+  private void release(long reserved) {
+    if (reservation != null && reserved > 0) {
+      reservation.add(-reserved);
+    }
+  }
+
+  /**
+   * Rethrows the failure of finished flushes, waiting for every pending flush when all is set.
+   */
+  private void awaitFlushes(boolean all) throws IOException {
+    while (!pendingFlushes.isEmpty() && (all || pendingFlushes.peek().isDone())) {
+      try {
+        pendingFlushes.poll().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for a row group flush");
+      } catch (ExecutionException e) {
+        throw unwrap(e, "Row group flush failed");
+      }
+    }
+  }
+
+  private static IOException unwrap(ExecutionException e, String message) {
+    Throwable cause = e.getCause();
+    if (cause instanceof IOException) {
+      return (IOException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IOException(message, cause);
+  }
+
+  @FunctionalInterface
+  private interface StoreTask {
+    void run(ColumnStore store) throws IOException;
+  }
+
+  /**
+   * Column writers and page buffers of a single row group. Without a compression pool a single
+   * store holds every column, otherwise each column has its own store.
+   */
+  private final class RowGroup {
+
+    private final CodecFactory.BytesCompressor compressor;
+
+    private final ColumnStore[] stores;
+
+    private long recordCount = 0;
+
+    RowGroup(CodecFactory.BytesCompressor compressor, int ordinal) {
+      this.compressor = compressor;
+      if (compressionPool == null) {
+        int[] columnIndexes = new int[columns.size()];
+        Arrays.setAll(columnIndexes, i -> i);
+        this.stores = new ColumnStore[] {new ColumnStore(schema, columnIndexes, compressor, ordinal)};
+      } else {
+        this.stores = new ColumnStore[columns.size()];
+        for (int i = 0; i < stores.length; ++i) {
+          MessageType columnSchema = new MessageType(schema.getName(), schema.getType(i));
+          stores[i] = new ColumnStore(columnSchema, new int[] {i}, compressor, ordinal);
+        }
+      }
+    }
+
+    long getBufferedSize() {
+      long bufferedSize = 0;
+      for (ColumnStore store : stores) {
+        bufferedSize += store.columnStore.getBufferedSize();
+      }
+      return bufferedSize;
+    }
+
+    /**
+     * Runs the task for every store, concurrently on the compression pool when there is one.
+     */
+    void forEachStore(StoreTask task) throws IOException {
+      if (compressionPool == null) {
+        for (ColumnStore store : stores) {
+          task.run(store);
+        }
+        return;
+      }
+
+      List<Future<?>> futures = new ArrayList<>(stores.length);
+      for (ColumnStore store : stores) {
+        futures.add(
+            compressionPool.submit(
+                () -> {
+                  task.run(store);
+                  return null;
+                }));
+      }
+      try {
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } catch (InterruptedException e) {
+        futures.forEach(future -> future.cancel(true));
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted writing columns");
+      } catch (ExecutionException e) {
+        futures.forEach(future -> future.cancel(true));
+        throw unwrap(e, "Column write failed");
+      }
+    }
+
+    void flush() throws IOException {
+      ConversionEvents.RowGroupFlush event = new ConversionEvents.RowGroupFlush();
+      event.begin();
+      try {
+        if (recordCount > 0) {
+          long bufferedSize = event.isEnabled() ? getBufferedSize() : 0;
+          long startPos = fileWriter.getPos();
+          // Last pages and dictionaries are compressed concurrently, chunks written in order.
+          forEachStore(store -> store.columnStore.flush());
+          fileWriter.startBlock(recordCount);
+          for (ColumnStore store : stores) {
+            store.pageStore.flushToFileWriter(fileWriter);
+          }
+          fileWriter.endBlock();
+          lastRowGroupEndPos = fileWriter.getPos();
+          if (event.shouldCommit()) {
+            event.schema = schema.getName();
+            event.rows = recordCount;
+            event.bufferedBytes = bufferedSize;
+            event.writtenBytes = lastRowGroupEndPos - startPos;
+            event.commit();
+          }
+          nextRowGroupSize = Math.min(fileWriter.getNextRowGroupSize(), rowGroupSize);
+        }
+        for (ColumnStore store : stores) {
+          store.columnStore.close();
+        }
+      } finally {
+        compressors.add(compressor);
+      }
+    }
+  }
+
+  /**
+   * Page store and column writers of a subset of the schema columns.
+   */
+  private final class ColumnStore {
+
+    private final int[] columnIndexes;
+
+    private final ColumnChunkPageWriteStore pageStore;
+
+    private final ColumnWriteStore columnStore;
+
+    private final ColumnWriter[] columnWriters;
+
+    ColumnStore(
+        MessageType storeSchema,
+        int[] columnIndexes,
+        CodecFactory.BytesCompressor compressor,
+        int ordinal) {
+      this.columnIndexes = columnIndexes;
+      this.pageStore =
+          new ColumnChunkPageWriteStore(
+              compressor,
+              storeSchema,
+              props.getAllocator(),
+              props.getColumnIndexTruncateLength(),
+              props.getPageWriteChecksumEnabled(),
+              fileWriter.getEncryptor(),
+              ordinal);
+      this.columnStore = props.newColumnWriteStore(storeSchema, pageStore, pageStore);
+
+      List<ColumnDescriptor> storeColumns = storeSchema.getColumns();
+      this.columnWriters = new ColumnWriter[storeColumns.size()];
+      for (int i = 0; i < columnWriters.length; ++i) {
+        columnWriters[i] = columnStore.getColumnWriter(storeColumns.get(i));
+      }
+    }
+  }
+
+  /**
+   * Compressor shared by the page stores of a row group written on the compression pool, each pool
+   * thread compresses with its own codec compressor. The compressors are held by the writer, not by
+   * the long-lived pool threads, and dropped with it.
+   */
+  private static final class PerThreadCompressor extends CodecFactory.BytesCompressor {
+
+    private final Configuration conf;
+
+    private final int pageSize;
+
+    private final CompressionCodecName codecName;
+
+    private final Map<Thread, CodecFactory.BytesCompressor> threadCompressors =
+        new ConcurrentHashMap<>();
+
+    PerThreadCompressor(Configuration conf, int pageSize, CompressionCodecName codecName) {
+      this.conf = conf;
+      this.pageSize = pageSize;
+      this.codecName = codecName;
+    }
+
+    @Override
+    public BytesInput compress(BytesInput bytes) throws IOException {
+      return threadCompressors
+          .computeIfAbsent(
+              Thread.currentThread(),
+              thread -> new CodecFactory(conf, pageSize).getCompressor(codecName))
+          .compress(bytes);
+    }
+
+    @Override
+    public CompressionCodecName getCodecName() {
+      return codecName;
+    }
+
+    @Override
+    public void release() {
+      threadCompressors.values().forEach(CodecFactory.BytesCompressor::release);
+      threadCompressors.clear();
+    }
+  }
+
+  /* Lazily created on the first parallel writer. */
+  private static final class SharedCompressionPool {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ExecutorService POOL =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            runnable -> {
+              Thread thread =
+                  new Thread(
+                      runnable, "dbf-parquet-compression-" + THREAD_COUNT.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+}
@@ -0,0 +1,460 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import com.linuxense.javadbf.DBFDataType;
+import com.linuxense.javadbf.DBFException;
+import com.linuxense.javadbf.DBFField;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.Set;
+
+/**
+ * {@link DbfColumnBatch} decodes one field of a {@link DbfRecordBatch} into primitive vectors. <br>
+ * Decoded values are the same of {@link com.linuxense.javadbf.DBFReader} once converted by {@link
+ * DbfRowWritter}:
+ * <ul>
+ *   <li>CHARACTER: right trimmed, UTF-8 bytes in {@link DbfColumnBatch#bytes}.</li>
+ *   <li>NUMERIC: unscaled two's complement bytes of the decimal in {@link DbfColumnBatch#bytes}.</li>
+ *   <li>DATE: epoch days in {@link DbfColumnBatch#ints}.</li>
+ *   <li>FLOATING_POINT: {@link DbfColumnBatch#floats}.</li>
+ *   <li>LOGICAL: {@link DbfColumnBatch#booleans}.</li>
+ * </ul>
+ * Values javadbf reads as null are flagged in {@link DbfColumnBatch#nulls}, so are blank CHARACTER
+ * fields when blankAsNull is set.
+ */
+class DbfColumnBatch {
+
+  /* Charsets where ASCII bytes decode to the same UTF-8 bytes. */
+  private static final Set<String> ASCII_COMPATIBLE =
+      Set.of("US-ASCII", "ISO-8859-1", "ISO-8859-15", "UTF-8", "windows-1252", "IBM437", "IBM850");
+
+  private static final float[] FLOAT_10_POW = {
+    1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+
+  /* Digits which always fit a long. */
+  private static final int MAX_FAST_DIGITS = 18;
+
+  /* Below this year GregorianCalendar switches to the Julian calendar. */
+  private static final int MIN_FAST_YEAR = 1600;
+
+  final DBFField field;
+
+  final DBFDataType type;
+
+  private final int fieldOffset;
+
+  private final int fieldLength;
+
+  /** Blank fields are null, the field is an OPTIONAL column. */
+  final boolean blankAsNull;
+
+  int size;
+
+  final boolean[] nulls;
+
+  int[] ints;
+
+  float[] floats;
+
+  boolean[] booleans;
+
+  /** Variable length values: value i is bytes[offsets[i], offsets[i + 1]). */
+  byte[] bytes;
+
+  int[] offsets;
+
+  /** NUMERIC scale of each value, the unscaled bytes are not rescaled to the field decimals. */
+  int[] scales;
+
+  /* Scratch of the numeric parser: unscaled value and scale of the last parsed number. */
+  private long unscaled;
+
+  private int scale;
+
+  DbfColumnBatch(DBFField field, int fieldOffset, int capacity) {
+    this(field, fieldOffset, capacity, false);
+  }
+
+  DbfColumnBatch(DBFField field, int fieldOffset, int capacity, boolean blankAsNull) {
+    this.field = field;
+    this.type = field.getType();
+    this.fieldOffset = fieldOffset;
+    this.fieldLength = field.getLength();
+    this.blankAsNull = blankAsNull;
+    this.nulls = new boolean[capacity];
+
+    switch (type) {
+      case CHARACTER:
+        // Up to 2 UTF-8 bytes per ISO-8859-1 char, grown on demand for other charsets.
+        this.bytes = new byte[capacity * fieldLength * 2];
+        this.offsets = new int[capacity + 1];
+        break;
+      case NUMERIC:
+        this.bytes = new byte[capacity * Long.BYTES];
+        this.offsets = new int[capacity + 1];
+        this.scales = new int[capacity];
+        break;
+      case DATE:
+        this.ints = new int[capacity];
+        break;
+      case FLOATING_POINT:
+        this.floats = new float[capacity];
+        break;
+      case LOGICAL:
+        this.booleans = new boolean[capacity];
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Cannot convert DBF file: unknown type " + type.name());
+    }
+  }
+
+  /**
+   * Decodes records [from, from + count) of the batch.
+   */
+  void decode(DbfRecordBatch records, int from, int count) {
+    size = count;
+    Arrays.fill(nulls, 0, count, false);
+
+    switch (type) {
+      case CHARACTER:
+        decodeCharacter(records, from, count);
+        break;
+      case NUMERIC:
+        decodeNumeric(records, from, count);
+        break;
+      case DATE:
+        decodeDate(records, from, count);
+        break;
+      case FLOATING_POINT:
+        decodeFloat(records, from, count);
+        break;
+      case LOGICAL:
+        decodeLogical(records, from, count);
+        break;
+      default:
+        throw new UnsupportedOperationException(
+            "Cannot convert DBF file: unknown type " + type.name());
+    }
+  }
+
+  int length(int index) {
+    return offsets[index + 1] - offsets[index];
+  }
+
+  /**
+   * @return the NUMERIC value at index, as javadbf reads it.
+   */
+  BigDecimal decimal(int index) {
+    return new BigDecimal(new BigInteger(bytes, offsets[index], length(index)), scales[index]);
+  }
+
+  /**
+   * @return true when the raw field of the record holds only spaces or NULs.
+   */
+  boolean isBlank(DbfRecordBatch records, int record) {
+    int start = records.offset(record) + fieldOffset;
+    return isBlank(records.records, start, start + fieldLength);
+  }
+
+  private void decodeCharacter(DbfRecordBatch records, int from, int count) {
+    Charset charset = records.charset;
+    boolean latin1 = StandardCharsets.ISO_8859_1.equals(charset);
+    boolean asciiCompatible = latin1 || ASCII_COMPATIBLE.contains(charset.name());
+    byte[] source = records.records;
+    int position = 0;
+
+    for (int i = 0; i < count; ++i) {
+      int start = records.offset(from + i) + fieldOffset;
+      int end = start + fieldLength;
+      while (end > start && source[end - 1] == ' ') {
+        --end;
+      }
+
+      offsets[i] = position;
+      if (blankAsNull && isBlank(source, start, end)) {
+        nulls[i] = true;
+        continue;
+      }
+      ensureBytes(position + (end - start) * 2);
+      boolean ascii = asciiCompatible;
+      if (ascii) {
+        for (int b = start; b < end; ++b) {
+          if (source[b] < 0) {
+            ascii = false;
+            break;
+          }
+        }
+      }
+
+      if (ascii) {
+        System.arraycopy(source, start, bytes, position, end - start);
+        position += end - start;
+      } else if (latin1) {
+        for (int b = start; b < end; ++b) {
+          int c = source[b] & 0xFF;
+          if (c < 0x80) {
+            bytes[position++] = (byte) c;
+          } else {
+            bytes[position++] = (byte) (0xC0 | (c >> 6));
+            bytes[position++] = (byte) (0x80 | (c & 0x3F));
+          }
+        }
+      } else {
+        String value = new String(source, start, end - start, charset);
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(value);
+        ensureBytes(position + encoded.remaining());
+        int length = encoded.remaining();
+        encoded.get(bytes, position, length);
+        position += length;
+      }
+    }
+    offsets[count] = position;
+  }
+
+  /* NUL filled fields are blank too. */
+  private static boolean isBlank(byte[] source, int start, int end) {
+    for (int b = start; b < end; ++b) {
+      if (source[b] != ' ' && source[b] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void decodeNumeric(DbfRecordBatch records, int from, int count) {
+    int position = 0;
+
+    for (int i = 0; i < count; ++i) {
+      int start = records.offset(from + i) + fieldOffset;
+      offsets[i] = position;
+
+      switch (parseNumber(records.records, start)) {
+        case NULL:
+          nulls[i] = true;
+          break;
+        case FAST:
+          position = putUnscaled(unscaled, position);
+          scales[i] = scale;
+          break;
+        default:
+          BigDecimal decimal = parseBigDecimal(records.records, start);
+          scales[i] = decimal.scale();
+          byte[] unscaledBytes = decimal.unscaledValue().toByteArray();
+          ensureBytes(position + unscaledBytes.length);
+          System.arraycopy(unscaledBytes, 0, bytes, position, unscaledBytes.length);
+          position += unscaledBytes.length;
+      }
+    }
+    offsets[count] = position;
+  }
+
+  private void decodeFloat(DbfRecordBatch records, int from, int count) {
+    for (int i = 0; i < count; ++i) {
+      int start = records.offset(from + i) + fieldOffset;
+
+      switch (parseNumber(records.records, start)) {
+        case NULL:
+          nulls[i] = true;
+          break;
+        case FAST:
+          // Same steps of BigDecimal#floatValue for compact values.
+          if (scale == 0) {
+            floats[i] = (float) unscaled;
+            break;
+          }
+          if (Math.abs(unscaled) < 1L << 22 && scale < FLOAT_10_POW.length) {
+            floats[i] = (float) unscaled / FLOAT_10_POW[scale];
+            break;
+          }
+          floats[i] = parseBigDecimal(records.records, start).floatValue();
+          break;
+        default:
+          floats[i] = parseBigDecimal(records.records, start).floatValue();
+      }
+    }
+  }
+
+  private void decodeDate(DbfRecordBatch records, int from, int count) {
+    byte[] source = records.records;
+
+    for (int i = 0; i < count; ++i) {
+      int start = records.offset(from + i) + fieldOffset;
+      int year = digits(source, start, 4);
+      int month = digits(source, start + 4, 2);
+      int day = digits(source, start + 6, 2);
+
+      if (year >= MIN_FAST_YEAR && month >= 0 && day >= 0) {
+        // Lenient like GregorianCalendar: month 00 and day 00 roll back.
+        ints[i] =
+            (int) LocalDate.of(year, 1, 1).plusMonths(month - 1L).plusDays(day - 1L).toEpochDay();
+        continue;
+      }
+
+      Integer epochDay = calendarEpochDay(source, start);
+      if (epochDay == null) {
+        nulls[i] = true;
+      } else {
+        ints[i] = epochDay;
+      }
+    }
+  }
+
+  private void decodeLogical(DbfRecordBatch records, int from, int count) {
+    for (int i = 0; i < count; ++i) {
+      switch (records.records[records.offset(from + i) + fieldOffset]) {
+        case 'Y':
+        case 'y':
+        case 'T':
+        case 't':
+          booleans[i] = true;
+          break;
+        case 'N':
+        case 'n':
+        case 'F':
+        case 'f':
+          booleans[i] = false;
+          break;
+        default:
+          nulls[i] = true;
+      }
+    }
+  }
+
+  private enum ParseResult {
+    NULL,
+    FAST,
+    SLOW
+  }
+
+  /*
+   * Same rules of DBFUtils#readNumericStoredAsText: spaces and NUL bytes are removed, empty values,
+   * control or non ASCII bytes, '?' and '*' are null, ',' is a decimal separator and "." is zero.
+   * Plain decimals of up to 18 digits are parsed into unscaled/scale, anything else is left to
+   * BigDecimal.
+   */
+  private ParseResult parseNumber(byte[] source, int start) {
+    int end = start + fieldLength;
+    int length = 0;
+    int digitCount = 0;
+    boolean negative = false;
+    boolean dot = false;
+    boolean fast = true;
+    long value = 0;
+    int fraction = 0;
+
+    for (int i = start; i < end; ++i) {
+      byte b = source[i];
+      if (b == ' ' || b == 0) {
+        continue;
+      }
+      if (b < ' ' || b == '?' || b == '*') {
+        return ParseResult.NULL;
+      }
+      ++length;
+      if (!fast) {
+        continue;
+      }
+
+      if (b >= '0' && b <= '9') {
+        if (++digitCount > MAX_FAST_DIGITS) {
+          fast = false;
+          continue;
+        }
+        value = value * 10 + (b - '0');
+        if (dot) {
+          ++fraction;
+        }
+      } else if ((b == '.' || b == ',') && !dot) {
+        dot = true;
+      } else if ((b == '-' || b == '+') && length == 1) {
+        negative = b == '-';
+      } else {
+        fast = false;
+      }
+    }
+
+    if (length == 0) {
+      return ParseResult.NULL;
+    }
+    if (length == 1 && dot) {
+      unscaled = 0;
+      scale = 0;
+      return ParseResult.FAST;
+    }
+    if (!fast || digitCount == 0) {
+      return ParseResult.SLOW;
+    }
+
+    unscaled = negative ? -value : value;
+    scale = fraction;
+    return ParseResult.FAST;
+  }
+
+  private BigDecimal parseBigDecimal(byte[] source, int start) {
+    StringBuilder text = new StringBuilder(fieldLength);
+    for (int i = start; i < start + fieldLength; ++i) {
+      byte b = source[i];
+      if (b != ' ' && b != 0) {
+        text.append(b == ',' ? '.' : (char) b);
+      }
+    }
+
+    try {
+      return new BigDecimal(text.toString());
+    } catch (NumberFormatException e) {
+      throw new DBFException(
+          "Failed to parse Float value [" + text + "] : " + e.getMessage(), e);
+    }
+  }
+
+  /* Minimal big-endian two's complement, like BigInteger#toByteArray. */
+  private int putUnscaled(long value, int position) {
+    int length = (Long.SIZE - Long.numberOfLeadingZeros(value < 0 ? ~value : value)) / 8 + 1;
+    for (int i = length - 1; i >= 0; --i) {
+      bytes[position + i] = (byte) value;
+      value >>= 8;
+    }
+    return position + length;
+  }
+
+  private static int digits(byte[] source, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; ++i) {
+      int digit = source[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  /* Exactly DBFReader: Integer#parseInt of each part and a lenient GregorianCalendar. */
+  private static Integer calendarEpochDay(byte[] source, int start) {
+    try {
+      GregorianCalendar calendar =
+          new GregorianCalendar(
+              Integer.parseInt(new String(source, start, 4, StandardCharsets.US_ASCII)),
+              Integer.parseInt(new String(source, start + 4, 2, StandardCharsets.US_ASCII)) - 1,
+              Integer.parseInt(new String(source, start + 6, 2, StandardCharsets.US_ASCII)));
+      return (int)
+          calendar.getTime().toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private void ensureBytes(int capacity) {
+    if (bytes.length < capacity) {
+      bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+    }
+  }
+}
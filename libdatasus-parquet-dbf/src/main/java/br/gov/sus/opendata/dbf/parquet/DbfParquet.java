@@ -2,49 +2,113 @@ package br.gov.sus.opendata.dbf.parquet;
 
 import br.gov.sus.opendata.dbc.DbcNativeDecompressor;
 import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
-import com.linuxense.javadbf.DBFException;
+import br.gov.sus.opendata.dbf.parquet.ProgressEvent.Phase;
 import com.linuxense.javadbf.DBFField;
-import com.linuxense.javadbf.DBFRow;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.parquet.column.ParquetProperties.WriterVersion;
-import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.util.HadoopOutputFile;
+import org.apache.parquet.io.OutputFile;
 
 /**
- * {@link DbfParquet} converts a DBC/DBF file to parquet file.
+ * {@link DbfParquet} converts a DBC/DBF file to parquet file. <br>
+ * Instances are immutable and safe for concurrent use: a service may keep one instance, sharing its configuration,
+ * executor and memory budget, and call {@link #convert(ConvertTask)} from many threads. Each call runs only its own
+ * task.
  */
 public class DbfParquet {
     private final static String EXTENSION = ".parquet";
 
-    private final Set<ConvertTask> convertTasks;
+    /* Tasks of the builder, run by convert(). */
+    private final List<ConvertTask> convertTasks;
 
     private final Consumer<Object> onProgress;
 
+    /* Rows and record bytes read between two WRITE progress events. */
+    private final long progressRowInterval;
+
+    private final long progressByteInterval;
+
     private static final Logger logger = LogManager.getLogger(DbfParquet.class);
 
+    /* Shared by every writer, Configuration loads its resources once per instance, in the constructor. Null without
+       a Hadoop configuration: files are then written through java.nio, see conf(). */
     private final Configuration conf;
 
+    /* Runs the conversions, on the calling thread by default. */
+    private final Executor executor;
+
+    /* Runs the asynchronous conversions, the shared async pool unless an executor was given. */
+    private final Executor asyncExecutor;
+
+    /* Null when writers are not bounded by a memory budget. */
+    private final MemoryBudget memoryBudget;
+
+    private final ConversionMetrics metrics;
+
+    /* Null when DBC files are decompressed by every conversion. */
+    private final DecompressionCache decompressionCache;
+
+    /* Incremental manifest of each output directory, shared by the tasks and calls writing to it. */
+    private final Map<Path, ConversionManifest> manifests = new ConcurrentHashMap<>();
+
     DbfParquet(Builder builder) {
         this.conf = builder.conf;
-        this.convertTasks = builder.convertTasks;
+        if (conf != null) {
+            // Loads the configuration resources before any concurrent read.
+            conf.size();
+        }
+        this.convertTasks = List.copyOf(builder.convertTasks);
         this.onProgress = Optional.ofNullable(builder.onProgress).orElse(this::logProgress);
+        this.progressRowInterval = builder.progressRowInterval;
+        this.progressByteInterval = builder.progressByteInterval;
+        this.executor = Optional.ofNullable(builder.executor).orElse(Runnable::run);
+        this.asyncExecutor = Optional.ofNullable(builder.executor).orElseGet(() -> AsyncPool.EXECUTOR);
+        this.memoryBudget = builder.memoryBudget;
+        this.metrics = Optional.ofNullable(builder.metrics).orElseGet(ConversionMetrics::new);
+        this.decompressionCache = builder.decompressionCache;
+    }
+
+    /**
+     * @return the metrics of the conversions, shared with the other {@link DbfParquet} built with the same
+     * {@link Builder#withMetrics(ConversionMetrics)}.
+     */
+    public ConversionMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -62,16 +126,17 @@ public class DbfParquet {
      * </pre>
      *
      * @param input file or directory to be converted.
+     * @return the result of each executed task.
      * @throws IOException
      */
-    public void convert(Path input) throws IOException {
+    public List<ConversionResult> convert(Path input) throws IOException {
         Path output = Path.of(input.toString() + EXTENSION);
 
         if (Files.isDirectory(input)) {
             output = input;
         }
 
-        convert(input, output);
+        return convert(input, output);
     }
 
     /**
@@ -87,11 +152,87 @@ public class DbfParquet {
      *
      * @param input  input file or directory.
      * @param output output file or directory.
+     * @return the result of the conversion, the tasks of the builder are not run.
+     * @throws IOException
+     */
+    public List<ConversionResult> convert(Path input, Path output) throws IOException {
+        return List.of(convert(ConvertTask.builder().input(input).output(output).build()));
+    }
+
+    /**
+     * Executes a single conversion task, the tasks of the builder are not run. Safe to call from several threads.
+     *
+     * @return the result of the task.
      * @throws IOException
      */
-    public void convert(Path input, Path output) throws IOException {
-        convertTasks.add(ConvertTask.builder().input(input).output(output).build());
-        convert();
+    public ConversionResult convert(ConvertTask convertTask) throws IOException {
+        return convert(List.of(convertTask)).get(0);
+    }
+
+    /**
+     * Starts a single conversion task without blocking the caller, on the {@link Builder#withExecutor(Executor)}
+     * executor, or on a shared pool of daemon threads when none was given.
+     *
+     * <pre>
+     *     ConversionHandle handle = dbfParquet.convertAsync(task);
+     *     handle.getFuture().thenAccept(result -> ...);
+     *     ...
+     *     handle.cancel();
+     * </pre>
+     *
+     * @return the handle of the conversion, see {@link ConversionHandle} for its cancellation.
+     */
+    public ConversionHandle convertAsync(ConvertTask convertTask) {
+        return convertAsync(convertTask, asyncExecutor);
+    }
+
+    /**
+     * Starts a single conversion task without blocking the caller. The task input is listed, and each job of the task
+     * run, on the given executor.
+     *
+     * @return the handle of the conversion, see {@link ConversionHandle} for its cancellation.
+     */
+    public ConversionHandle convertAsync(ConvertTask convertTask, Executor executor) {
+        ConversionHandle handle = new ConversionHandle(convertTask);
+        CompletableFuture<ConversionResult> future = handle.getFuture();
+        try {
+            executor.execute(() -> {
+                try {
+                    handle.checkCancelled();
+                    List<Job> jobs = new ArrayList<>(createJobs(convertTask, handle));
+                    jobs.sort(Comparator.comparingLong((Job job) -> job.size).reversed());
+                    for (Job job : jobs) {
+                        job.start(executor, memoryBudget, metrics);
+                    }
+                    CompletableFuture.allOf(jobs.stream().map(job -> job.future).toArray(CompletableFuture[]::new))
+                            .whenComplete((ignored, failure) -> complete(handle, jobs));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return handle;
+    }
+
+    /**
+     * Completes the future of an asynchronous task once its jobs are done.
+     */
+    private void complete(ConversionHandle handle, List<Job> jobs) {
+        if (handle.isCancelled()) {
+            handle.getFuture().completeExceptionally(new CancellationException(
+                    String.format("Conversion of %s cancelled", handle.getConvertTask().getInput())));
+            return;
+        }
+        try {
+            ConversionResult result = collect(handle.getConvertTask(), jobs);
+            logger.info(String.format("Task finished - %s file(s), %s row(s)",
+                    result.getFiles().size(), result.getRowCount()));
+            handle.getFuture().complete(result);
+        } catch (Throwable e) {
+            handle.getFuture().completeExceptionally(e);
+        }
     }
 
     /**
@@ -123,114 +264,592 @@ public class DbfParquet {
      *         dbfParquet.convert();
      * </pre>
      *
+     * Tasks, and each file of directory tasks, run concurrently on the {@link Builder#withExecutor(Executor)}
+     * executor. A file of a directory task which fails is reported by {@link ConversionResult#getFailures()}, the
+     * other failures are thrown once every task is done.
+     *
+     * @return the result of each executed task.
      * @throws IOException
      */
-    public void convert() throws IOException {
-        for (ConvertTask convertTask : convertTasks) {
-            if (Files.isDirectory(convertTask.getInput())) {
-                convertFromDirectory(convertTask);
-                continue;
+    public List<ConversionResult> convert() throws IOException {
+        return convert(convertTasks);
+    }
+
+    private List<ConversionResult> convert(List<ConvertTask> tasks) throws IOException {
+        List<List<Job>> taskJobs = new ArrayList<>();
+        List<Job> jobs = new ArrayList<>();
+        for (ConvertTask convertTask : tasks) {
+            List<Job> jobsOfTask = createJobs(convertTask, null);
+            taskJobs.add(jobsOfTask);
+            jobs.addAll(jobsOfTask);
+        }
+
+        // Larger files first, the last ones to finish are then the smaller ones.
+        jobs.sort(Comparator.comparingLong((Job job) -> job.size).reversed());
+        for (Job job : jobs) {
+            job.start(executor, memoryBudget, metrics);
+        }
+
+        List<ConversionResult> results = new ArrayList<>();
+        Exception failure = null;
+        for (int i = 0; i < tasks.size(); ++i) {
+            try {
+                ConversionResult result = collect(tasks.get(i), taskJobs.get(i));
+                logger.info(String.format("Task finished - %s file(s), %s row(s)",
+                        result.getFiles().size(), result.getRowCount()));
+                results.add(result);
+            } catch (IOException | RuntimeException e) {
+                // Other tasks keep running, the first failure is thrown once every task is done.
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
             }
-            convertFile(convertTask);
         }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        return results;
     }
 
-    private void convertFromDirectory(ConvertTask convertTask) throws IOException {
-        if (convertTask.combine()) {
-            convertCombining(convertTask);
-            return;
+    /**
+     * A task is a single job, except for directory tasks converting each file on its own: one job per file.
+     *
+     * @param handle null when the conversion cannot be cancelled.
+     */
+    private List<Job> createJobs(ConvertTask convertTask, ConversionHandle handle) throws IOException {
+        Path input = convertTask.getInput();
+        String extension = convertTask.getArrowFormat() != null ? convertTask.getArrowFormat().getExtension() : EXTENSION;
+        if (!Files.isDirectory(input) || convertTask.combine() || convertTask.getPartitionRule() != null) {
+            ConversionFunction conversion;
+            if (convertTask.getArrowFormat() != null) {
+                conversion = () -> convertToArrow(convertTask, handle);
+            } else if (convertTask.getPartitionRule() != null) {
+                conversion = () -> convertPartitioned(convertTask, handle);
+            } else if (Files.isDirectory(input)) {
+                conversion = () -> convertCombining(convertTask, handle);
+            } else {
+                conversion = () -> convertFile(convertTask, handle);
+            }
+            if (convertTask.incremental() && !Files.isDirectory(input)) {
+                Path output = Files.isDirectory(convertTask.getOutput())
+                        ? convertTask.getOutput().resolve(input.getFileName() + extension)
+                        : convertTask.getOutput();
+                ConversionManifest manifest = manifest(output.toAbsolutePath().getParent());
+                conversion = incremental(manifest, input, output, convertTask, conversion);
+            }
+            conversion = cancellable(handle, conversion);
+            List<Path> inputs = Files.isDirectory(input) ? listInputs(convertTask) : List.of(input);
+            long size = 0;
+            for (Path file : inputs) {
+                size += estimateSize(file);
+            }
+            return List.of(new Job(null, size, conversion));
         }
 
-        try (DirectoryStream<Path> directoryStream =
-                     Files.newDirectoryStream(convertTask.getInput(), this::isSupportedFile)) {
-            for (Path input : directoryStream) {
-                convertFile(input, convertTask.getOutput().resolve(input.getFileName() + EXTENSION), convertTask.getSchemaName());
+        ConversionManifest manifest = convertTask.incremental() ? manifest(convertTask.getOutput()) : null;
+        List<Job> jobs = new ArrayList<>();
+        for (Path file : listInputs(convertTask)) {
+            Path output = convertTask.getOutput().resolve(file.getFileName() + extension);
+            ConversionFunction conversion = convertTask.getArrowFormat() != null
+                    ? () -> convertToArrow(file, output, convertTask, handle)
+                    : () -> convertFile(file, output, convertTask, handle);
+            if (manifest != null) {
+                conversion = incremental(manifest, file, output, convertTask, conversion);
             }
+            jobs.add(new Job(file, estimateSize(file), cancellable(handle, conversion)));
         }
+        return jobs;
     }
 
-    private void convertCombining(ConvertTask convertTask) throws IOException {
-        List<InternalDbfReader> readers = createReaders(convertTask);
-        if (readers.isEmpty()) return;
+    /**
+     * @return the manifest of the output directory, loaded by the first task writing to it.
+     */
+    private ConversionManifest manifest(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        ConversionManifest manifest = manifests.get(key);
+        if (manifest == null) {
+            ConversionManifest loaded = ConversionManifest.load(key);
+            manifest = Optional.ofNullable(manifests.putIfAbsent(key, loaded)).orElse(loaded);
+        }
+        return manifest;
+    }
+
+    /**
+     * Runs the conversion only when the manifest has no up to date output for the input.
+     */
+    private ConversionFunction incremental(ConversionManifest manifest, Path input, Path output,
+                                           ConvertTask convertTask, ConversionFunction conversion) {
+        return () -> manifest.convert(input, output, convertTask, conf(), conversion::convert);
+    }
+
+    /**
+     * Skips the conversion when it was cancelled before its job started.
+     */
+    private static ConversionFunction cancellable(ConversionHandle handle, ConversionFunction conversion) {
+        if (handle == null) {
+            return conversion;
+        }
+        return () -> {
+            handle.checkCancelled();
+            return conversion.convert();
+        };
+    }
+
+    /**
+     * Deletes the files written by a cancelled conversion.
+     */
+    private static void discard(Collection<Path> files) throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        logger.info(String.format("Conversion cancelled - %s partial file(s) deleted", files.size()));
+    }
+
+    /**
+     * @return result of a single job task, or the files of a directory task combined with the failures of its files.
+     */
+    private ConversionResult collect(ConvertTask convertTask, List<Job> jobs) throws IOException {
+        if (jobs.size() == 1 && jobs.get(0).input == null) {
+            return await(jobs.get(0).future);
+        }
+
+        List<ConversionResult> results = new ArrayList<>();
+        Map<Path, Exception> failures = new LinkedHashMap<>();
+        for (Job job : jobs) {
+            try {
+                results.add(await(job.future));
+            } catch (IOException | RuntimeException e) {
+                logger.error(String.format("File conversion failed - %s", job.input.toUri()), e);
+                failures.put(job.input, e);
+            }
+        }
+        return ConversionResult.combine(convertTask, results, failures);
+    }
+
+    /**
+     * @return uncompressed size of the file records declared in its header, the file size when the header is not
+     *     readable. Only used to schedule larger files first.
+     */
+    private long estimateSize(Path file) {
+        try (InternalDbfReader header = InternalDbfReader.readHeader(file, null)) {
+            return (long) header.getRecordCount() * header.schema.recordLength();
+        } catch (IOException | RuntimeException e) {
+            try {
+                return Files.size(file);
+            } catch (IOException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private ConversionResult convertToArrow(ConvertTask convertTask, ConversionHandle handle) throws IOException {
+        Path output = Files.isDirectory(convertTask.getOutput())
+                ? convertTask.getOutput().resolve(
+                        convertTask.getInput().getFileName() + convertTask.getArrowFormat().getExtension())
+                : convertTask.getOutput();
+        return convertToArrow(convertTask.getInput(), output, convertTask, handle);
+    }
+
+    private ConversionResult convertToArrow(Path input, Path output, ConvertTask convertTask, ConversionHandle handle)
+            throws IOException {
+        logger.info(String.format("Arrow conversion started - %s => %s", input.toUri(), output.toUri()));
+        Path parent = output.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        ProgressTracker tracker = tracker(convertTask, input, handle);
+        ConversionResult result;
+        try (InputStream inputStream = getInputStream(input, tracker);
+             InternalDbfReader dbfReader = new InternalDbfReader(inputStream, convertTask.getSchemaName());
+             DbfArrowWriter arrowWriter = new DbfArrowWriter(
+                     Files.newByteChannel(output, StandardOpenOption.CREATE,
+                             StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+                     convertTask.getArrowFormat(),
+                     dbfReader.schema,
+                     convertTask.getBlankAsNullTypes(),
+                     DbfArrowWriter.DEFAULT_BATCH_SIZE)) {
+            tracker.expect(dbfReader.getRecordCount());
+            tracker.emit(Phase.READ);
+            DbfRecordBatch batch = new DbfRecordBatch(dbfReader.schema, DbfArrowWriter.DEFAULT_BATCH_SIZE);
+            int recordLength = dbfReader.schema.recordLength();
+            while (dbfReader.nextRecords(batch)) {
+                arrowWriter.write(batch);
+                if (tracker.records(batch.size, (long) batch.size * recordLength)) {
+                    tracker.emit(Phase.WRITE);
+                }
+            }
+            tracker.emit(Phase.FLUSH);
+            logger.info(String.format("Write finished - %s row(s) converted", arrowWriter.getRecordCount()));
+            result = new ConversionResult(convertTask, List.of(output), arrowWriter.getRecordCount());
+        } catch (CancellationException e) {
+            discard(List.of(output));
+            throw e;
+        }
+        tracker.output(output, Files.size(output));
+        tracker.emit(Phase.DONE);
+        return result;
+    }
+
+    /**
+     * Combines the files of the input directory. The combined schema is built from the file headers only, then each
+     * file is opened, decompressed, written and released in turn: disk, memory and file descriptors in use do not
+     * grow with the number of files.
+     */
+    private ConversionResult convertCombining(ConvertTask convertTask, ConversionHandle handle) throws IOException {
+        List<Path> inputs = listInputs(convertTask);
+        if (inputs.isEmpty()) return new ConversionResult(convertTask, List.of(), 0);
 
         String schemaName =
                 Optional.ofNullable(convertTask.getSchemaName()).orElse(DbfSchema.DEFAULT_SCHEMA_NAME);
-        DbfSchema combinedSchema = createCombinedSchema(readers, schemaName);
+        List<DbfSchema> schemas = new ArrayList<>();
+        Charset charset = null;
+        for (Path input : inputs) {
+            try (InternalDbfReader header = InternalDbfReader.readHeader(input, schemaName)) {
+                schemas.add(header.schema);
+                charset = Optional.ofNullable(charset).orElse(header.getCharset());
+            }
+        }
+        DbfSchema combinedSchema = DbfSchemaMerger.merge(schemaName, schemas);
 
-        try (ParquetWriter<DBFRow> parquetWriter =
-                     DbfParquetWriter.builder(convertTask.getOutput().toString())
-                             .withDbfSchema(combinedSchema)
-                             .withValidation(false)
-                             .build()) {
+        RollingParquetWriter.WriterFactory writerFactory = (file, dbfSchema) ->
+                configure(DbfParquetWriter.builder(getOutputFile(file)), convertTask, dbfSchema)
+                        .withValidation(false)
+                        .buildBatchWriter();
+
+        ProgressTracker tracker = tracker(convertTask, convertTask.getInput(), handle);
+        List<DbfInput> dbfInputs = new ArrayList<>();
+        for (Path input : inputs) {
+            dbfInputs.add(() -> {
+                logger.info(String.format("Combining file %s", input.toUri()));
+                return new InternalDbfReader(getInputStream(input, tracker), schemaName);
+            });
+        }
 
-            for (InternalDbfReader reader : readers) {
-                write(reader, parquetWriter);
+        if (convertTask.getCombineParallelism() > 1 && dbfInputs.size() > 1) {
+            return convertCombiningParts(convertTask, dbfInputs, charset, combinedSchema, tracker);
+        }
+
+        ConversionResult result;
+        RollingParquetWriter parquetWriter = createRollingWriter(convertTask.getOutput(), writerFactory,
+                DbfRecordSink.project(combinedSchema, convertTask.getColumns()), convertTask);
+        try (parquetWriter) {
+            List<DbfRecordSink> sinks = List.of(new DbfRecordSink(combinedSchema, convertTask, parquetWriter));
+            write(dbfInputs, charset, combinedSchema, sinks, convertTask, tracker);
+            report(tracker, sinks);
+            tracker.emit(Phase.FLUSH);
+            parquetWriter.close();
+            result = new ConversionResult(convertTask, parquetWriter.getFiles(), parquetWriter.getRowCount(),
+                    parquetWriter.getColumnProfiles());
+            report(tracker, sinks);
+        } catch (CancellationException e) {
+            discard(parquetWriter.getFiles());
+            throw e;
+        }
+        tracker.emit(Phase.DONE);
+        return result;
+    }
+
+    /**
+     * Converts each input to a local temporary part with the combined schema, {@link ConvertTask#getCombineParallelism()}
+     * inputs at once, then merges the parts into the output by copying their row groups.
+     */
+    private ConversionResult convertCombiningParts(ConvertTask convertTask, List<DbfInput> inputs, Charset charset,
+                                                   DbfSchema combinedSchema, ProgressTracker tracker)
+            throws IOException {
+        DbfSchema partSchema = DbfRecordSink.project(combinedSchema, convertTask.getColumns());
+        RollingParquetWriter.WriterFactory partFactory = (file, dbfSchema) ->
+                configure(DbfParquetWriter.builder(new LocalOutputFile(file)), convertTask, dbfSchema)
+                        .withValidation(false)
+                        .buildBatchWriter();
+        Path partsDirectory = Files.createTempDirectory("libdatasus-combine");
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(convertTask.getCombineParallelism(), inputs.size()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "dbf-parquet-combine-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        List<Path> parts = new ArrayList<>();
+        try {
+            List<Future<ConversionResult>> futures = new ArrayList<>();
+            for (DbfInput input : inputs) {
+                Path part = partsDirectory.resolve(RollingParquetWriter.partFileName(parts.size()));
+                parts.add(part);
+                futures.add(executor.submit(() -> {
+                    try (RollingParquetWriter partWriter = new RollingParquetWriter(part, partFactory, partSchema)) {
+                        List<DbfRecordSink> sinks = List.of(new DbfRecordSink(combinedSchema, convertTask, partWriter));
+                        write(List.of(input), charset, combinedSchema, sinks, convertTask, tracker);
+                        partWriter.close();
+                        report(tracker, sinks);
+                        return new ConversionResult(convertTask, partWriter.getFiles(), partWriter.getRowCount(),
+                                partWriter.getColumnProfiles());
+                    }
+                }));
+            }
+
+            List<ConversionResult> results = new ArrayList<>();
+            for (Future<ConversionResult> future : futures) {
+                results.add(await(future));
+            }
+            ConversionResult partsResult = ConversionResult.combine(convertTask, results);
+
+            tracker.emit(Phase.FLUSH);
+            logger.info(String.format("Merging %s part(s) into %s", parts.size(), convertTask.getOutput().toUri()));
+            ParquetPartMerger.merge(parts, getOutputFile(convertTask.getOutput()), conf());
+            tracker.emit(Phase.DONE);
+            return new ConversionResult(convertTask, List.of(convertTask.getOutput()), partsResult.getRowCount(),
+                    partsResult.getColumnProfiles());
+        } finally {
+            executor.shutdownNow();
+            for (Path part : parts) {
+                Files.deleteIfExists(part);
+            }
+            Files.deleteIfExists(partsDirectory);
+        }
+    }
+
+    /**
+     * Waits for a conversion, rethrowing its failure.
+     */
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a conversion");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
         }
     }
 
-    private DbfSchema createCombinedSchema(List<InternalDbfReader> readers, String schemaName) {
-        LinkedHashMap<String, DBFField> fields = new LinkedHashMap<>();
+    private ConversionResult convertPartitioned(ConvertTask convertTask, ConversionHandle handle) throws IOException {
+        Map<Path, Map<String, String>> partitions = resolvePartitions(convertTask);
+        ProgressTracker tracker = tracker(convertTask, convertTask.getInput(), handle);
+
+        ConversionResult result;
+        PartitionedParquetWriter partitionedWriter = new PartitionedParquetWriter(
+                convertTask.getOutput(),
+                convertTask.getMaxOpenWriters(),
+                writerFactory(convertTask),
+                convertTask.getMaxRowsPerFile(),
+                convertTask.getTargetFileSize());
+        try (partitionedWriter) {
 
-        for (InternalDbfReader reader : readers) {
-            for (DBFField dbfField : reader.schema.fields) {
-                if (fields.containsKey(dbfField.getName())) {
-                    // TODO: Log
-                    continue;
+            for (Map.Entry<Path, Map<String, String>> partition : partitions.entrySet()) {
+                Path input = partition.getKey();
+                logger.info(String.format("Partitioned conversion - %s => %s",
+                        input.toUri(), PartitionedParquetWriter.partitionPath(partition.getValue())));
+
+                try (InputStream inputStream = getInputStream(input, tracker);
+                     InternalDbfReader dbfReader = new InternalDbfReader(inputStream, convertTask.getSchemaName())) {
+                    RollingParquetWriter parquetWriter = partitionedWriter.writerFor(
+                            partition.getValue(), DbfRecordSink.project(dbfReader.schema, convertTask.getColumns()));
+                    List<DbfRecordSink> sinks = List.of(new DbfRecordSink(dbfReader.schema, convertTask, parquetWriter));
+                    write(List.of(() -> dbfReader), dbfReader.getCharset(), dbfReader.schema, sinks, convertTask,
+                            tracker);
+                    report(tracker, sinks);
                 }
+            }
+
+            tracker.emit(Phase.FLUSH);
+            partitionedWriter.close();
+            result = new ConversionResult(convertTask, partitionedWriter.getFiles(), partitionedWriter.getRowCount(),
+                    partitionedWriter.getColumnProfiles());
+        } catch (CancellationException e) {
+            discard(partitionedWriter.getFiles());
+            throw e;
+        }
+        tracker.emit(Phase.DONE);
+        return result;
+    }
 
-                fields.put(dbfField.getName(), dbfField);
+    /**
+     * Resolves the partition of every input file, failing before any write if a file name does not match the rule.
+     */
+    private Map<Path, Map<String, String>> resolvePartitions(ConvertTask convertTask) throws IOException {
+        List<Path> inputs = Files.isDirectory(convertTask.getInput())
+                ? listInputs(convertTask)
+                : List.of(convertTask.getInput());
+
+        Map<Path, Map<String, String>> partitions = new LinkedHashMap<>();
+        List<String> unmatched = new ArrayList<>();
+        for (Path input : inputs) {
+            String fileName = input.getFileName().toString();
+            Optional<Map<String, String>> partition = convertTask.getPartitionRule().partition(fileName);
+            if (partition.isPresent()) {
+                partitions.put(input, partition.get());
+            } else {
+                unmatched.add(fileName);
             }
         }
 
-        return DbfSchema.of(schemaName, fields.values().toArray(DBFField[]::new));
+        if (!unmatched.isEmpty()) {
+            throw new IllegalArgumentException(
+                    String.format("No partition found for file(s) %s in %s", unmatched, convertTask.getInput()));
+        }
+        return partitions;
     }
 
-    List<InternalDbfReader> createReaders(ConvertTask convertTask) throws IOException {
-        List<InternalDbfReader> readers = new ArrayList<>();
-
+    /**
+     * @return the supported files of the input directory, sorted by name.
+     */
+    List<Path> listInputs(ConvertTask convertTask) throws IOException {
+        List<Path> inputs = new ArrayList<>();
         try (DirectoryStream<Path> directoryStream =
                      Files.newDirectoryStream(convertTask.getInput(), this::isSupportedFile)) {
+            directoryStream.forEach(inputs::add);
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    private ConversionResult convertFile(ConvertTask convertTask, ConversionHandle handle) throws IOException {
+        return convertFile(convertTask.getInput(), convertTask.getOutput(), convertTask, handle);
+    }
+
+    private ConversionResult convertFile(Path input, Path output, ConvertTask convertTask, ConversionHandle handle)
+            throws IOException {
+        logger.info(String.format("File conversion started - %s => %s", input.toUri(), output.toUri()));
+        ProgressTracker tracker = tracker(convertTask, input, handle);
+        List<DbfRecordSink> sinks = new ArrayList<>();
+        try (InputStream inputStream = getInputStream(input, tracker);
+             InternalDbfReader dbfReader = new InternalDbfReader(inputStream, convertTask.getSchemaName())) {
+            List<ConvertTask> tasks = new ArrayList<>();
+            tasks.add(convertTask);
+            tasks.addAll(convertTask.getTargets());
+            for (ConvertTask task : tasks) {
+                Path taskOutput = task == convertTask ? output : task.getOutput();
+                RollingParquetWriter parquetWriter = createRollingWriter(getOutputPath(input, taskOutput),
+                        writerFactory(task), DbfRecordSink.project(dbfReader.schema, task.getColumns()), task);
+                sinks.add(new DbfRecordSink(dbfReader.schema, task, parquetWriter));
+            }
 
-            for (Path input : directoryStream) {
-                readers.add(
-                        new InternalDbfReader(
-                                getInputStream(input), convertTask.getSchemaName()));
+            write(List.of(() -> dbfReader), dbfReader.getCharset(), dbfReader.schema, sinks, convertTask, tracker);
+            report(tracker, sinks);
+            tracker.emit(Phase.FLUSH);
+
+            List<ConversionResult> results = new ArrayList<>();
+            for (int i = 0; i < sinks.size(); ++i) {
+                RollingParquetWriter parquetWriter = sinks.get(i).getWriter();
+                parquetWriter.close();
+                results.add(new ConversionResult(tasks.get(i), parquetWriter.getFiles(), parquetWriter.getRowCount(),
+                        parquetWriter.getColumnProfiles()));
+            }
+            report(tracker, sinks);
+            tracker.emit(Phase.DONE);
+            return new ConversionResult(convertTask, results.get(0).getFiles(), results.get(0).getRowCount(),
+                    results.get(0).getColumnProfiles(), results.subList(1, results.size()));
+        } catch (CancellationException e) {
+            List<Path> files = new ArrayList<>();
+            for (DbfRecordSink sink : sinks) {
+                sink.getWriter().close();
+                files.addAll(sink.getWriter().getFiles());
+            }
+            discard(files);
+            throw e;
+        } finally {
+            for (DbfRecordSink sink : sinks) {
+                sink.getWriter().close();
             }
         }
-
-        return readers;
     }
 
-    private void convertFile(ConvertTask convertTask) throws IOException {
-        convertFile(convertTask.getInput(), convertTask.getOutput(), convertTask.getSchemaName());
+    private RollingParquetWriter.WriterFactory writerFactory(ConvertTask convertTask) {
+        return (file, dbfSchema) -> configure(DbfParquetWriter.builder(getOutputFile(file)), convertTask, dbfSchema)
+                .withWriterVersion(WriterVersion.PARQUET_2_0)
+                .buildBatchWriter();
     }
 
-    private void convertFile(Path input, Path output, String schemaName) throws IOException {
-        logger.info(String.format("File conversion started - %s => %s", input.toUri(), output.toUri()));
-        try (InputStream inputStream = getInputStream(input);
-             InternalDbfReader dbfReader = new InternalDbfReader(inputStream, schemaName);
-             ParquetWriter<DBFRow> parquetWriter =
-                     DbfParquetWriter.builder(getOutputFile(input, output))
-                             .withDbfSchema(dbfReader.schema)
-                             .withWriterVersion(WriterVersion.PARQUET_2_0)
-                             .build()) {
-            write(dbfReader, parquetWriter);
+    /**
+     * A single file writer, or when {@link ConvertTask#rolling()} a writer of part files inside the output directory.
+     */
+    private RollingParquetWriter createRollingWriter(Path output, RollingParquetWriter.WriterFactory writerFactory,
+                                                     DbfSchema dbfSchema, ConvertTask convertTask) throws IOException {
+        if (!convertTask.rolling()) {
+            return new RollingParquetWriter(output, writerFactory, dbfSchema);
         }
+
+        int[] part = {0};
+        return new RollingParquetWriter(
+                () -> output.resolve(RollingParquetWriter.partFileName(part[0]++)),
+                writerFactory,
+                dbfSchema,
+                convertTask.getMaxRowsPerFile(),
+                convertTask.getTargetFileSize());
     }
 
-    private HadoopOutputFile getOutputFile(Path input, Path output) throws IOException {
-        org.apache.hadoop.fs.Path hadoopPath =
-                new org.apache.hadoop.fs.Path(getOutputPath(input, output).toUri());
-        Configuration hadoopConf = this.conf != null ? this.conf : new Configuration();
-        FileSystem hadoopFS = hadoopPath.getFileSystem(hadoopConf);
+    /**
+     * Applies the {@link ConvertTask} writer options (bloom filters, statistics, column index, null, compression, flush and profiling settings)
+     * and the memory budget.
+     */
+    private DbfParquetWriter.Builder configure(
+            DbfParquetWriter.Builder builder, ConvertTask convertTask, DbfSchema dbfSchema) {
+        builder.withDbfSchema(dbfSchema)
+                .withConf(conf())
+                .withStatisticsTruncateLength(convertTask.getStatisticsTruncateLength())
+                .withColumnIndexTruncateLength(convertTask.getColumnIndexTruncateLength())
+                .withPageRowCountLimit(convertTask.getPageRowCountLimit())
+                .withCompressionCodec(convertTask.getCompressionCodec())
+                .withBlankAsNull(convertTask.getBlankAsNullTypes())
+                .withColumnProfiles(convertTask.profileColumns())
+                .withMemoryBudget(memoryBudget);
+
+        if (convertTask.getMaxInFlightRowGroups() > 0) {
+            builder.withAsyncFlush(convertTask.getMaxInFlightRowGroups());
+        }
+        if (convertTask.parallelCompression()) {
+            builder.withParallelCompression();
+        }
+
+        Set<String> columns = new HashSet<>();
+        for (DBFField dbfField : dbfSchema.fields) {
+            columns.add(dbfField.getName());
+        }
 
-        if(hadoopFS != null)
-            logger.info(String.format("Hadoop output FS: %s", hadoopPath.getFileSystem(hadoopConf).getUri()));
-        else
-            logger.warn("Null Hadoop FS");
+        convertTask.getBloomFilterNdv().forEach((column, ndv) -> {
+            if (!columns.contains(column)) {
+                logger.warn(String.format("Bloom filter column %s not found in schema %s", column, dbfSchema.name));
+                return;
+            }
+            builder.withBloomFilterEnabled(column, true).withBloomFilterNDV(column, ndv);
+        });
+        convertTask.getBloomFilterFpp().forEach(builder::withBloomFilterFPP);
 
-        return HadoopOutputFile.fromPath(hadoopPath, hadoopConf);
+        return builder;
+    }
+
+    /**
+     * @return the Hadoop configuration, or the default configuration shared by the writers, loaded on first use, when
+     * files are written through java.nio.
+     */
+    private Configuration conf() {
+        return conf != null ? conf : DbfParquetWriter.defaultConf();
+    }
+
+    private OutputFile getOutputFile(Path output) throws IOException {
+        if (conf == null) {
+            return new LocalOutputFile(output);
+        }
+        // The FileSystem is cached by Hadoop, resolved once per scheme for the shared configuration.
+        return HadoopOutputFile.fromPath(new org.apache.hadoop.fs.Path(output.toUri()), conf);
     }
 
     private Path getOutputPath(Path input, Path output) {
@@ -240,46 +859,140 @@ public class DbfParquet {
         return output;
     }
 
-    private InputStream getInputStream(Path input) throws IOException {
+    /**
+     * DBC files are decompressed to a temporary file of their own, in the temporary directory of the system, deleted
+     * when the stream is closed: concurrent conversions of the same input never share it, and nothing is written
+     * next to the input.
+     */
+    private InputStream getInputStream(Path input, ProgressTracker tracker) throws IOException {
         if (isCompressed(input)) {
-            logger.info(String.format("File %s is compressed. Decompressing...", input.toUri()));
-            Path inputFilePath = Paths.get(DbcNativeDecompressor.decompress(input).getOutputFileName());
-            logger.info(String.format("Decompressed file: %s", inputFilePath.toUri()));
-            inputFilePath.toFile().deleteOnExit();
-            return Files.newInputStream(inputFilePath);
+            tracker.emit(Phase.DECOMPRESS);
+            if (decompressionCache != null) {
+                return decompressionCache.open(input, this::decompress);
+            }
+            Path inputFilePath = Files.createTempFile(input.getFileName() + ".", ".dbf");
+            try {
+                decompress(input, inputFilePath);
+                return Files.newInputStream(inputFilePath, StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(inputFilePath);
+                throw e;
+            }
         }
         logger.info(String.format("File %s is not compressed", input.toUri()));
         return Files.newInputStream(input);
     }
 
-    private void write(InternalDbfReader dbfReader, ParquetWriter<DBFRow> parquetWriter)
+    /**
+     * @param output the decompressed DBF file.
+     * @return the temporary DBF file decompressed from the DBC input.
+     */
+    private Path decompress(Path input, Path output) throws IOException {
+        logger.info(String.format("File %s is compressed. Decompressing...", input.toUri()));
+        ConversionEvents.Decompress event = new ConversionEvents.Decompress();
+        event.begin();
+        long startNanos = System.nanoTime();
+        DbcNativeDecompressor.decompress(input, output);
+        metrics.getDecompressLatency().record(System.nanoTime() - startNanos);
+        long decompressedBytes = Files.size(output);
+        metrics.getBytesDecompressed().add(decompressedBytes);
+        if (event.shouldCommit()) {
+            event.file = input.toString();
+            event.compressedBytes = Files.size(input);
+            event.decompressedBytes = decompressedBytes;
+            event.commit();
+        }
+        logger.info(String.format("Decompressed file: %s", output.toUri()));
+        return output;
+    }
+
+    /**
+     * Writes every input to every sink, in order, or sorted by {@link ConvertTask#getSortColumns()} when it is set.
+     * Inputs are opened one at a time, each one closed once its records are written or sorted.
+     *
+     * @param charset charset of the sorted records.
+     */
+    private void write(List<DbfInput> inputs, Charset charset, DbfSchema dbfSchema,
+                       List<DbfRecordSink> sinks, ConvertTask convertTask, ProgressTracker tracker)
             throws IOException {
+        if (convertTask.getSortColumns().isEmpty()) {
+            for (DbfInput input : inputs) {
+                try (InternalDbfReader reader = open(input, tracker)) {
+                    write(reader, dbfSchema, sinks, tracker);
+                }
+            }
+            return;
+        }
 
-        DBFRow dbfRow = nextRow(dbfReader);
-        int rowCount = 0;
+        try (DbfRecordSorter sorter = new DbfRecordSorter(dbfSchema, charset, convertTask)) {
+            logger.info(String.format("Sorting records by %s%s", convertTask.getSortColumns(),
+                    convertTask.zOrder() ? " (Z-order)" : ""));
+            for (DbfInput input : inputs) {
+                try (InternalDbfReader reader = open(input, tracker)) {
+                    sorter.add(reader);
+                }
+            }
+
+            try (InternalDbfReader sortedReader =
+                         new InternalDbfReader(sorter.sortedStream(), dbfSchema.name, charset)) {
+                write(sortedReader, dbfSchema, sinks, tracker);
+            }
+        }
+    }
+
+    private static InternalDbfReader open(DbfInput input, ProgressTracker tracker) throws IOException {
+        InternalDbfReader reader = input.open();
+        tracker.expect(reader.getRecordCount());
+        tracker.emit(Phase.READ);
+        return reader;
+    }
+
+    /**
+     * Reads the records in batches, copied to the target schema layout when it differs from the reader one.
+     * Each batch is read once and given to every sink.
+     */
+    private void write(InternalDbfReader dbfReader, DbfSchema dbfSchema, List<DbfRecordSink> sinks,
+                       ProgressTracker tracker) throws IOException {
+
+        DbfRecordLayout layout = new DbfRecordLayout(dbfReader.schema, dbfSchema);
+        DbfRecordBatch batch = new DbfRecordBatch(dbfSchema);
+        DbfRecordBatch source = layout.isIdentity() ? batch : new DbfRecordBatch(dbfReader.schema);
+        int recordLength = dbfReader.schema.recordLength();
+        long rowCount = 0;
 
         logger.info("Writing started");
 
-        while (dbfRow != null) {
-            parquetWriter.write(dbfRow);
-            ++rowCount;
-            dbfRow = nextRow(dbfReader);
+        while (dbfReader.nextRecords(source)) {
+            if (source != batch) {
+                layout.copy(source, batch);
+            }
+            for (DbfRecordSink sink : sinks) {
+                sink.write(batch);
+            }
+            rowCount += batch.size;
+            if (tracker.records(batch.size, (long) batch.size * recordLength)) {
+                report(tracker, sinks);
+                tracker.emit(Phase.WRITE);
+            }
         }
 
-        logger.info(String.format("Write finished - %s row(s) converted", rowCount));
+        logger.info(String.format("Write finished - %s row(s) read", rowCount));
     }
 
-    private DBFRow nextRow(InternalDbfReader dbfReader) {
-        try {
-            return dbfReader.nextRow();
-        } catch (DBFException dbfException) {
-            if (dbfException.getCause() instanceof EOFException) {
-                return null;
-            }
-            throw dbfException;
+    /**
+     * Updates the bytes written by the sinks, on the thread writing to them.
+     */
+    private static void report(ProgressTracker tracker, List<DbfRecordSink> sinks) {
+        for (DbfRecordSink sink : sinks) {
+            tracker.output(sink.getWriter(), sink.getWriter().getDataSize());
         }
     }
 
+    private ProgressTracker tracker(ConvertTask convertTask, Path input, ConversionHandle handle) {
+        return new ProgressTracker(convertTask, input, onProgress, metrics, progressRowInterval,
+                progressByteInterval, handle);
+    }
+
     private boolean isCompressed(Path path) {
         String sPath = path.toString().toLowerCase();
         return sPath.endsWith(".dbc");
@@ -290,7 +1003,94 @@ public class DbfParquet {
         return Files.isRegularFile(path) && (sPath.endsWith(".dbc") || sPath.endsWith(".dbf"));
     }
 
+    /**
+     * @return true for a "file.dbc.dbf" next to its "file.dbc": a DBF file decompressed next to the DBC file, by
+     *     earlier versions or by hand, not an input of its own.
+     */
+    static boolean isDecompressed(Path file) {
+        String name = file.getFileName().toString();
+        return name.toLowerCase().endsWith(".dbc.dbf")
+                && Files.exists(file.resolveSibling(name.substring(0, name.length() - ".dbf".length())));
+    }
+
     private void logProgress(Object o) {
+        logger.debug(o);
+    }
+
+    /**
+     * A conversion of a task, or of one file of a directory task.
+     */
+    @FunctionalInterface
+    private interface ConversionFunction {
+        ConversionResult convert() throws IOException;
+    }
+
+    /**
+     * A conversion dispatched to the executor.
+     */
+    private static final class Job {
+        /* The converted file of a directory task, null when the job converts the whole task. */
+        final Path input;
+
+        final long size;
+
+        final ConversionFunction conversion;
+
+        CompletableFuture<ConversionResult> future;
+
+        Job(Path input, long size, ConversionFunction conversion) {
+            this.input = input;
+            this.size = size;
+            this.conversion = conversion;
+        }
+
+        /**
+         * @param memoryBudget when not null, the job waits for the buffered bytes to drop below the budget.
+         * @param metrics counts the job in the queue depth until it runs, and its failure.
+         */
+        void start(Executor executor, MemoryBudget memoryBudget, ConversionMetrics metrics) {
+            future = new CompletableFuture<>();
+            metrics.getQueueDepth().increment();
+            try {
+                executor.execute(() -> {
+                    metrics.getQueueDepth().decrement();
+                    try {
+                        if (memoryBudget != null) {
+                            memoryBudget.awaitCapacity();
+                        }
+                        future.complete(conversion.convert());
+                    } catch (Throwable e) {
+                        metrics.getFailures().increment();
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                metrics.getQueueDepth().decrement();
+                metrics.getFailures().increment();
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Runs the asynchronous conversions of the instances built without executor, threads being created on demand.
+     */
+    private static final class AsyncPool {
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "dbf-parquet-async-" + THREAD_COUNT.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * An input file, opened only when its records are written.
+     */
+    @FunctionalInterface
+    private interface DbfInput {
+        InternalDbfReader open() throws IOException;
     }
 
     public static Builder builder() {
@@ -301,10 +1101,22 @@ public class DbfParquet {
 
         private Configuration conf;
 
-        private final Set<ConvertTask> convertTasks = new HashSet<>();
+        private final Set<ConvertTask> convertTasks = new LinkedHashSet<>();
 
         private Consumer<Object> onProgress;
 
+        private long progressRowInterval = 100_000;
+
+        private long progressByteInterval = 64L * 1024 * 1024;
+
+        private Executor executor;
+
+        private MemoryBudget memoryBudget;
+
+        private ConversionMetrics metrics;
+
+        private DecompressionCache decompressionCache;
+
         public Builder addConvertItem(String source) {
             return addConvertItem(Path.of(source));
         }
@@ -328,16 +1140,96 @@ public class DbfParquet {
             return this;
         }
 
+        /**
+         * Receives the {@link ProgressEvent} of every conversion, on the converting threads. Events are logged at debug
+         * level by default.
+         */
         public Builder onProgress(Consumer<Object> onProgress) {
             this.onProgress = onProgress;
             return this;
         }
 
+        /**
+         * Emits a {@link ProgressEvent.Phase#WRITE} event every given number of rows or bytes of records read, whichever
+         * comes first. Defaults to 100 000 rows or 64 MiB.
+         */
+        public Builder withProgressInterval(long rows, long bytes) {
+            if (rows <= 0 || bytes <= 0) {
+                throw new IllegalArgumentException("`rows` and `bytes` must be positive");
+            }
+            this.progressRowInterval = rows;
+            this.progressByteInterval = bytes;
+            return this;
+        }
+
+        /**
+         * Writes the parquet files through the Hadoop FileSystem of the given configuration, instead of java.nio.
+         * The configuration is shared by every task of the {@link DbfParquet}.
+         */
         public Builder withHadoopConf(Configuration conf) {
             this.conf = conf;
             return this;
         }
 
+        /**
+         * Runs the tasks, and each file of the directory tasks, concurrently on the given executor, larger files
+         * first. The executor is not shut down by {@link DbfParquet}, it also runs {@link DbfParquet#convertAsync(ConvertTask)}
+         * conversions. <br>
+         * On Java 21+, {@code Executors.newVirtualThreadPerTaskExecutor()} suits conversions bound by I/O, e.g. reading
+         * from network file systems.
+         */
+        public Builder withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Runs the tasks, and each file of the directory tasks, on a pool of the given number of daemon threads, larger
+         * files first. Idle threads are released.
+         */
+        public Builder withParallelism(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("`threads` must be positive");
+            }
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "dbf-parquet-convert-" + threadCount.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return withExecutor(pool);
+        }
+
+        /**
+         * Bounds the row group bytes buffered by the writers of every task, see {@link MemoryBudget}. New tasks, and
+         * files of directory tasks, wait while the budget is exhausted.
+         */
+        public Builder withMemoryBudget(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * Counts the conversions in the given metrics, which may be shared by several {@link DbfParquet}. Each
+         * {@link DbfParquet} has its own metrics by default, see {@link DbfParquet#getMetrics()}.
+         */
+        public Builder withMetrics(ConversionMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Keeps the DBF content of decompressed DBC files in the given cache, see {@link DecompressionCache}. DBC files
+         * converted again, by any task or {@link DbfParquet} sharing the cache, are not decompressed again.
+         */
+        public Builder withDecompressionCache(DecompressionCache decompressionCache) {
+            this.decompressionCache = decompressionCache;
+            return this;
+        }
+
         public DbfParquet build() {
             return new DbfParquet(this);
         }
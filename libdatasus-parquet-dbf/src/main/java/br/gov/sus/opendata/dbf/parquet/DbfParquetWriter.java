@@ -1,17 +1,25 @@
 package br.gov.sus.opendata.dbf.parquet;
 
 import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
 import com.linuxense.javadbf.DBFRow;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.parquet.column.ParquetProperties;
 import org.apache.parquet.column.ParquetProperties.WriterVersion;
+import org.apache.parquet.crypto.EncryptionPropertiesFactory;
+import org.apache.parquet.crypto.FileEncryptionProperties;
 import org.apache.parquet.hadoop.ParquetFileWriter;
 import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.api.WriteSupport;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.util.HadoopOutputFile;
 import org.apache.parquet.io.OutputFile;
 
 public class DbfParquetWriter extends ParquetWriter<DBFRow> {
@@ -41,6 +49,26 @@ public class DbfParquetWriter extends ParquetWriter<DBFRow> {
         conf);
   }
 
+  /**
+   * @return the configuration of the writers built without one, loaded once and shared by them. It
+   *     must not be modified.
+   */
+  static Configuration defaultConf() {
+    return DefaultConf.INSTANCE;
+  }
+
+  /* Loaded on first use: a Configuration reads its XML resources once per instance. */
+  private static final class DefaultConf {
+    static final Configuration INSTANCE = load();
+
+    private static Configuration load() {
+      Configuration conf = new Configuration();
+      // Loads the resources before any concurrent read.
+      conf.size();
+      return conf;
+    }
+  }
+
   public static Builder builder(String path) {
     return builder(new Path(path));
   }
@@ -53,18 +81,62 @@ public class DbfParquetWriter extends ParquetWriter<DBFRow> {
     return new Builder(file);
   }
 
+  /**
+   * Besides {@link ParquetWriter}, the builder creates {@link DbfBatchWriter}, so every writer
+   * setting is also kept here. Settings of the batch writer only, column profiles, asynchronous
+   * flush, parallel compression and memory budget, are package-private: {@link #build()} rejects
+   * them.
+   */
   public static class Builder extends ParquetWriter.Builder<DBFRow, Builder> {
 
     private DbfSchema dbfSchema = null;
 
     private Map<String, String> extraMetaData = new HashMap<>();
 
+    private final Path path;
+
+    private final OutputFile file;
+
+    private final ParquetProperties.Builder encodingPropsBuilder = ParquetProperties.builder();
+
+    /* Null until set, the shared default configuration is then used. */
+    private Configuration conf = null;
+
+    /* Set by config(), on the given configuration or, without one, on a copy of the default one. */
+    private final Map<String, String> properties = new LinkedHashMap<>();
+
+    private boolean validation = false;
+
+    private ParquetFileWriter.Mode mode = ParquetFileWriter.Mode.CREATE;
+
+    private CompressionCodecName codecName = DEFAULT_COMPRESSION_CODEC_NAME;
+
+    private long rowGroupSize = DEFAULT_BLOCK_SIZE;
+
+    private int maxPaddingSize = MAX_PADDING_SIZE_DEFAULT;
+
+    private FileEncryptionProperties encryptionProperties = null;
+
+    private Set<DBFDataType> blankAsNullTypes = Set.of();
+
+    private boolean profileColumns = false;
+
+    private int maxInFlightRowGroups = 0;
+
+    private ExecutorService compressionPool = null;
+
+    private MemoryBudget memoryBudget = null;
+
     protected Builder(Path path) {
       super(path);
+      this.path = path;
+      this.file = null;
     }
 
     protected Builder(OutputFile path) {
       super(path);
+      this.path = null;
+      this.file = path;
     }
 
     @Override
@@ -82,20 +154,320 @@ public class DbfParquetWriter extends ParquetWriter<DBFRow> {
       return this;
     }
 
+    /**
+     * Converts fields of the given types to OPTIONAL columns, blank fields (only spaces or NULs) and
+     * values javadbf reads as null are written as nulls.
+     */
+    public Builder withBlankAsNull(Set<DBFDataType> blankAsNullTypes) {
+      this.blankAsNullTypes = Set.copyOf(blankAsNullTypes);
+      return this;
+    }
+
+    /**
+     * Profiles every column while writing, the profiles are stored in the footer key-value metadata.
+     * Applies to writers built by {@link #buildBatchWriter()}.
+     *
+     * @see ColumnProfile
+     */
+    Builder withColumnProfiles(boolean profileColumns) {
+      this.profileColumns = profileColumns;
+      return this;
+    }
+
+    /**
+     * Flushes full row groups on a background thread while the next one is filled. Applies to
+     * writers built by {@link #buildBatchWriter()}, encrypted files are always flushed
+     * synchronously.
+     *
+     * @param maxInFlightRowGroups max row groups waiting to be flushed, the writer blocks once it is
+     *     reached. Each one is buffered in memory, up to the row group size.
+     */
+    Builder withAsyncFlush(int maxInFlightRowGroups) {
+      if (maxInFlightRowGroups <= 0) {
+        throw new IllegalArgumentException("`maxInFlightRowGroups` must be positive");
+      }
+      this.maxInFlightRowGroups = maxInFlightRowGroups;
+      return this;
+    }
+
+    /**
+     * Encodes and compresses the column chunks of each row group concurrently on the shared
+     * compression pool. Applies to writers built by {@link #buildBatchWriter()}, the file layout
+     * is the same for any pool size.
+     */
+    Builder withParallelCompression() {
+      return withParallelCompression(DbfBatchWriter.sharedCompressionPool());
+    }
+
+    /**
+     * Encodes and compresses the column chunks of each row group concurrently on the given pool.
+     * Threads of the pool must not write to this writer, they would wait on their own tasks.
+     *
+     * @see #withParallelCompression()
+     */
+    Builder withParallelCompression(ExecutorService compressionPool) {
+      this.compressionPool = compressionPool;
+      return this;
+    }
+
+    /**
+     * Accounts the buffered row groups in the given budget, shared with other writers. Applies to
+     * writers built by {@link #buildBatchWriter()}.
+     *
+     * @see MemoryBudget
+     */
+    Builder withMemoryBudget(MemoryBudget memoryBudget) {
+      this.memoryBudget = memoryBudget;
+      return this;
+    }
+
     @Override
     public Builder withConf(Configuration conf) {
+      this.conf = conf;
+      // As ParquetWriter.Builder, properties set before are dropped with the replaced configuration.
+      properties.clear();
       return super.withConf(conf);
     }
 
+    @Override
+    public Builder config(String property, String value) {
+      properties.put(property, value);
+      return super.config(property, value);
+    }
+
+    @Override
+    public Builder enableValidation() {
+      this.validation = true;
+      return super.enableValidation();
+    }
+
+    @Override
+    public Builder withValidation(boolean validation) {
+      this.validation = validation;
+      return super.withValidation(validation);
+    }
+
+    @Override
+    public Builder withWriteMode(ParquetFileWriter.Mode mode) {
+      this.mode = mode;
+      return super.withWriteMode(mode);
+    }
+
+    @Override
+    public Builder withCompressionCodec(CompressionCodecName codecName) {
+      this.codecName = codecName;
+      return super.withCompressionCodec(codecName);
+    }
+
+    @Override
+    public Builder withEncryption(FileEncryptionProperties encryptionProperties) {
+      this.encryptionProperties = encryptionProperties;
+      return super.withEncryption(encryptionProperties);
+    }
+
+    @Override
+    public Builder withRowGroupSize(long rowGroupSize) {
+      this.rowGroupSize = rowGroupSize;
+      return super.withRowGroupSize(rowGroupSize);
+    }
+
+    @Override
+    public Builder withPageSize(int pageSize) {
+      encodingPropsBuilder.withPageSize(pageSize);
+      return super.withPageSize(pageSize);
+    }
+
+    @Override
+    public Builder withPageRowCountLimit(int rowCount) {
+      encodingPropsBuilder.withPageRowCountLimit(rowCount);
+      return super.withPageRowCountLimit(rowCount);
+    }
+
+    @Override
+    public Builder withDictionaryPageSize(int dictionaryPageSize) {
+      encodingPropsBuilder.withDictionaryPageSize(dictionaryPageSize);
+      return super.withDictionaryPageSize(dictionaryPageSize);
+    }
+
+    @Override
+    public Builder withMaxPaddingSize(int maxPaddingSize) {
+      this.maxPaddingSize = maxPaddingSize;
+      return super.withMaxPaddingSize(maxPaddingSize);
+    }
+
+    @Override
+    public Builder enableDictionaryEncoding() {
+      encodingPropsBuilder.withDictionaryEncoding(true);
+      return super.enableDictionaryEncoding();
+    }
+
+    @Override
+    public Builder withDictionaryEncoding(boolean enableDictionary) {
+      encodingPropsBuilder.withDictionaryEncoding(enableDictionary);
+      return super.withDictionaryEncoding(enableDictionary);
+    }
+
+    @Override
+    public Builder withDictionaryEncoding(String columnPath, boolean enableDictionary) {
+      encodingPropsBuilder.withDictionaryEncoding(columnPath, enableDictionary);
+      return super.withDictionaryEncoding(columnPath, enableDictionary);
+    }
+
+    @Override
+    public Builder withByteStreamSplitEncoding(boolean enableByteStreamSplit) {
+      encodingPropsBuilder.withByteStreamSplitEncoding(enableByteStreamSplit);
+      return super.withByteStreamSplitEncoding(enableByteStreamSplit);
+    }
+
+    @Override
+    public Builder withWriterVersion(WriterVersion version) {
+      encodingPropsBuilder.withWriterVersion(version);
+      return super.withWriterVersion(version);
+    }
+
+    @Override
+    public Builder enablePageWriteChecksum() {
+      encodingPropsBuilder.withPageWriteChecksumEnabled(true);
+      return super.enablePageWriteChecksum();
+    }
+
+    @Override
+    public Builder withPageWriteChecksumEnabled(boolean enablePageWriteChecksum) {
+      encodingPropsBuilder.withPageWriteChecksumEnabled(enablePageWriteChecksum);
+      return super.withPageWriteChecksumEnabled(enablePageWriteChecksum);
+    }
+
+    @Override
+    public Builder withBloomFilterNDV(String columnPath, long ndv) {
+      encodingPropsBuilder.withBloomFilterNDV(columnPath, ndv);
+      return super.withBloomFilterNDV(columnPath, ndv);
+    }
+
+    @Override
+    public Builder withBloomFilterFPP(String columnPath, double fpp) {
+      encodingPropsBuilder.withBloomFilterFPP(columnPath, fpp);
+      return super.withBloomFilterFPP(columnPath, fpp);
+    }
+
+    @Override
+    public Builder withBloomFilterEnabled(boolean enabled) {
+      encodingPropsBuilder.withBloomFilterEnabled(enabled);
+      return super.withBloomFilterEnabled(enabled);
+    }
+
+    @Override
+    public Builder withBloomFilterEnabled(String columnPath, boolean enabled) {
+      encodingPropsBuilder.withBloomFilterEnabled(columnPath, enabled);
+      return super.withBloomFilterEnabled(columnPath, enabled);
+    }
+
+    @Override
+    public Builder withMinRowCountForPageSizeCheck(int min) {
+      encodingPropsBuilder.withMinRowCountForPageSizeCheck(min);
+      return super.withMinRowCountForPageSizeCheck(min);
+    }
+
+    @Override
+    public Builder withMaxRowCountForPageSizeCheck(int max) {
+      encodingPropsBuilder.withMaxRowCountForPageSizeCheck(max);
+      return super.withMaxRowCountForPageSizeCheck(max);
+    }
+
+    @Override
+    public Builder withColumnIndexTruncateLength(int length) {
+      encodingPropsBuilder.withColumnIndexTruncateLength(length);
+      return super.withColumnIndexTruncateLength(length);
+    }
+
+    @Override
+    public Builder withStatisticsTruncateLength(int length) {
+      encodingPropsBuilder.withStatisticsTruncateLength(length);
+      return super.withStatisticsTruncateLength(length);
+    }
+
     @Override
     protected WriteSupport<DBFRow> getWriteSupport(Configuration configuration) {
-      return new DbfRowWriteSupport(dbfSchema, extraMetaData);
+      return new DbfRowWriteSupport(dbfSchema, extraMetaData, blankAsNullTypes);
     }
 
+    /**
+     * @throws IllegalStateException when a setting of the batch writer only is set.
+     */
     @Override
     public ParquetWriter<DBFRow> build() throws IOException {
+      if (profileColumns
+          || maxInFlightRowGroups > 0
+          || compressionPool != null
+          || memoryBudget != null) {
+        throw new IllegalStateException(
+            "Column profiles, asynchronous flush, parallel compression and memory budget only apply to batch writers");
+      }
       withWriteMode(ParquetFileWriter.Mode.OVERWRITE);
+      if (conf == null && properties.isEmpty()) {
+        super.withConf(defaultConf());
+      }
       return super.build();
     }
+
+    /**
+     * @return the given configuration, else the default one with the properties set by {@link
+     *     #config(String, String)}.
+     */
+    private Configuration conf() {
+      if (conf != null) {
+        return conf;
+      }
+      if (properties.isEmpty()) {
+        return defaultConf();
+      }
+      Configuration conf = new Configuration(defaultConf());
+      properties.forEach(conf::set);
+      return conf;
+    }
+
+    /**
+     * Builds a writer of {@link DbfRecordBatch}, with the same settings and output of {@link
+     * #build()}.
+     *
+     * @throws IllegalStateException when validation is enabled, batches are not written through
+     *     the record consumer it validates.
+     */
+    DbfBatchWriter buildBatchWriter() throws IOException {
+      if (validation) {
+        throw new IllegalStateException("Validation only applies to row writers");
+      }
+      withWriteMode(ParquetFileWriter.Mode.OVERWRITE);
+      Configuration conf = conf();
+
+      OutputFile outputFile = file != null ? file : HadoopOutputFile.fromPath(path, conf);
+      WriteSupport.WriteContext writeContext = getWriteSupport(conf).init(conf);
+
+      // Same as ParquetWriter: without explicit properties, the configured factory, if any.
+      FileEncryptionProperties fileEncryptionProperties = encryptionProperties;
+      EncryptionPropertiesFactory cryptoFactory = EncryptionPropertiesFactory.loadFactory(conf);
+      if (fileEncryptionProperties == null && cryptoFactory != null) {
+        String outputPath = outputFile.getPath();
+        fileEncryptionProperties =
+            cryptoFactory.getFileEncryptionProperties(
+                conf, outputPath == null ? null : new Path(outputPath), writeContext);
+      }
+
+      return new DbfBatchWriter(
+          outputFile,
+          mode,
+          dbfSchema,
+          writeContext.getExtraMetaData(),
+          codecName,
+          rowGroupSize,
+          maxPaddingSize,
+          encodingPropsBuilder.build(),
+          conf,
+          fileEncryptionProperties,
+          blankAsNullTypes,
+          profileColumns,
+          maxInFlightRowGroups,
+          compressionPool,
+          memoryBudget);
+    }
   }
 }
@@ -0,0 +1,41 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import java.nio.charset.Charset;
+
+/**
+ * {@link DbfRecordBatch} holds raw fixed-width DBF records in a single slab, deletion flag included.
+ * Record i starts at i * recordLength.
+ *
+ * @see InternalDbfReader#nextRecords(DbfRecordBatch)
+ */
+class DbfRecordBatch {
+
+  static final int DEFAULT_CAPACITY = 1024;
+
+  final int capacity;
+
+  final int recordLength;
+
+  final byte[] records;
+
+  /** Number of records currently in the batch. */
+  int size;
+
+  /** Charset of the CHARACTER fields, from the reader which filled the batch. */
+  Charset charset;
+
+  DbfRecordBatch(DbfSchema schema) {
+    this(schema, DEFAULT_CAPACITY);
+  }
+
+  DbfRecordBatch(DbfSchema schema, int capacity) {
+    this.capacity = capacity;
+    this.recordLength = schema.recordLength();
+    this.records = new byte[capacity * recordLength];
+  }
+
+  int offset(int record) {
+    return record * recordLength;
+  }
+}
@@ -0,0 +1,192 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
+import com.linuxense.javadbf.DBFField;
+import java.util.Arrays;
+
+/**
+ * {@link DbfRecordLayout} copies raw records between two DBF layouts, matching fields by name. <br>
+ * Fields missing from the source are left blank, CHARACTER fields are left aligned and truncated at
+ * the right, other fields are right aligned like DBF numbers. <br>
+ * Fields widened by {@link DbfSchemaMerger} keep their values: NUMERIC fields with more decimals
+ * than the source are padded with zeros, CHARACTER fields of another source type hold the source
+ * text.
+ */
+class DbfRecordLayout {
+  private final boolean identity;
+
+  private final int[] sourceOffsets;
+
+  private final int[] sourceLengths;
+
+  private final int[] targetOffsets;
+
+  private final int[] targetLengths;
+
+  private final boolean[] leftAligned;
+
+  /* Source fields of another type copied as text, without the alignment blanks. */
+  private final boolean[] trimmed;
+
+  /* Decimals of NUMERIC target fields with more decimals than the source, 0 otherwise. */
+  private final int[] paddedDecimals;
+
+  private final int sourceLength;
+
+  private final int targetLength;
+
+  DbfRecordLayout(DbfSchema source, DbfSchema target) {
+    DBFField[] targetFields = target.fields;
+    int[] sourceFieldOffsets = source.fieldOffsets();
+
+    this.targetOffsets = target.fieldOffsets();
+    this.sourceLength = source.recordLength();
+    this.targetLength = target.recordLength();
+    this.sourceOffsets = new int[targetFields.length];
+    this.sourceLengths = new int[targetFields.length];
+    this.targetLengths = new int[targetFields.length];
+    this.leftAligned = new boolean[targetFields.length];
+    this.trimmed = new boolean[targetFields.length];
+    this.paddedDecimals = new int[targetFields.length];
+
+    boolean sameLayout = source.fields.length == targetFields.length;
+    for (int i = 0; i < targetFields.length; ++i) {
+      int sourceIndex = source.indexOf(targetFields[i].getName());
+      targetLengths[i] = targetFields[i].getLength();
+      leftAligned[i] = targetFields[i].getType() == DBFDataType.CHARACTER;
+      if (sourceIndex < 0) {
+        sourceOffsets[i] = -1;
+        sameLayout = false;
+        continue;
+      }
+      DBFField sourceField = source.fields[sourceIndex];
+      DBFField targetField = targetFields[i];
+      sourceOffsets[i] = sourceFieldOffsets[sourceIndex];
+      sourceLengths[i] = sourceField.getLength();
+      trimmed[i] = leftAligned[i] && sourceField.getType() != DBFDataType.CHARACTER;
+      if (targetField.getType() == DBFDataType.NUMERIC
+          && targetField.getDecimalCount() > sourceField.getDecimalCount()) {
+        paddedDecimals[i] = targetField.getDecimalCount();
+      }
+      sameLayout &=
+          sourceIndex == i
+              && sourceLengths[i] == targetLengths[i]
+              && sourceField.getType() == targetField.getType()
+              && sourceField.getDecimalCount() == targetField.getDecimalCount();
+    }
+    this.identity = sameLayout;
+  }
+
+  /**
+   * @return true when source and target records have the same bytes.
+   */
+  boolean isIdentity() {
+    return identity;
+  }
+
+  /**
+   * Copies every record of the source batch into the target batch.
+   */
+  void copy(DbfRecordBatch source, DbfRecordBatch target) {
+    for (int record = 0; record < source.size; ++record) {
+      copy(source.records, record * sourceLength, target.records, record * targetLength);
+    }
+    target.size = source.size;
+    target.charset = source.charset;
+  }
+
+  void copy(byte[] source, byte[] target, int targetStart) {
+    copy(source, 0, target, targetStart);
+  }
+
+  void copy(byte[] source, int sourceStart, byte[] target, int targetStart) {
+    if (identity) {
+      System.arraycopy(source, sourceStart, target, targetStart, targetLength);
+      return;
+    }
+
+    Arrays.fill(target, targetStart, targetStart + targetLength, (byte) ' ');
+    target[targetStart] = source[sourceStart];
+    for (int i = 0; i < targetOffsets.length; ++i) {
+      if (sourceOffsets[i] < 0) {
+        continue;
+      }
+      int count = Math.min(sourceLengths[i], targetLengths[i]);
+      int sourceOffset = sourceStart + sourceOffsets[i];
+      int targetOffset = targetStart + targetOffsets[i];
+      if (trimmed[i]) {
+        int end = sourceOffset + sourceLengths[i];
+        while (sourceOffset < end && source[sourceOffset] == ' ') {
+          ++sourceOffset;
+        }
+        System.arraycopy(
+            source, sourceOffset, target, targetOffset, Math.min(end - sourceOffset, targetLengths[i]));
+      } else if (paddedDecimals[i] > 0) {
+        copyDecimal(
+            source,
+            sourceOffset,
+            sourceLengths[i],
+            target,
+            targetOffset,
+            targetLengths[i],
+            paddedDecimals[i]);
+      } else if (leftAligned[i]) {
+        System.arraycopy(source, sourceOffset, target, targetOffset, count);
+      } else {
+        System.arraycopy(
+            source,
+            sourceOffset + sourceLengths[i] - count,
+            target,
+            targetOffset + targetLengths[i] - count,
+            count);
+      }
+    }
+  }
+
+  /**
+   * Copies a right aligned number, appending the zeros missing to reach the given decimals. Blank
+   * values stay blank.
+   */
+  private static void copyDecimal(
+      byte[] source,
+      int sourceOffset,
+      int sourceLength,
+      byte[] target,
+      int targetOffset,
+      int targetLength,
+      int decimals) {
+    int start = sourceOffset;
+    int end = sourceOffset + sourceLength;
+    while (end > start && source[end - 1] == ' ') {
+      --end;
+    }
+    while (start < end && source[start] == ' ') {
+      ++start;
+    }
+    if (start == end) {
+      return;
+    }
+
+    int separator = -1;
+    for (int i = start; i < end; ++i) {
+      if (source[i] == '.' || source[i] == ',') {
+        separator = i;
+        break;
+      }
+    }
+
+    int position = targetOffset + targetLength;
+    int zeros = separator < 0 ? decimals : decimals - (end - separator - 1);
+    if (zeros > 0) {
+      zeros = Math.min(zeros, targetLength);
+      position -= zeros;
+      Arrays.fill(target, position, position + zeros, (byte) '0');
+      if (separator < 0 && position > targetOffset) {
+        target[--position] = '.';
+      }
+    }
+    int count = Math.min(end - start, position - targetOffset);
+    System.arraycopy(source, end - count, target, position - count, count);
+  }
+}
@@ -0,0 +1,123 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFField;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * {@link DbfRecordSink} feeds record batches to a writer, keeping only the records matching the
+ * {@link ConvertTask#getFilters()} and the fields of {@link ConvertTask#getColumns()}. <br>
+ * Several sinks may share the batches of a single reader, so each input is read and decoded once
+ * whatever the number of outputs.
+ */
+class DbfRecordSink {
+
+  private final RollingParquetWriter writer;
+
+  /* Null when records are written as read. */
+  private final DbfRecordLayout projection;
+
+  private final int[] filterOffsets;
+
+  private final int[] filterLengths;
+
+  private final List<Predicate<String>> filters = new ArrayList<>();
+
+  private DbfRecordBatch selected;
+
+  /**
+   * @param source schema of the batches given to {@link #write(DbfRecordBatch)}.
+   * @param writer writer of the {@link #project(DbfSchema, List)} schema.
+   */
+  DbfRecordSink(DbfSchema source, ConvertTask convertTask, RollingParquetWriter writer) {
+    this.writer = writer;
+    DbfRecordLayout layout = new DbfRecordLayout(source, writer.getDbfSchema());
+    this.projection = layout.isIdentity() ? null : layout;
+
+    Map<String, Predicate<String>> taskFilters = convertTask.getFilters();
+    int[] fieldOffsets = source.fieldOffsets();
+    this.filterOffsets = new int[taskFilters.size()];
+    this.filterLengths = new int[taskFilters.size()];
+    for (Map.Entry<String, Predicate<String>> filter : taskFilters.entrySet()) {
+      int field = indexOf(source, filter.getKey());
+      filterOffsets[filters.size()] = fieldOffsets[field];
+      filterLengths[filters.size()] = source.fields[field].getLength();
+      filters.add(filter.getValue());
+    }
+  }
+
+  /**
+   * @return the source schema restricted to the given columns, in the given order. All columns when
+   *     empty.
+   * @throws IllegalArgumentException when a column is not part of the source schema.
+   */
+  static DbfSchema project(DbfSchema source, List<String> columns) {
+    if (columns.isEmpty()) {
+      return source;
+    }
+    DBFField[] fields = new DBFField[columns.size()];
+    for (int i = 0; i < fields.length; ++i) {
+      fields[i] = source.fields[indexOf(source, columns.get(i))];
+    }
+    return DbfSchema.of(source.name, fields);
+  }
+
+  RollingParquetWriter getWriter() {
+    return writer;
+  }
+
+  void write(DbfRecordBatch records) throws IOException {
+    if (projection == null && filters.isEmpty()) {
+      writer.write(records);
+      return;
+    }
+
+    if (selected == null || selected.capacity < records.size) {
+      selected = new DbfRecordBatch(writer.getDbfSchema(), records.capacity);
+    }
+    selected.size = 0;
+    selected.charset = records.charset;
+    for (int record = 0; record < records.size; ++record) {
+      if (!matches(records, record)) {
+        continue;
+      }
+      int target = selected.offset(selected.size++);
+      if (projection == null) {
+        System.arraycopy(
+            records.records, records.offset(record), selected.records, target, records.recordLength);
+      } else {
+        projection.copy(records.records, records.offset(record), selected.records, target);
+      }
+    }
+
+    if (selected.size > 0) {
+      writer.write(selected);
+    }
+  }
+
+  private boolean matches(DbfRecordBatch records, int record) {
+    Charset charset = records.charset;
+    for (int i = 0; i < filters.size(); ++i) {
+      int start = records.offset(record) + filterOffsets[i];
+      String value = new String(records.records, start, filterLengths[i], charset).trim();
+      if (!filters.get(i).test(value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int indexOf(DbfSchema schema, String column) {
+    int index = schema.indexOf(column);
+    if (index < 0) {
+      throw new IllegalArgumentException(
+          String.format("Column %s not found in schema %s", column, schema.name));
+    }
+    return index;
+  }
+}
@@ -0,0 +1,595 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFField;
+import com.linuxense.javadbf.DBFWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link DbfRecordSorter} sorts raw DBF records within a memory budget. <br>
+ * Each record is stored as a fixed-width entry: a binary comparable sort key followed by the raw
+ * record bytes. When the buffered entries exceed the budget they are sorted and spilled to disk as a
+ * run, and {@link DbfRecordSorter#sortedStream()} k-way merges all runs back into a DBF stream, which
+ * is read by {@link InternalDbfReader} like any other DBF file.
+ */
+class DbfRecordSorter implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger(DbfRecordSorter.class);
+
+  /* byte[] header plus the reference held by the buffer list. */
+  private static final int ENTRY_OVERHEAD = 24;
+
+  private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+  private final DbfSchema schema;
+
+  private final Charset charset;
+
+  private final SortKey sortKey;
+
+  private final long memoryBudget;
+
+  private final Path spillDirectory;
+
+  private final int recordLength;
+
+  private final int entryLength;
+
+  private final List<byte[]> buffer = new ArrayList<>();
+
+  private final List<Path> runs = new ArrayList<>();
+
+  private final List<Closeable> openRuns = new ArrayList<>();
+
+  private long bufferedBytes = 0;
+
+  private int recordCount = 0;
+
+  DbfRecordSorter(DbfSchema schema, Charset charset, ConvertTask convertTask) {
+    this(
+        schema,
+        charset,
+        convertTask.getSortColumns(),
+        convertTask.zOrder(),
+        convertTask.getSortMemoryBudget(),
+        convertTask.getSortSpillDirectory());
+  }
+
+  DbfRecordSorter(
+      DbfSchema schema,
+      Charset charset,
+      List<String> sortColumns,
+      boolean zOrder,
+      long memoryBudget,
+      Path spillDirectory) {
+    if (sortColumns.isEmpty()) {
+      throw new IllegalArgumentException("At least one sort column must be provided");
+    }
+    this.schema = schema;
+    this.charset = charset;
+    this.sortKey = SortKey.of(schema, sortColumns, zOrder);
+    this.memoryBudget = memoryBudget;
+    this.spillDirectory = spillDirectory;
+    this.recordLength = schema.recordLength();
+    this.entryLength = sortKey.length + recordLength;
+  }
+
+  /**
+   * Buffers every record of the given reader. Readers with a different field layout, like the ones
+   * combined in a single file, have their fields matched by name.
+   */
+  void add(InternalDbfReader reader) throws IOException {
+    DbfRecordLayout layout = new DbfRecordLayout(reader.schema, schema);
+    byte[] record = new byte[reader.schema.recordLength()];
+
+    while (reader.nextRawRecord(record)) {
+      byte[] entry = new byte[entryLength];
+      layout.copy(record, entry, sortKey.length);
+      sortKey.encode(entry, sortKey.length, entry);
+      buffer.add(entry);
+      ++recordCount;
+
+      bufferedBytes += entryLength + ENTRY_OVERHEAD;
+      if (bufferedBytes >= memoryBudget) {
+        spill();
+      }
+    }
+  }
+
+  /**
+   * @return a DBF stream, header included, with every added record in sort order.
+   */
+  InputStream sortedStream() throws IOException {
+    buffer.sort(this::compare);
+
+    PriorityQueue<RunCursor> cursors =
+        new PriorityQueue<>(
+            Math.max(1, runs.size() + 1),
+            (a, b) -> {
+              int result = compare(a.entry, b.entry);
+              return result != 0 ? result : Integer.compare(a.runIndex, b.runIndex);
+            });
+
+    for (int runIndex = 0; runIndex < runs.size(); ++runIndex) {
+      DataInputStream runStream =
+          new DataInputStream(
+              new BufferedInputStream(Files.newInputStream(runs.get(runIndex)), IO_BUFFER_SIZE));
+      openRuns.add(runStream);
+      addCursor(cursors, new FileRunCursor(runIndex, runStream));
+    }
+    addCursor(cursors, new MemoryRunCursor(runs.size(), buffer.iterator()));
+
+    logger.info(
+        String.format(
+            "Merging %s sorted record(s) from %s spilled run(s)", recordCount, runs.size()));
+
+    return new SequenceInputStream(
+        new ByteArrayInputStream(header()), new MergedRecordStream(cursors));
+  }
+
+  int getRecordCount() {
+    return recordCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Closeable run : openRuns) {
+      run.close();
+    }
+    for (Path run : runs) {
+      Files.deleteIfExists(run);
+    }
+    openRuns.clear();
+    runs.clear();
+    buffer.clear();
+  }
+
+  private void addCursor(PriorityQueue<RunCursor> cursors, RunCursor cursor) throws IOException {
+    if (cursor.advance()) {
+      cursors.add(cursor);
+    }
+  }
+
+  private int compare(byte[] a, byte[] b) {
+    return Arrays.compareUnsigned(a, 0, sortKey.length, b, 0, sortKey.length);
+  }
+
+  private void spill() throws IOException {
+    buffer.sort(this::compare);
+
+    Path run =
+        spillDirectory == null
+            ? Files.createTempFile("libdatasus-sort", ".run")
+            : Files.createTempFile(spillDirectory, "libdatasus-sort", ".run");
+    run.toFile().deleteOnExit();
+    runs.add(run);
+
+    try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_SIZE)) {
+      for (byte[] entry : buffer) {
+        out.write(entry);
+      }
+    }
+
+    logger.debug(String.format("Spilled %s record(s) to %s", buffer.size(), run.toUri()));
+    buffer.clear();
+    bufferedBytes = 0;
+  }
+
+  private byte[] header() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DBFWriter dbfWriter = new DBFWriter(out, charset);
+    dbfWriter.setFields(schema.fields);
+    dbfWriter.close();
+
+    // DBFWriter terminates the empty table with END_OF_DATA, records will follow instead.
+    byte[] header = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+    header[4] = (byte) recordCount;
+    header[5] = (byte) (recordCount >>> 8);
+    header[6] = (byte) (recordCount >>> 16);
+    header[7] = (byte) (recordCount >>> 24);
+    return header;
+  }
+
+  private abstract static class RunCursor {
+    final int runIndex;
+
+    byte[] entry;
+
+    RunCursor(int runIndex) {
+      this.runIndex = runIndex;
+    }
+
+    abstract boolean advance() throws IOException;
+  }
+
+  private class FileRunCursor extends RunCursor {
+    private final DataInputStream in;
+
+    FileRunCursor(int runIndex, DataInputStream in) {
+      super(runIndex);
+      this.in = in;
+    }
+
+    @Override
+    boolean advance() throws IOException {
+      byte[] next = new byte[entryLength];
+      try {
+        in.readFully(next);
+      } catch (EOFException e) {
+        in.close();
+        return false;
+      }
+      entry = next;
+      return true;
+    }
+  }
+
+  private static class MemoryRunCursor extends RunCursor {
+    private final Iterator<byte[]> entries;
+
+    MemoryRunCursor(int runIndex, Iterator<byte[]> entries) {
+      super(runIndex);
+      this.entries = entries;
+    }
+
+    @Override
+    boolean advance() {
+      if (!entries.hasNext()) {
+        return false;
+      }
+      entry = entries.next();
+      return true;
+    }
+  }
+
+  /** Streams the record part of the merged entries. */
+  private class MergedRecordStream extends InputStream {
+    private final PriorityQueue<RunCursor> cursors;
+
+    private byte[] current;
+
+    private int position = recordLength;
+
+    MergedRecordStream(PriorityQueue<RunCursor> cursors) {
+      this.cursors = cursors;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!ensureAvailable()) {
+        return -1;
+      }
+      return current[sortKey.length + position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      int read = 0;
+      while (read < len && ensureAvailable()) {
+        int count = Math.min(len - read, recordLength - position);
+        System.arraycopy(current, sortKey.length + position, b, off + read, count);
+        position += count;
+        read += count;
+      }
+      return read == 0 ? -1 : read;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+      if (position < recordLength) {
+        return true;
+      }
+      RunCursor cursor = cursors.poll();
+      if (cursor == null) {
+        return false;
+      }
+      current = cursor.entry;
+      position = 0;
+      if (cursor.advance()) {
+        cursors.add(cursor);
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Binary comparable key built from the sort columns of a raw record. Lexicographic keys concatenate
+   * the encoded columns; Z-order keys interleave the bits of a 64 bit value of each column.
+   */
+  static class SortKey {
+    private final SortColumn[] columns;
+
+    private final boolean zOrder;
+
+    final int length;
+
+    private SortKey(SortColumn[] columns, boolean zOrder) {
+      this.columns = columns;
+      this.zOrder = zOrder;
+
+      int keyLength = 0;
+      for (SortColumn column : columns) {
+        keyLength += zOrder ? Long.BYTES : column.keyLength();
+      }
+      this.length = keyLength;
+    }
+
+    static SortKey of(DbfSchema schema, List<String> columnNames, boolean zOrder) {
+      int[] offsets = schema.fieldOffsets();
+      SortColumn[] columns = new SortColumn[columnNames.size()];
+
+      for (int i = 0; i < columns.length; ++i) {
+        String columnName = columnNames.get(i);
+        int fieldIndex = schema.indexOf(columnName);
+        if (fieldIndex < 0) {
+          throw new IllegalArgumentException(
+              String.format("Sort column %s not found in schema %s", columnName, schema.name));
+        }
+        columns[i] = SortColumn.of(schema.fields[fieldIndex], offsets[fieldIndex]);
+      }
+
+      return new SortKey(columns, zOrder);
+    }
+
+    void encode(byte[] record, int recordStart, byte[] key) {
+      if (zOrder) {
+        long[] values = new long[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+          values[i] = columns[i].zValue(record, recordStart);
+        }
+        interleave(values, key);
+        return;
+      }
+
+      int keyOffset = 0;
+      for (SortColumn column : columns) {
+        column.encode(record, recordStart, key, keyOffset);
+        keyOffset += column.keyLength();
+      }
+    }
+
+    /* Morton code: most significant bits of every column first. */
+    private static void interleave(long[] values, byte[] key) {
+      int bit = 0;
+      for (int shift = Long.SIZE - 1; shift >= 0; --shift) {
+        for (long value : values) {
+          if (((value >>> shift) & 1) != 0) {
+            key[bit >>> 3] |= (byte) (0x80 >>> (bit & 7));
+          }
+          ++bit;
+        }
+      }
+    }
+  }
+
+  private abstract static class SortColumn {
+    final int offset;
+
+    final int length;
+
+    SortColumn(int offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+
+    static SortColumn of(DBFField field, int offset) {
+      switch (field.getType()) {
+        case CHARACTER:
+          return new CharacterColumn(offset, field.getLength());
+        case DATE:
+          return new DateColumn(offset, field.getLength());
+        case NUMERIC:
+        case FLOATING_POINT:
+          return new NumericColumn(offset, field.getLength());
+        case LOGICAL:
+          return new LogicalColumn(offset, field.getLength());
+        default:
+          throw new UnsupportedOperationException(
+              "Cannot sort DBF file: unknown type " + field.getType().name());
+      }
+    }
+
+    abstract int keyLength();
+
+    /** Writes {@link SortColumn#keyLength()} bytes comparable as unsigned bytes. */
+    abstract void encode(byte[] record, int recordStart, byte[] key, int keyOffset);
+
+    /** 64 bit value comparable as unsigned long, used by Z-order keys. */
+    abstract long zValue(byte[] record, int recordStart);
+
+    static void putLong(byte[] key, int keyOffset, long value) {
+      for (int i = 0; i < Long.BYTES; ++i) {
+        key[keyOffset + i] = (byte) (value >>> (Long.SIZE - Byte.SIZE * (i + 1)));
+      }
+    }
+  }
+
+  /* Space padded bytes already sort as the trimmed strings. */
+  private static class CharacterColumn extends SortColumn {
+    CharacterColumn(int offset, int length) {
+      super(offset, length);
+    }
+
+    @Override
+    int keyLength() {
+      return length;
+    }
+
+    @Override
+    void encode(byte[] record, int recordStart, byte[] key, int keyOffset) {
+      System.arraycopy(record, recordStart + offset, key, keyOffset, length);
+    }
+
+    @Override
+    long zValue(byte[] record, int recordStart) {
+      long value = 0;
+      for (int i = 0; i < Long.BYTES; ++i) {
+        int b = i < length ? record[recordStart + offset + i] & 0xFF : ' ';
+        value = (value << Byte.SIZE) | b;
+      }
+      return value;
+    }
+  }
+
+  /* YYYYMMDD text sorts chronologically, blank dates first. */
+  private static class DateColumn extends SortColumn {
+    DateColumn(int offset, int length) {
+      super(offset, length);
+    }
+
+    @Override
+    int keyLength() {
+      return length;
+    }
+
+    @Override
+    void encode(byte[] record, int recordStart, byte[] key, int keyOffset) {
+      System.arraycopy(record, recordStart + offset, key, keyOffset, length);
+    }
+
+    @Override
+    long zValue(byte[] record, int recordStart) {
+      int start = recordStart + offset;
+      int year = digits(record, start, 4);
+      int month = digits(record, start + 4, 2);
+      int day = digits(record, start + 6, 2);
+      if (year < 0 || month < 0 || day < 0) {
+        return 0;
+      }
+      // Lenient like the calendar used by javadbf.
+      long epochDay =
+          LocalDate.of(year, 1, 1).plusMonths(month - 1L).plusDays(day - 1L).toEpochDay();
+      return epochDay ^ Long.MIN_VALUE;
+    }
+
+    private static int digits(byte[] record, int start, int count) {
+      int value = 0;
+      for (int i = start; i < start + count; ++i) {
+        int digit = record[i] - '0';
+        if (digit < 0 || digit > 9) {
+          return -1;
+        }
+        value = value * 10 + digit;
+      }
+      return value;
+    }
+  }
+
+  /* Presence byte followed by the order preserving bits of the value, blank values first. */
+  private static class NumericColumn extends SortColumn {
+    NumericColumn(int offset, int length) {
+      super(offset, length);
+    }
+
+    @Override
+    int keyLength() {
+      return 1 + Long.BYTES;
+    }
+
+    @Override
+    void encode(byte[] record, int recordStart, byte[] key, int keyOffset) {
+      double value = parse(record, recordStart + offset, length);
+      if (Double.isNaN(value)) {
+        return;
+      }
+      key[keyOffset] = 1;
+      putLong(key, keyOffset + 1, orderedBits(value));
+    }
+
+    @Override
+    long zValue(byte[] record, int recordStart) {
+      double value = parse(record, recordStart + offset, length);
+      return Double.isNaN(value) ? 0 : orderedBits(value);
+    }
+
+    private static long orderedBits(double value) {
+      long bits = Double.doubleToLongBits(value);
+      return bits ^ ((bits >> (Long.SIZE - 1)) | Long.MIN_VALUE);
+    }
+
+    /* Same rules of javadbf numeric parsing, NaN stands for null. */
+    private static double parse(byte[] record, int start, int length) {
+      char[] chars = new char[length];
+      int count = 0;
+      for (int i = start; i < start + length; ++i) {
+        byte b = record[i];
+        if (b == ' ' || b == 0) {
+          continue;
+        }
+        if (b == '?' || b == '*' || b < ' ') {
+          return Double.NaN;
+        }
+        chars[count++] = b == ',' ? '.' : (char) b;
+      }
+      if (count == 0) {
+        return Double.NaN;
+      }
+      if (count == 1 && chars[0] == '.') {
+        return 0;
+      }
+      try {
+        return Double.parseDouble(new String(chars, 0, count));
+      } catch (NumberFormatException e) {
+        return Double.NaN;
+      }
+    }
+  }
+
+  /* Unknown, false, true. */
+  private static class LogicalColumn extends SortColumn {
+    LogicalColumn(int offset, int length) {
+      super(offset, length);
+    }
+
+    @Override
+    int keyLength() {
+      return 1;
+    }
+
+    @Override
+    void encode(byte[] record, int recordStart, byte[] key, int keyOffset) {
+      key[keyOffset] = (byte) zValue(record, recordStart);
+    }
+
+    @Override
+    long zValue(byte[] record, int recordStart) {
+      switch (record[recordStart + offset]) {
+        case 'F':
+        case 'f':
+        case 'N':
+        case 'n':
+          return 1;
+        case 'T':
+        case 't':
+        case 'Y':
+        case 'y':
+          return 2;
+        default:
+          return 0;
+      }
+    }
+  }
+}
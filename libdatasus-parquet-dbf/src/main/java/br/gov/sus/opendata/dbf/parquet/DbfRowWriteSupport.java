@@ -1,8 +1,10 @@
 package br.gov.sus.opendata.dbf.parquet;
 
 import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
 import com.linuxense.javadbf.DBFRow;
 import java.util.Map;
+import java.util.Set;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.parquet.hadoop.api.WriteSupport;
 import org.apache.parquet.io.api.RecordConsumer;
@@ -14,18 +16,26 @@ class DbfRowWriteSupport extends WriteSupport<DBFRow> {
 
   private final Map<String, String> extraMetadata;
 
+  private final Set<DBFDataType> blankAsNullTypes;
+
   private DbfRowWritter dbfRowWritter;
 
   private MessageType rootSchema;
 
   public DbfRowWriteSupport(DbfSchema dbfSchema, Map<String, String> extraMetadata) {
+    this(dbfSchema, extraMetadata, Set.of());
+  }
+
+  public DbfRowWriteSupport(
+      DbfSchema dbfSchema, Map<String, String> extraMetadata, Set<DBFDataType> blankAsNullTypes) {
     this.dbfSchema = dbfSchema;
     this.extraMetadata = extraMetadata;
+    this.blankAsNullTypes = blankAsNullTypes;
   }
 
   @Override
   public WriteContext init(Configuration configuration) {
-    rootSchema = new DbfSchemaConverter().convert(dbfSchema);
+    rootSchema = new DbfSchemaConverter(blankAsNullTypes).convert(dbfSchema);
     return new WriteContext(rootSchema, extraMetadata);
   }
 
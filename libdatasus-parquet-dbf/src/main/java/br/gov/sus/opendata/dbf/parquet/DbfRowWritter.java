@@ -9,6 +9,7 @@ import java.util.Date;
 import org.apache.parquet.io.api.Binary;
 import org.apache.parquet.io.api.RecordConsumer;
 import org.apache.parquet.schema.GroupType;
+import org.apache.parquet.schema.Type.Repetition;
 
 class DbfRowWritter {
 
@@ -66,7 +67,12 @@ class DbfRowWritter {
 
   private void writeFields(DBFRow dbfRow) {
     for (FieldWriter fieldWriter : writers) {
-      fieldWriter.writeField(dbfRow.getObject(fieldWriter.getFieldName()));
+      Object value = dbfRow.getObject(fieldWriter.getFieldName());
+      if (fieldWriter.isOptional() && fieldWriter.isBlank(value)) {
+        // OPTIONAL fields are null when absent.
+        continue;
+      }
+      fieldWriter.writeField(value);
     }
   }
 
@@ -77,9 +83,12 @@ class DbfRowWritter {
 
     private final int index;
 
+    private final boolean optional;
+
     public FieldWriter(String fieldName, int index) {
       this.fieldName = fieldName;
       this.index = index;
+      this.optional = parquetSchema.getType(index).isRepetition(Repetition.OPTIONAL);
     }
 
     void writeField(Object value) {
@@ -90,6 +99,17 @@ class DbfRowWritter {
 
     abstract void write(Object value);
 
+    /**
+     * @return true when the value is a blank DBF field, javadbf reads those as null.
+     */
+    boolean isBlank(Object value) {
+      return value == null;
+    }
+
+    public boolean isOptional() {
+      return optional;
+    }
+
     public String getFieldName() {
       return fieldName;
     }
@@ -105,6 +125,21 @@ class DbfRowWritter {
       super(fieldName, index);
     }
 
+    @Override
+    boolean isBlank(Object value) {
+      if (value == null) {
+        return true;
+      }
+      // javadbf trims the spaces at the right, NUL filled fields are blank too.
+      String string = (String) value;
+      for (int i = 0; i < string.length(); ++i) {
+        if (string.charAt(i) != ' ' && string.charAt(i) != 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
     @Override
     void write(Object value) {
       Binary bynaryString = Binary.fromString((String) value);
@@ -1,7 +1,9 @@
 package br.gov.sus.opendata.dbf.parquet;
 
 import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
 import com.linuxense.javadbf.DBFField;
+import java.util.Set;
 import org.apache.parquet.schema.LogicalTypeAnnotation;
 import org.apache.parquet.schema.MessageType;
 import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
@@ -10,10 +12,33 @@ import org.apache.parquet.schema.Types;
 import org.apache.parquet.schema.Types.GroupBuilder;
 
 class DbfSchemaConverter {
+
+  private final Set<DBFDataType> blankAsNullTypes;
+
+  DbfSchemaConverter() {
+    this(Set.of());
+  }
+
+  /**
+   * @param blankAsNullTypes DBF types converted to OPTIONAL columns, where blank fields are nulls.
+   */
+  DbfSchemaConverter(Set<DBFDataType> blankAsNullTypes) {
+    this.blankAsNullTypes = blankAsNullTypes;
+  }
+
   public MessageType convert(DbfSchema dbfSchema) {
+    ConversionEvents.Schema event = new ConversionEvents.Schema();
+    event.begin();
     GroupBuilder<MessageType> groupBuilder = Types.buildMessage();
     groupBuilder = convertFields(groupBuilder, dbfSchema.fields);
-    return groupBuilder.named(dbfSchema.name);
+    MessageType schema = groupBuilder.named(dbfSchema.name);
+    if (event.shouldCommit()) {
+      event.schema = dbfSchema.name;
+      event.format = "parquet";
+      event.fieldCount = dbfSchema.fields.length;
+      event.commit();
+    }
+    return schema;
   }
 
   private <T> GroupBuilder<T> convertFields(GroupBuilder<T> groupBuilder, DBFField[] dbfFields) {
@@ -22,7 +47,7 @@ class DbfSchemaConverter {
       ParquetDefinition parquetDefinition = getParquetType(dbfField);
       groupBuilder =
           groupBuilder
-              .primitive(parquetDefinition.getPrimitiveTypeName(), Repetition.REQUIRED)
+              .primitive(parquetDefinition.getPrimitiveTypeName(), getRepetition(dbfField))
               .as(parquetDefinition.getLogicalTypeAnnotation())
               .id(id)
               .named(dbfField.getName());
@@ -30,6 +55,10 @@ class DbfSchemaConverter {
     return groupBuilder;
   }
 
+  private Repetition getRepetition(DBFField dbfField) {
+    return blankAsNullTypes.contains(dbfField.getType()) ? Repetition.OPTIONAL : Repetition.REQUIRED;
+  }
+
   private ParquetDefinition getParquetType(DBFField dbfField) {
     switch (dbfField.getType()) {
       case CHARACTER:
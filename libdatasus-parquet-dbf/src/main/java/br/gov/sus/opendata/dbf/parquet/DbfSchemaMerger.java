@@ -0,0 +1,109 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFDataType;
+import com.linuxense.javadbf.DBFField;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link DbfSchemaMerger} builds the schema of combined DBF files: every field of every file, in
+ * first seen order. Fields found in several files are widened so any of their values fits:
+ *
+ * <ul>
+ *   <li>CHARACTER: the longest length.
+ *   <li>NUMERIC and FLOATING_POINT: the most integer digits and the most decimals, NUMERIC when
+ *       the types differ.
+ *   <li>other type conflicts: CHARACTER holding the raw field text, with the longest length.
+ * </ul>
+ *
+ * @see DbfRecordLayout
+ */
+class DbfSchemaMerger {
+
+  private static final Logger logger = LogManager.getLogger(DbfSchemaMerger.class);
+
+  private DbfSchemaMerger() {}
+
+  static DbfSchema merge(String schemaName, List<DbfSchema> schemas) {
+    LinkedHashMap<String, DBFField> fields = new LinkedHashMap<>();
+
+    for (DbfSchema schema : schemas) {
+      for (DBFField field : schema.fields) {
+        fields.merge(field.getName(), field, DbfSchemaMerger::widen);
+      }
+    }
+
+    return DbfSchema.of(schemaName, fields.values().toArray(DBFField[]::new));
+  }
+
+  static DBFField widen(DBFField current, DBFField other) {
+    DBFDataType type = current.getType();
+    DBFDataType otherType = other.getType();
+
+    if (isNumber(type) && isNumber(otherType)) {
+      return widenNumber(current, other);
+    }
+
+    if (type != otherType) {
+      int length = Math.max(current.getLength(), other.getLength());
+      logger.warn(
+          String.format(
+              "Field %s has types %s and %s, combined as CHARACTER(%s)",
+              current.getName(), type.name(), otherType.name(), length));
+      return new DBFField(current.getName(), DBFDataType.CHARACTER, length);
+    }
+
+    if (type == DBFDataType.CHARACTER && other.getLength() > current.getLength()) {
+      logger.info(
+          String.format(
+              "Field %s widened from CHARACTER(%s) to CHARACTER(%s)",
+              current.getName(), current.getLength(), other.getLength()));
+      return new DBFField(current.getName(), type, other.getLength());
+    }
+
+    return current;
+  }
+
+  private static DBFField widenNumber(DBFField current, DBFField other) {
+    int decimals = Math.max(current.getDecimalCount(), other.getDecimalCount());
+    int integerLength = Math.max(integerLength(current), integerLength(other));
+    DBFDataType type =
+        current.getType() == other.getType() ? current.getType() : DBFDataType.NUMERIC;
+    int length = Math.min(integerLength + fractionLength(decimals), type.getMaxSize());
+
+    if (type == current.getType()
+        && length == current.getLength()
+        && decimals == current.getDecimalCount()) {
+      return current;
+    }
+
+    logger.info(
+        String.format(
+            "Field %s widened from %s(%s,%s) to %s(%s,%s)",
+            current.getName(),
+            current.getType().name(),
+            current.getLength(),
+            current.getDecimalCount(),
+            type.name(),
+            length,
+            decimals));
+    return new DBFField(current.getName(), type, length, decimals);
+  }
+
+  private static boolean isNumber(DBFDataType type) {
+    return type == DBFDataType.NUMERIC || type == DBFDataType.FLOATING_POINT;
+  }
+
+  /* Sign and integer digits. */
+  private static int integerLength(DBFField field) {
+    return field.getLength() - fractionLength(field.getDecimalCount());
+  }
+
+  /* Decimal separator and decimal digits. */
+  private static int fractionLength(int decimals) {
+    return decimals > 0 ? decimals + 1 : 0;
+  }
+}
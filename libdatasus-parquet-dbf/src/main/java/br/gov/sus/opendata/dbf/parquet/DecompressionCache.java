@@ -0,0 +1,255 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link DecompressionCache} keeps the DBF content of decompressed DBC files, so converting a DBC
+ * file again, e.g. with other columns, filters or profiles, skips its decompression. <br>
+ * Entries are keyed by the SHA-256 fingerprint of the DBC content. Small files are held in memory,
+ * up to a quarter of the memory tier each, other files in the cache directory. Each tier evicts
+ * its least recently used entries beyond its size, memory entries are moved to the directory.
+ * Files of the directory are reused by later caches of the same directory. <br>
+ * A cache may be shared by several {@link DbfParquet}, it is safe for concurrent use. An entry
+ * evicted while it is read stays readable on POSIX file systems.
+ *
+ * @see DbfParquet.Builder#withDecompressionCache(DecompressionCache)
+ */
+public class DecompressionCache {
+
+  private static final String EXTENSION = ".dbf";
+
+  /* Not indexed by later caches of the directory. */
+  private static final String TEMPORARY_EXTENSION = ".tmp";
+
+  private static final Logger logger = LogManager.getLogger(DecompressionCache.class);
+
+  private final Path directory;
+
+  private final long maxDiskBytes;
+
+  private final long maxMemoryBytes;
+
+  /* Entries of each tier, by fingerprint, in access order. */
+  private final LinkedHashMap<String, byte[]> memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long memoryBytes = 0;
+
+  private long diskBytes = 0;
+
+  private final LongAdder memoryHits = new LongAdder();
+
+  private final LongAdder diskHits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param directory directory of the on-disk tier, created when missing.
+   * @param maxDiskBytes max size of the files of the directory.
+   * @param maxMemoryBytes max size of the in-memory tier, 0 to keep every entry on disk.
+   */
+  public DecompressionCache(Path directory, long maxDiskBytes, long maxMemoryBytes)
+      throws IOException {
+    if (maxDiskBytes <= 0 || maxMemoryBytes < 0) {
+      throw new IllegalArgumentException(
+          "`maxDiskBytes` must be positive and `maxMemoryBytes` not negative");
+    }
+    this.directory = Files.createDirectories(directory);
+    this.maxDiskBytes = maxDiskBytes;
+    this.maxMemoryBytes = maxMemoryBytes;
+    loadDirectory();
+  }
+
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return bytes of the entries held in memory.
+   */
+  public synchronized long getMemoryBytes() {
+    return memoryBytes;
+  }
+
+  /**
+   * @return bytes of the entries of the cache directory.
+   */
+  public synchronized long getDiskBytes() {
+    return diskBytes;
+  }
+
+  public long getMemoryHits() {
+    return memoryHits.sum();
+  }
+
+  public long getDiskHits() {
+    return diskHits.sum();
+  }
+
+  /**
+   * @return number of decompressions.
+   */
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * Opens the DBF content of the DBC file, decompressing it on a miss.
+   *
+   * @param decompressor decompresses the file to a temporary DBF file of the cache directory, moved
+   *     to its entry. Concurrent misses of the same content each decompress to their own file.
+   */
+  InputStream open(Path input, Decompressor decompressor) throws IOException {
+    String key = ConversionManifest.fingerprint(input);
+    synchronized (this) {
+      byte[] content = memoryEntries.get(key);
+      if (content != null) {
+        memoryHits.increment();
+        logger.info(String.format("Decompressed %s found in memory", input.toUri()));
+        return new ByteArrayInputStream(content);
+      }
+      Long size = diskEntries.get(key);
+      if (size != null) {
+        try {
+          InputStream in = Files.newInputStream(entryPath(key));
+          diskHits.increment();
+          logger.info(String.format("Decompressed %s found in %s", input.toUri(), directory.toUri()));
+          return in;
+        } catch (NoSuchFileException e) {
+          // Deleted outside of the cache: decompressed again.
+          logger.warn(String.format("Decompression cache entry %s missing, dropped", key));
+          diskEntries.remove(key);
+          diskBytes -= size;
+        }
+      }
+    }
+
+    misses.increment();
+    Path temporary = directory.resolve(key + "." + UUID.randomUUID() + TEMPORARY_EXTENSION);
+    Path decompressed;
+    try {
+      decompressed = decompressor.decompress(input, temporary);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(temporary);
+      throw e;
+    }
+    long size = Files.size(decompressed);
+    if (size <= maxMemoryBytes / 4) {
+      byte[] content = Files.readAllBytes(decompressed);
+      Files.delete(decompressed);
+      synchronized (this) {
+        putMemory(key, content);
+      }
+      return new ByteArrayInputStream(content);
+    }
+    if (size > maxDiskBytes) {
+      // Larger than the cache, released with the stream as without a cache.
+      decompressed.toFile().deleteOnExit();
+      return Files.newInputStream(decompressed, StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    // Moved and indexed at once: an eviction of the same key can not delete an indexed entry.
+    synchronized (this) {
+      Path entry = entryPath(key);
+      Files.move(decompressed, entry, StandardCopyOption.REPLACE_EXISTING);
+      InputStream in = Files.newInputStream(entry);
+      putDisk(key, size);
+      return in;
+    }
+  }
+
+  /**
+   * Removes every entry, in memory and on disk.
+   */
+  public synchronized void clear() throws IOException {
+    memoryEntries.clear();
+    memoryBytes = 0;
+    for (String key : diskEntries.keySet()) {
+      Files.deleteIfExists(entryPath(key));
+    }
+    diskEntries.clear();
+    diskBytes = 0;
+  }
+
+  private void putMemory(String key, byte[] content) throws IOException {
+    if (memoryEntries.put(key, content) == null) {
+      memoryBytes += content.length;
+    }
+    Iterator<Map.Entry<String, byte[]>> eldest = memoryEntries.entrySet().iterator();
+    while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+      Map.Entry<String, byte[]> evicted = eldest.next();
+      eldest.remove();
+      memoryBytes -= evicted.getValue().length;
+      if (!diskEntries.containsKey(evicted.getKey())) {
+        Files.write(entryPath(evicted.getKey()), evicted.getValue());
+        putDisk(evicted.getKey(), evicted.getValue().length);
+      }
+    }
+  }
+
+  private void putDisk(String key, long size) throws IOException {
+    Long previous = diskEntries.put(key, size);
+    diskBytes += size - (previous == null ? 0 : previous);
+    Iterator<Map.Entry<String, Long>> eldest = diskEntries.entrySet().iterator();
+    while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> evicted = eldest.next();
+      eldest.remove();
+      diskBytes -= evicted.getValue();
+      Files.deleteIfExists(entryPath(evicted.getKey()));
+      logger.info(String.format("Decompression cache entry %s evicted", evicted.getKey()));
+    }
+  }
+
+  /**
+   * Indexes the files left by an earlier cache of the directory, least recently modified first.
+   */
+  private synchronized void loadDirectory() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      stream.forEach(files::add);
+    }
+    Map<Path, Long> modified = new LinkedHashMap<>();
+    for (Path file : files) {
+      modified.put(file, Files.getLastModifiedTime(file).toMillis());
+    }
+    files.sort(Comparator.comparing(modified::get));
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      putDisk(name.substring(0, name.length() - EXTENSION.length()), Files.size(file));
+    }
+  }
+
+  private Path entryPath(String key) {
+    return directory.resolve(key + EXTENSION);
+  }
+
+  /**
+   * Decompresses a DBC file to a temporary DBF file.
+   */
+  @FunctionalInterface
+  interface Decompressor {
+    /**
+     * @return the output file.
+     */
+    Path decompress(Path input, Path output) throws IOException;
+  }
+}
@@ -0,0 +1,250 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link DistributedConverter} shares the conversion of a directory between workers, on several
+ * hosts mounting the same file system, without a coordinator. <br>
+ * Each worker lists the input directory and claims each file without an output through a lease
+ * file in the ".leases" directory of the output, see {@link FileLease}. The lease is renewed by a
+ * heartbeat while the file is converted to a hidden temporary output, which is committed by an
+ * atomic rename only if the lease is still held. Leases of crashed workers expire and are
+ * reclaimed by the others. DBF files decompressed next to their DBC file are not inputs, the DBC
+ * files are decompressed by each conversion to a temporary file of its own. <br>
+ * {@link #run()} converts every file it claims once, and returns when no unclaimed file is left.
+ * It may be called concurrently, by several threads or processes, each one being a worker.
+ *
+ * <pre>
+ *     DistributedConverter converter = DistributedConverter.builder()
+ *             .task(ConvertTask.builder().input(Path.of("/nfs/dbc")).output(Path.of("/nfs/parquet")).build())
+ *             .build();
+ *     ConversionResult result = converter.run();
+ * </pre>
+ */
+public class DistributedConverter {
+
+  static final String LEASE_DIRECTORY = ".leases";
+
+  private static final String LEASE_EXTENSION = ".lease";
+
+  private static final Logger logger = LogManager.getLogger(DistributedConverter.class);
+
+  private final DbfParquet dbfParquet;
+
+  private final ConvertTask convertTask;
+
+  private final String workerName;
+
+  private final Duration leaseDuration;
+
+  private final Duration heartbeatInterval;
+
+  DistributedConverter(Builder builder) {
+    this.dbfParquet = builder.dbfParquet != null ? builder.dbfParquet : DbfParquet.builder().build();
+    this.convertTask = builder.convertTask;
+    this.workerName = builder.workerName != null ? builder.workerName : defaultWorkerName();
+    this.leaseDuration = builder.leaseDuration;
+    this.heartbeatInterval = builder.heartbeatInterval != null
+        ? builder.heartbeatInterval
+        : leaseDuration.dividedBy(3);
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Converts the files of the input directory not converted nor claimed by another worker.
+   *
+   * @return the files converted by this worker, with the failure of each file it could not
+   *     convert.
+   */
+  public ConversionResult run() throws IOException {
+    Path outputDirectory = Files.createDirectories(convertTask.getOutput());
+    Path leaseDirectory = Files.createDirectories(outputDirectory.resolve(LEASE_DIRECTORY));
+    String extension = convertTask.getArrowFormat() != null
+        ? convertTask.getArrowFormat().getExtension()
+        : ".parquet";
+
+    List<ConversionResult> results = new ArrayList<>();
+    Map<Path, Exception> failures = new LinkedHashMap<>();
+    ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(
+        runnable -> {
+          Thread thread = new Thread(runnable, "dbf-parquet-lease-heartbeat");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      for (Path input : dbfParquet.listInputs(convertTask)) {
+        if (DbfParquet.isDecompressed(input)) {
+          continue;
+        }
+        Path output = outputDirectory.resolve(input.getFileName() + extension);
+        if (Files.exists(output)) {
+          continue;
+        }
+        Path leaseFile = leaseDirectory.resolve(input.getFileName() + LEASE_EXTENSION);
+        try (FileLease lease = FileLease.tryAcquire(leaseFile, workerName, leaseDuration)) {
+          // Held by another worker, or committed between the check and the claim.
+          if (lease == null || Files.exists(output)) {
+            continue;
+          }
+          ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+              lease::heartbeat,
+              heartbeatInterval.toMillis(),
+              heartbeatInterval.toMillis(),
+              TimeUnit.MILLISECONDS);
+          try {
+            results.add(convert(input, output, lease));
+          } catch (IOException | RuntimeException e) {
+            logger.error(String.format("Worker %s failed to convert %s", workerName, input.toUri()), e);
+            failures.put(input, e);
+          } finally {
+            heartbeat.cancel(false);
+          }
+        }
+      }
+    } finally {
+      heartbeats.shutdownNow();
+    }
+    return ConversionResult.combine(convertTask, results, failures);
+  }
+
+  /**
+   * Converts the input to a hidden temporary output, renamed to the output while the lease is held.
+   */
+  private ConversionResult convert(Path input, Path output, FileLease lease) throws IOException {
+    Path temporary = output.resolveSibling("." + output.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    logger.info(String.format("Worker %s converting %s", workerName, input.toUri()));
+    try {
+      ConversionResult result = dbfParquet.convert(
+          convertTask.toBuilder().input(input).output(temporary).build());
+      if (!lease.isHeld()) {
+        throw new IOException(String.format("Lease of %s lost, conversion discarded", input));
+      }
+      Files.move(temporary, output, StandardCopyOption.ATOMIC_MOVE);
+      return new ConversionResult(convertTask, List.of(output), result.getRowCount(),
+          result.getColumnProfiles());
+    } finally {
+      deleteRecursively(temporary);
+    }
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    if (Files.isDirectory(path)) {
+      List<Path> children;
+      try (Stream<Path> stream = Files.list(path)) {
+        children = stream.collect(Collectors.toList());
+      }
+      for (Path child : children) {
+        deleteRecursively(child);
+      }
+    }
+    Files.deleteIfExists(path);
+  }
+
+  private static String defaultWorkerName() {
+    String host;
+    try {
+      host = InetAddress.getLocalHost().getHostName();
+    } catch (IOException e) {
+      host = "unknown";
+    }
+    return host + "/" + ManagementFactory.getRuntimeMXBean().getName();
+  }
+
+  public static class Builder {
+
+    private DbfParquet dbfParquet;
+
+    private ConvertTask convertTask;
+
+    private String workerName;
+
+    private Duration leaseDuration = Duration.ofMinutes(5);
+
+    private Duration heartbeatInterval;
+
+    /**
+     * Engine of the conversions, shared with other callers. Its tasks are not run.
+     */
+    public Builder dbfParquet(DbfParquet dbfParquet) {
+      this.dbfParquet = dbfParquet;
+      return this;
+    }
+
+    /**
+     * Directory task, each file converted on its own to the output directory.
+     */
+    public Builder task(ConvertTask convertTask) {
+      this.convertTask = convertTask;
+      return this;
+    }
+
+    /**
+     * Name written to the lease files, the host name and process by default.
+     */
+    public Builder workerName(String workerName) {
+      this.workerName = workerName;
+      return this;
+    }
+
+    /**
+     * Time without heartbeat after which a lease is expired. Defaults to 5 minutes.
+     */
+    public Builder leaseDuration(Duration leaseDuration) {
+      if (leaseDuration.isNegative() || leaseDuration.isZero()) {
+        throw new IllegalArgumentException("`leaseDuration` must be positive");
+      }
+      this.leaseDuration = leaseDuration;
+      return this;
+    }
+
+    /**
+     * Interval of the lease renewals. Defaults to a third of the lease duration.
+     */
+    public Builder heartbeatInterval(Duration heartbeatInterval) {
+      if (heartbeatInterval.isNegative() || heartbeatInterval.isZero()) {
+        throw new IllegalArgumentException("`heartbeatInterval` must be positive");
+      }
+      this.heartbeatInterval = heartbeatInterval;
+      return this;
+    }
+
+    public DistributedConverter build() {
+      if (convertTask == null || convertTask.getInput() == null || convertTask.getOutput() == null) {
+        throw new IllegalArgumentException("A task with an input and output directory is required");
+      }
+      if (convertTask.combine()
+          || convertTask.getPartitionRule() != null
+          || !convertTask.getTargets().isEmpty()
+          || convertTask.incremental()) {
+        throw new IllegalArgumentException(
+            "Distributed conversion does not support combining, partitioning, targets or incremental conversion");
+      }
+      if (heartbeatInterval != null && heartbeatInterval.compareTo(leaseDuration) >= 0) {
+        throw new IllegalArgumentException("`heartbeatInterval` must be shorter than `leaseDuration`");
+      }
+      return new DistributedConverter(this);
+    }
+  }
+}
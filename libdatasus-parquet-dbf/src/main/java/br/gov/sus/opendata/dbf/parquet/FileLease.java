@@ -0,0 +1,158 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.UUID;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link FileLease} is an exclusive claim on a shared file, held by creating a lease file. <br>
+ * The lease file is created exclusively and holds the owner token, its modification time is
+ * renewed by {@link #heartbeat()}. A lease not renewed for the lease duration is expired: another
+ * owner reclaims it by renaming the lease file to a unique name, which only one owner can do, then
+ * creating it again. A lease file renamed by mistake, reclaimed meanwhile by another owner, is not
+ * renamed back, which could overwrite a lease created since: that owner loses the lease, as if it
+ * expired. Hosts sharing leases must have roughly synchronized clocks, the lease
+ * duration being much longer than their skew.
+ */
+final class FileLease implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger(FileLease.class);
+
+  private final Path file;
+
+  private final String token;
+
+  private volatile boolean held = true;
+
+  private FileLease(Path file, String token) {
+    this.file = file;
+    this.token = token;
+  }
+
+  /**
+   * @param owner name of the owner, e.g. host and process, written to the lease file.
+   * @return the lease, null when it is held by another owner and not expired.
+   */
+  static FileLease tryAcquire(Path file, String owner, Duration leaseDuration) throws IOException {
+    String token = owner + "/" + UUID.randomUUID();
+    if (create(file, token)) {
+      return new FileLease(file, token);
+    }
+
+    String expiredToken;
+    try {
+      FileTime modified = Files.getLastModifiedTime(file);
+      if (System.currentTimeMillis() - modified.toMillis() < leaseDuration.toMillis()) {
+        return null;
+      }
+      expiredToken = Files.readString(file, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException e) {
+      // Released meanwhile.
+      return create(file, token) ? new FileLease(file, token) : null;
+    }
+
+    String removedToken = remove(file);
+    if (removedToken == null) {
+      return null;
+    }
+    if (!removedToken.equals(expiredToken)) {
+      logger.warn(String.format("Lease %s of %s reclaimed by another owner, removed", file.toUri(), removedToken));
+      return null;
+    }
+    logger.info(String.format("Expired lease %s of %s reclaimed", file.toUri(), expiredToken));
+    return create(file, token) ? new FileLease(file, token) : null;
+  }
+
+  /**
+   * Renames the lease file to a unique name, which only one owner can do, then deletes it.
+   *
+   * @return the token of the removed lease file, null when another owner renamed it first.
+   */
+  private static String remove(Path file) throws IOException {
+    Path tombstone = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".expired");
+    try {
+      Files.move(file, tombstone, StandardCopyOption.ATOMIC_MOVE);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    try {
+      return Files.readString(tombstone, StandardCharsets.UTF_8);
+    } finally {
+      Files.delete(tombstone);
+    }
+  }
+
+  private static boolean create(Path file, String token) throws IOException {
+    try {
+      Files.writeString(file, token, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW,
+          StandardOpenOption.WRITE);
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Renews the lease, unless it was lost to another owner.
+   *
+   * @return true when the lease is still held.
+   */
+  boolean heartbeat() {
+    if (!held) {
+      return false;
+    }
+    try {
+      if (!Files.readString(file, StandardCharsets.UTF_8).equals(token)) {
+        held = false;
+        return false;
+      }
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } catch (IOException e) {
+      logger.warn(String.format("Lease %s lost", file.toUri()), e);
+      held = false;
+      return false;
+    }
+  }
+
+  /**
+   * @return true while the lease file holds this lease token.
+   */
+  boolean isHeld() {
+    return held && heartbeat();
+  }
+
+  /**
+   * Releases the lease, when it is still held.
+   */
+  @Override
+  public void close() throws IOException {
+    if (held && isOwner()) {
+      // Checked again once renamed: the lease may be reclaimed between the check and the removal.
+      String removedToken = remove(file);
+      if (removedToken != null && !removedToken.equals(token)) {
+        logger.warn(String.format("Lease %s of %s reclaimed by another owner, removed", file.toUri(), removedToken));
+      }
+    }
+    held = false;
+  }
+
+  private boolean isOwner() throws IOException {
+    try {
+      return Files.readString(file, StandardCharsets.UTF_8).equals(token);
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link HyperLogLog} estimates distinct counts with 2^11 registers, about 2.3% standard error.
+ * Sketches are mergeable, the merge of two sketches estimates the distinct count of their union.
+ */
+final class HyperLogLog {
+
+  private static final int PRECISION = 11;
+
+  private static final int REGISTERS = 1 << PRECISION;
+
+  private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+  private final byte[] registers;
+
+  HyperLogLog() {
+    this(new byte[REGISTERS]);
+  }
+
+  private HyperLogLog(byte[] registers) {
+    this.registers = registers;
+  }
+
+  void add(long hash) {
+    int index = (int) (hash >>> (Long.SIZE - PRECISION));
+    // The guard bit bounds the rank when the remaining bits are zeros.
+    byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+    if (rank > registers[index]) {
+      registers[index] = rank;
+    }
+  }
+
+  void merge(HyperLogLog other) {
+    for (int i = 0; i < REGISTERS; ++i) {
+      if (other.registers[i] > registers[i]) {
+        registers[i] = other.registers[i];
+      }
+    }
+  }
+
+  HyperLogLog copy() {
+    return new HyperLogLog(registers.clone());
+  }
+
+  long estimate() {
+    double sum = 0;
+    int zeros = 0;
+    for (byte register : registers) {
+      sum += 1.0 / (1L << register);
+      if (register == 0) {
+        ++zeros;
+      }
+    }
+
+    double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+    if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+      // Linear counting for small cardinalities.
+      estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * @return the deflated registers, small for low cardinality columns.
+   */
+  byte[] toBytes() {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    try {
+      deflater.setInput(registers);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[REGISTERS];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  static HyperLogLog fromBytes(byte[] bytes) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes);
+      byte[] registers = new byte[REGISTERS];
+      int read = 0;
+      while (read < REGISTERS && !inflater.finished()) {
+        int inflated = inflater.inflate(registers, read, REGISTERS - read);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += inflated;
+      }
+      if (read != REGISTERS) {
+        throw new IllegalArgumentException("Invalid HyperLogLog registers");
+      }
+      return new HyperLogLog(registers);
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Invalid HyperLogLog registers", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  static long hash(long value) {
+    // MurmurHash3 fmix64 finalizer.
+    value ^= value >>> 33;
+    value *= 0xff51afd7ed558ccdL;
+    value ^= value >>> 33;
+    value *= 0xc4ceb9fe1a85ec53L;
+    value ^= value >>> 33;
+    return value;
+  }
+
+  static long hash(byte[] bytes, int offset, int length) {
+    // FNV-1a, mixed by the fmix64 finalizer.
+    long hash = 0xcbf29ce484222325L;
+    for (int i = offset; i < offset + length; ++i) {
+      hash ^= bytes[i] & 0xFF;
+      hash *= 0x100000001b3L;
+    }
+    return hash(hash ^ length);
+  }
+}
@@ -2,15 +2,32 @@ package br.gov.sus.opendata.dbf.parquet;
 
 import com.linuxense.javadbf.DBFField;
 import com.linuxense.javadbf.DBFReader;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Optional;
 
 class InternalDbfReader extends DBFReader {
 
+  private static final int DELETED_RECORD = '*';
+
+  /* Fixed part of the header, holding the full header length at bytes 8 and 9. */
+  private static final int HEADER_PREFIX_LENGTH = 32;
+
+  private static final byte FIELDS_TERMINATOR = 0x0D;
+
   public final DbfSchema schema;
 
+  private int rawRecordIndex = 0;
+
+  private boolean ended = false;
+
   InternalDbfReader(InputStream in) {
     this(in, null);
   }
@@ -21,6 +38,138 @@ class InternalDbfReader extends DBFReader {
         new DbfSchema(this, Optional.ofNullable(schemaName).orElse(DbfSchema.DEFAULT_SCHEMA_NAME));
   }
 
+  InternalDbfReader(InputStream in, String schemaName, Charset charset) {
+    super(in, charset);
+    schema =
+        new DbfSchema(this, Optional.ofNullable(schemaName).orElse(DbfSchema.DEFAULT_SCHEMA_NAME));
+  }
+
+  /**
+   * Reads only the header of a DBF or DBC file, without decompressing it: a DBC file starts with
+   * the DBF header, stored uncompressed.
+   *
+   * @return a reader of the file schema and charset, without records.
+   */
+  static InternalDbfReader readHeader(Path file, String schemaName) throws IOException {
+    byte[] header;
+    try (InputStream in = Files.newInputStream(file)) {
+      byte[] prefix = in.readNBytes(HEADER_PREFIX_LENGTH);
+      if (prefix.length < HEADER_PREFIX_LENGTH) {
+        throw new EOFException("Truncated DBF header: " + file);
+      }
+      int headerLength = (prefix[8] & 0xFF) | (prefix[9] & 0xFF) << 8;
+      header = new byte[Math.max(headerLength, HEADER_PREFIX_LENGTH)];
+      System.arraycopy(prefix, 0, header, 0, HEADER_PREFIX_LENGTH);
+      int rest = header.length - HEADER_PREFIX_LENGTH;
+      if (in.readNBytes(header, HEADER_PREFIX_LENGTH, rest) < rest) {
+        throw new EOFException("Truncated DBF header: " + file);
+      }
+    }
+    // Same as the DBC decompressor: the last header byte of a DBC file is not the terminator.
+    header[header.length - 1] = FIELDS_TERMINATOR;
+    return new InternalDbfReader(new ByteArrayInputStream(header), schemaName);
+  }
+
+  /**
+   * Reads the next record as raw fixed-width bytes, the deletion flag included, skipping deleted
+   * records. <br>
+   * Raw and parsed reads share the underlying stream, they must not be mixed on the same reader.
+   *
+   * @param record buffer of at least {@link DbfSchema#recordLength()} bytes.
+   * @return false when there are no more records.
+   */
+  boolean nextRawRecord(byte[] record) throws IOException {
+    return nextRawRecord(record, 0);
+  }
+
+  private boolean nextRawRecord(byte[] buffer, int offset) throws IOException {
+    int recordLength = schema.recordLength();
+
+    while (!ended) {
+      int flag = dataInputStream.read();
+      // Same end conditions of DBFReader: EOF, a 0xFF flag, or END_OF_DATA after the last record.
+      if (flag == -1 || flag == 0xFF || (flag == END_OF_DATA && rawRecordIndex == getRecordCount())) {
+        ended = true;
+        return false;
+      }
+
+      buffer[offset] = (byte) flag;
+      try {
+        dataInputStream.readFully(buffer, offset + 1, recordLength - 1);
+      } catch (EOFException e) {
+        // Same as DBFReader: a truncated trailing record ends the file.
+        ended = true;
+        return false;
+      }
+      ++rawRecordIndex;
+
+      if (flag != DELETED_RECORD) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Fills the batch with the next raw records, skipping deleted records. Records declared in the
+   * header are read in bulk, like {@link InternalDbfReader#nextRawRecord(byte[])} they end at EOF,
+   * a truncated record or a 0xFF deletion flag.
+   *
+   * @param batch batch of records with this reader layout.
+   * @return false when there are no more records.
+   */
+  boolean nextRecords(DbfRecordBatch batch) throws IOException {
+    int recordLength = schema.recordLength();
+    if (batch.recordLength != recordLength) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Batch record length %s differs from schema %s record length %s",
+              batch.recordLength, schema.name, recordLength));
+    }
+
+    batch.size = 0;
+    batch.charset = getCharset();
+
+    while (!ended && batch.size < batch.capacity) {
+      long declared = getRecordCount() - rawRecordIndex;
+      if (declared <= 0) {
+        // Records past the header count, if any, are read one by one like DBFReader does.
+        if (nextRawRecord(batch.records, batch.offset(batch.size))) {
+          ++batch.size;
+        }
+        continue;
+      }
+
+      int count = (int) Math.min(batch.capacity - batch.size, declared);
+      int start = batch.offset(batch.size);
+      int read = dataInputStream.readNBytes(batch.records, start, count * recordLength);
+      int complete = read / recordLength;
+      if (complete < count) {
+        ended = true;
+      }
+
+      for (int record = 0; record < complete; ++record) {
+        int offset = start + record * recordLength;
+        byte flag = batch.records[offset];
+        if (flag == (byte) 0xFF) {
+          ended = true;
+          break;
+        }
+        ++rawRecordIndex;
+        if (flag == DELETED_RECORD) {
+          continue;
+        }
+        int target = batch.offset(batch.size);
+        if (target != offset) {
+          System.arraycopy(batch.records, offset, batch.records, target, recordLength);
+        }
+        ++batch.size;
+      }
+    }
+
+    return batch.size > 0;
+  }
+
   public static class DbfSchema {
 
     public static final String DEFAULT_SCHEMA_NAME = "DBFFile";
@@ -46,5 +195,41 @@ class InternalDbfReader extends DBFReader {
     public static DbfSchema of(String name, DBFField[] fields) {
       return new DbfSchema(name, fields);
     }
+
+    /**
+     * @return index of the field with the given name, or -1 if it is not part of this schema.
+     */
+    public int indexOf(String fieldName) {
+      for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+        if (fields[fieldIndex].getName().equals(fieldName)) {
+          return fieldIndex;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * @return size in bytes of a raw record: the deletion flag followed by every field.
+     */
+    public int recordLength() {
+      int recordLength = 1;
+      for (DBFField field : fields) {
+        recordLength += field.getLength();
+      }
+      return recordLength;
+    }
+
+    /**
+     * @return offset of each field inside a raw record.
+     */
+    public int[] fieldOffsets() {
+      int[] offsets = new int[fields.length];
+      int offset = 1;
+      for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+        offsets[fieldIndex] = offset;
+        offset += fields[fieldIndex].getLength();
+      }
+      return offsets;
+    }
   }
 }
@@ -0,0 +1,124 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+/**
+ * {@link LocalOutputFile} writes parquet files through java.nio, without a Hadoop {@code
+ * Configuration} or {@code FileSystem}. Works with any {@link Path}, of the default file system or
+ * not. <br>
+ * Like the Hadoop local file system, missing parent directories are created, but no checksum file is
+ * written next to the parquet file.
+ */
+public class LocalOutputFile implements OutputFile {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path path;
+
+  public LocalOutputFile(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * @throws java.nio.file.FileAlreadyExistsException when the file exists.
+   */
+  @Override
+  public PositionOutputStream create(long blockSizeHint) throws IOException {
+    return open(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+
+  @Override
+  public PositionOutputStream createOrOverwrite(long blockSizeHint) throws IOException {
+    return open(
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+  @Override
+  public boolean supportsBlockSize() {
+    return false;
+  }
+
+  @Override
+  public long defaultBlockSize() {
+    return -1;
+  }
+
+  @Override
+  public String getPath() {
+    return path.toString();
+  }
+
+  @Override
+  public String toString() {
+    return path.toUri().toString();
+  }
+
+  private PositionOutputStream open(OpenOption... options) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    return new CountingOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(path, options), BUFFER_SIZE), true);
+  }
+
+  /**
+   * Tracks the position of the written bytes, the parquet writer asks for it at each page.
+   */
+  static class CountingOutputStream extends PositionOutputStream {
+
+    private final OutputStream out;
+
+    private final boolean closeStream;
+
+    private long position = 0;
+
+    /**
+     * @param closeStream whether closing this stream closes the given stream, otherwise it is only
+     *     flushed.
+     */
+    CountingOutputStream(OutputStream out, boolean closeStream) {
+      this.out = out;
+      this.closeStream = closeStream;
+    }
+
+    @Override
+    public long getPos() {
+      return position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      ++position;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      position += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closeStream) {
+        out.close();
+      } else {
+        out.flush();
+      }
+    }
+  }
+}
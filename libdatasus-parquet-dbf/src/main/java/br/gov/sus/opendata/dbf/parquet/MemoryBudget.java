@@ -0,0 +1,129 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+
+/**
+ * {@link MemoryBudget} bounds the row group bytes buffered in memory by every writer sharing it,
+ * being filled or waiting for an async flush. <br>
+ * Under pressure, writers degrade instead of growing the heap: each writer row groups are shrunk
+ * to its share of the budget, writers flush early once the budget is exhausted, and {@link
+ * DbfParquet} holds back new conversions until buffered bytes drop below the budget. <br>
+ * A budget may be shared by several {@link DbfParquet}, it is safe for concurrent use.
+ *
+ * @see DbfParquet.Builder#withMemoryBudget(MemoryBudget)
+ */
+public class MemoryBudget {
+
+  /* Row groups are not shrunk below this size, smaller ones encode and compress poorly. */
+  static final long MIN_ROW_GROUP_SIZE = 1024 * 1024;
+
+  private final long maxBytes;
+
+  private long bufferedBytes = 0;
+
+  private int writerCount = 0;
+
+  /**
+   * @param maxBytes max bytes buffered by the writers, not counting the records being read.
+   */
+  public MemoryBudget(long maxBytes) {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("`maxBytes` must be positive");
+    }
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return bytes buffered by the open writers.
+   */
+  public synchronized long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /**
+   * @return number of open writers.
+   */
+  public synchronized int getWriterCount() {
+    return writerCount;
+  }
+
+  synchronized boolean isExhausted() {
+    return bufferedBytes >= maxBytes;
+  }
+
+  /**
+   * @return the given row group size, shrunk to the budget share of each open writer.
+   */
+  synchronized long rowGroupSize(long rowGroupSize) {
+    long share = maxBytes / Math.max(writerCount, 1);
+    return Math.min(rowGroupSize, Math.max(share, MIN_ROW_GROUP_SIZE));
+  }
+
+  /**
+   * Waits until the buffered bytes are below the budget.
+   */
+  synchronized void awaitCapacity() throws InterruptedIOException {
+    while (bufferedBytes >= maxBytes) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the memory budget");
+      }
+    }
+  }
+
+  /**
+   * @return the reservation of a new writer, released when it is closed.
+   */
+  synchronized Reservation reserve() {
+    ++writerCount;
+    return new Reservation();
+  }
+
+  /**
+   * Bytes buffered by a single writer.
+   */
+  final class Reservation implements Closeable {
+
+    private long bytes = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Adds the delta to the buffered bytes. Ignored once closed: a flush still running when its
+     * writer failed would otherwise release bytes already released by {@link #close()}.
+     */
+    void add(long delta) {
+      synchronized (MemoryBudget.this) {
+        if (closed) {
+          return;
+        }
+        bytes += delta;
+        bufferedBytes += delta;
+        if (delta < 0) {
+          MemoryBudget.this.notifyAll();
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (MemoryBudget.this) {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        bufferedBytes -= bytes;
+        bytes = 0;
+        --writerCount;
+        MemoryBudget.this.notifyAll();
+      }
+    }
+  }
+}
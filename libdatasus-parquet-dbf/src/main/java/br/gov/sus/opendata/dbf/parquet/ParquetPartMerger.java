@@ -0,0 +1,85 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.hadoop.ParquetFileReader;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.FileMetaData;
+import org.apache.parquet.hadoop.util.HadoopInputFile;
+import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.schema.MessageType;
+
+/**
+ * {@link ParquetPartMerger} concatenates parquet parts of the same schema into a single file,
+ * copying their row groups as they are, without decoding or encoding pages. <br>
+ * Column indexes and bloom filters of the parts are not copied. The footer keeps the key-value
+ * metadata of the first part, with the {@link ColumnProfile} of every part merged.
+ */
+class ParquetPartMerger {
+
+  private ParquetPartMerger() {}
+
+  /**
+   * @param parts local parquet files, appended in order.
+   * @return number of rows of the merged file.
+   */
+  static long merge(List<Path> parts, OutputFile output, Configuration conf) throws IOException {
+    List<InputFile> inputs = new ArrayList<>();
+    for (Path part : parts) {
+      inputs.add(HadoopInputFile.fromPath(new org.apache.hadoop.fs.Path(part.toUri()), conf));
+    }
+
+    MessageType schema;
+    Map<String, String> keyValueMetaData = new HashMap<>();
+    Map<String, ColumnProfile> columnProfiles = new LinkedHashMap<>();
+    long rowCount = 0;
+    try (ParquetFileReader first = ParquetFileReader.open(inputs.get(0))) {
+      FileMetaData fileMetaData = first.getFooter().getFileMetaData();
+      schema = fileMetaData.getSchema();
+      fileMetaData.getKeyValueMetaData().forEach(
+          (key, value) -> {
+            if (!key.startsWith(ColumnProfile.FOOTER_KEY_PREFIX)) {
+              keyValueMetaData.put(key, value);
+            }
+          });
+    }
+
+    ParquetFileWriter writer =
+        new ParquetFileWriter(
+            output,
+            schema,
+            ParquetFileWriter.Mode.OVERWRITE,
+            ParquetWriter.DEFAULT_BLOCK_SIZE,
+            ParquetWriter.MAX_PADDING_SIZE_DEFAULT);
+    writer.start();
+    for (InputFile input : inputs) {
+      try (ParquetFileReader reader = ParquetFileReader.open(input)) {
+        MessageType partSchema = reader.getFooter().getFileMetaData().getSchema();
+        if (!schema.equals(partSchema)) {
+          throw new IllegalArgumentException(
+              String.format("Part %s schema differs from %s", input, schema));
+        }
+        ColumnProfile.mergeInto(
+            columnProfiles,
+            ColumnProfile.fromFooter(reader.getFooter().getFileMetaData().getKeyValueMetaData()));
+        rowCount += reader.getRecordCount();
+        reader.appendTo(writer);
+      }
+    }
+
+    for (ColumnProfile profile : columnProfiles.values()) {
+      keyValueMetaData.put(
+          ColumnProfile.FOOTER_KEY_PREFIX + profile.getName(), profile.toFooterValue());
+    }
+    writer.end(keyValueMetaData);
+    return rowCount;
+  }
+}
@@ -0,0 +1,41 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * {@link PartitionRule} derives Hive-style partition values from a DBC/DBF file name. E.g.:
+ * <pre>
+ *         CIHAMG2004.dbc => uf=MG/ano=2020/mes=04
+ * </pre>
+ *
+ * @see DatasusPartitionRule
+ * @see RegexPartitionRule
+ */
+@FunctionalInterface
+public interface PartitionRule {
+
+  /**
+   * @param fileName file name, without parent directories.
+   * @return partition column to value, in partition order. Empty when the rule does not match.
+   */
+  Optional<Map<String, String>> partition(String fileName);
+
+  /**
+   * @return a rule that tries this rule first and falls back to the given one.
+   */
+  default PartitionRule or(PartitionRule other) {
+    return fileName -> {
+      Optional<Map<String, String>> partition = partition(fileName);
+      return partition.isPresent() ? partition : other.partition(fileName);
+    };
+  }
+
+  /**
+   * Strips the extensions of a file name, e.g. "CIHAMG2004.dbc.dbf" results in "CIHAMG2004".
+   */
+  static String baseName(String fileName) {
+    int extension = fileName.indexOf('.');
+    return extension < 0 ? fileName : fileName.substring(0, extension);
+  }
+}
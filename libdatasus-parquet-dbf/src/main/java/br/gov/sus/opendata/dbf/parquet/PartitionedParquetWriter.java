@@ -0,0 +1,180 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import com.linuxense.javadbf.DBFField;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link PartitionedParquetWriter} keeps one open writer per Hive-style partition directory, e.g.
+ * "uf=MG/ano=2020/mes=04/part-00000.parquet". <br>
+ * At most maxOpenWriters writers are kept open, the least recently used one is closed when a new
+ * partition is opened. A closed partition, one written with a different schema, or one reaching the
+ * rolling limits, continues in a new part file.
+ */
+class PartitionedParquetWriter implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger(PartitionedParquetWriter.class);
+
+  /* Same escaped characters of Hive partition paths. */
+  private static final String ESCAPED_CHARS = "\"#%'*/:=?\\{[]^";
+
+  private final Path outputDirectory;
+
+  private final int maxOpenWriters;
+
+  private final RollingParquetWriter.WriterFactory writerFactory;
+
+  private final long maxRowsPerFile;
+
+  private final long targetFileSize;
+
+  private final LinkedHashMap<Path, RollingParquetWriter> openWriters =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<Path, Integer> partCounts = new HashMap<>();
+
+  private final List<RollingParquetWriter> writers = new ArrayList<>();
+
+  PartitionedParquetWriter(
+      Path outputDirectory,
+      int maxOpenWriters,
+      RollingParquetWriter.WriterFactory writerFactory,
+      long maxRowsPerFile,
+      long targetFileSize) {
+    this.outputDirectory = outputDirectory;
+    this.maxOpenWriters = maxOpenWriters;
+    this.writerFactory = writerFactory;
+    this.maxRowsPerFile = maxRowsPerFile;
+    this.targetFileSize = targetFileSize;
+  }
+
+  /**
+   * @return the open writer of the given partition, opening a new part file when needed.
+   */
+  RollingParquetWriter writerFor(Map<String, String> partition, DbfSchema dbfSchema)
+      throws IOException {
+    Path partitionDirectory = outputDirectory.resolve(partitionPath(partition));
+
+    RollingParquetWriter partitionWriter = openWriters.get(partitionDirectory);
+    if (partitionWriter != null && !sameLayout(partitionWriter.getDbfSchema(), dbfSchema)) {
+      logger.info(
+          String.format(
+              "Schema %s differs from the open part file, starting a new one", dbfSchema.name));
+      openWriters.remove(partitionDirectory).close();
+      partitionWriter = null;
+    }
+
+    if (partitionWriter == null) {
+      evictWriters(maxOpenWriters - 1);
+
+      partitionWriter =
+          new RollingParquetWriter(
+              () ->
+                  partitionDirectory.resolve(
+                      RollingParquetWriter.partFileName(
+                          partCounts.merge(partitionDirectory, 1, Integer::sum) - 1)),
+              writerFactory,
+              dbfSchema,
+              maxRowsPerFile,
+              targetFileSize);
+      openWriters.put(partitionDirectory, partitionWriter);
+      writers.add(partitionWriter);
+    }
+
+    return partitionWriter;
+  }
+
+  /**
+   * @return every part file opened by this writer.
+   */
+  List<Path> getFiles() {
+    List<Path> files = new ArrayList<>();
+    for (RollingParquetWriter writer : writers) {
+      files.addAll(writer.getFiles());
+    }
+    return files;
+  }
+
+  long getRowCount() {
+    long rowCount = 0;
+    for (RollingParquetWriter writer : writers) {
+      rowCount += writer.getRowCount();
+    }
+    return rowCount;
+  }
+
+  /**
+   * @return column profiles merged across every closed part file.
+   */
+  Map<String, ColumnProfile> getColumnProfiles() {
+    Map<String, ColumnProfile> columnProfiles = new LinkedHashMap<>();
+    for (RollingParquetWriter writer : writers) {
+      ColumnProfile.mergeInto(columnProfiles, writer.getColumnProfiles());
+    }
+    return columnProfiles;
+  }
+
+  @Override
+  public void close() throws IOException {
+    evictWriters(0);
+  }
+
+  private void evictWriters(int maxRemaining) throws IOException {
+    Iterator<RollingParquetWriter> leastRecentlyUsed = openWriters.values().iterator();
+    while (openWriters.size() > maxRemaining) {
+      RollingParquetWriter partitionWriter = leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      partitionWriter.close();
+    }
+  }
+
+  static String partitionPath(Map<String, String> partition) {
+    StringBuilder path = new StringBuilder();
+    for (Map.Entry<String, String> entry : partition.entrySet()) {
+      if (path.length() > 0) {
+        path.append('/');
+      }
+      path.append(escapePathName(entry.getKey())).append('=').append(escapePathName(entry.getValue()));
+    }
+    return path.toString();
+  }
+
+  private static String escapePathName(String name) {
+    StringBuilder escaped = new StringBuilder(name.length());
+    for (char c : name.toCharArray()) {
+      if (c < ' ' || c == 0x7F || ESCAPED_CHARS.indexOf(c) >= 0) {
+        escaped.append(String.format("%%%02X", (int) c));
+      } else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private static boolean sameLayout(DbfSchema a, DbfSchema b) {
+    if (a.fields.length != b.fields.length) {
+      return false;
+    }
+    for (int i = 0; i < a.fields.length; ++i) {
+      DBFField fieldA = a.fields[i];
+      DBFField fieldB = b.fields[i];
+      if (!fieldA.getName().equals(fieldB.getName())
+          || fieldA.getType() != fieldB.getType()
+          || fieldA.getLength() != fieldB.getLength()
+          || fieldA.getDecimalCount() != fieldB.getDecimalCount()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
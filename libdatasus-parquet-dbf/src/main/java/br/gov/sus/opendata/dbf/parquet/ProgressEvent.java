@@ -0,0 +1,150 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * {@link ProgressEvent} reports the progress of a conversion to the {@link
+ * DbfParquet.Builder#onProgress(java.util.function.Consumer)} consumer. Events are emitted at each
+ * {@link Phase} boundary and, while records are written, every {@link
+ * DbfParquet.Builder#withProgressInterval(long, long)} rows or bytes.
+ */
+public class ProgressEvent {
+
+  /**
+   * Phases of a conversion, in order. Combining conversions go through DECOMPRESS and READ once per
+   * input file.
+   */
+  public enum Phase {
+    /** A DBC input is being decompressed. */
+    DECOMPRESS,
+    /** An input is opened, its records are about to be read. */
+    READ,
+    /** Records are being written. */
+    WRITE,
+    /** Every record was read, the outputs are being flushed and closed. */
+    FLUSH,
+    /** The conversion finished. */
+    DONE
+  }
+
+  private final ConvertTask convertTask;
+
+  private final Path input;
+
+  private final Phase phase;
+
+  private final long rowCount;
+
+  private final long totalRowCount;
+
+  private final long bytesIn;
+
+  private final long bytesOut;
+
+  private final Duration elapsed;
+
+  ProgressEvent(
+      ConvertTask convertTask,
+      Path input,
+      Phase phase,
+      long rowCount,
+      long totalRowCount,
+      long bytesIn,
+      long bytesOut,
+      Duration elapsed) {
+    this.convertTask = convertTask;
+    this.input = input;
+    this.phase = phase;
+    this.rowCount = rowCount;
+    this.totalRowCount = totalRowCount;
+    this.bytesIn = bytesIn;
+    this.bytesOut = bytesOut;
+    this.elapsed = elapsed;
+  }
+
+  public ConvertTask getConvertTask() {
+    return convertTask;
+  }
+
+  /**
+   * Converted file, or directory of combining and partitioned conversions.
+   * @return input path.
+   */
+  public Path getInput() {
+    return input;
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  /**
+   * Records read so far.
+   * @return row count.
+   */
+  public long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Records declared by the headers of the inputs opened so far, deleted records included.
+   * @return expected row count.
+   */
+  public long getTotalRowCount() {
+    return totalRowCount;
+  }
+
+  /**
+   * Raw DBF record bytes read so far.
+   * @return bytes read.
+   */
+  public long getBytesIn() {
+    return bytesIn;
+  }
+
+  /**
+   * Bytes written to the outputs so far, including row groups buffered in memory.
+   * @return bytes written.
+   */
+  public long getBytesOut() {
+    return bytesOut;
+  }
+
+  /**
+   * Time since the conversion started.
+   * @return elapsed time.
+   */
+  public Duration getElapsed() {
+    return elapsed;
+  }
+
+  /**
+   * @return records read per second since the conversion started.
+   */
+  public double getRowsPerSecond() {
+    long nanos = elapsed.toNanos();
+    return nanos == 0 ? 0 : rowCount * 1e9 / nanos;
+  }
+
+  /**
+   * @return time left to read the expected records at the current rate, empty before any record
+   *     is read.
+   */
+  public Optional<Duration> getEstimatedRemaining() {
+    double rowsPerSecond = getRowsPerSecond();
+    if (rowsPerSecond == 0) {
+      return Optional.empty();
+    }
+    long remaining = Math.max(totalRowCount - rowCount, 0);
+    return Optional.of(Duration.ofNanos((long) (remaining / rowsPerSecond * 1e9)));
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "ProgressEvent{input=%s, phase=%s, rowCount=%s/%s, bytesIn=%s, bytesOut=%s, rowsPerSecond=%.0f}",
+        input, phase, rowCount, totalRowCount, bytesIn, bytesOut, getRowsPerSecond());
+  }
+}
@@ -0,0 +1,160 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.ProgressEvent.Phase;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * {@link ProgressTracker} counts the records of a conversion and emits its {@link ProgressEvent}.
+ * <br>
+ * Counters are updated once per record batch. Events are only built at phase boundaries and when a
+ * row or byte interval is crossed, so tracking costs a few atomic additions per batch. Combining
+ * parts share a tracker, every method is safe for concurrent use. The cancellation of asynchronous
+ * conversions is checked with each batch.
+ */
+class ProgressTracker {
+
+  private final ConvertTask convertTask;
+
+  private final Path input;
+
+  private final Consumer<Object> consumer;
+
+  private final ConversionMetrics metrics;
+
+  private final long rowInterval;
+
+  private final long byteInterval;
+
+  /* Null when the conversion cannot be cancelled. */
+  private final ConversionHandle handle;
+
+  private final long startNanos = System.nanoTime();
+
+  private final AtomicLong rowCount = new AtomicLong();
+
+  private final AtomicLong totalRowCount = new AtomicLong();
+
+  private final AtomicLong bytesIn = new AtomicLong();
+
+  private final AtomicLong inputCount = new AtomicLong();
+
+  private volatile long flushNanos;
+
+  /* Bytes written by each output, summed by the events. */
+  private final Map<Object, Long> outputs = new ConcurrentHashMap<>();
+
+  private volatile long nextRowCount;
+
+  private volatile long nextBytesIn;
+
+  /* Committed with the DONE event, when flight recording is on. */
+  private final ConversionEvents.Conversion event = new ConversionEvents.Conversion();
+
+  ProgressTracker(
+      ConvertTask convertTask,
+      Path input,
+      Consumer<Object> consumer,
+      ConversionMetrics metrics,
+      long rowInterval,
+      long byteInterval,
+      ConversionHandle handle) {
+    this.convertTask = convertTask;
+    this.input = input;
+    this.consumer = consumer;
+    this.metrics = metrics;
+    this.rowInterval = rowInterval;
+    this.byteInterval = byteInterval;
+    this.handle = handle;
+    this.nextRowCount = rowInterval;
+    this.nextBytesIn = byteInterval;
+    event.begin();
+  }
+
+  /**
+   * Adds the records declared by the header of an input.
+   *
+   * @throws java.util.concurrent.CancellationException when the conversion was cancelled.
+   */
+  void expect(long rows) {
+    checkCancelled();
+    inputCount.incrementAndGet();
+    totalRowCount.addAndGet(rows);
+  }
+
+  /**
+   * Counts a batch of records read.
+   *
+   * @return true when an interval was crossed, the caller then updates the outputs and emits a
+   *     {@link Phase#WRITE} event.
+   * @throws java.util.concurrent.CancellationException when the conversion was cancelled.
+   */
+  boolean records(long rows, long bytes) {
+    checkCancelled();
+    long rowsRead = rowCount.addAndGet(rows);
+    long bytesRead = bytesIn.addAndGet(bytes);
+    if (rowsRead < nextRowCount && bytesRead < nextBytesIn) {
+      return false;
+    }
+    synchronized (this) {
+      if (rowsRead < nextRowCount && bytesRead < nextBytesIn) {
+        return false;
+      }
+      nextRowCount = rowsRead + rowInterval;
+      nextBytesIn = bytesRead + byteInterval;
+      return true;
+    }
+  }
+
+  private void checkCancelled() {
+    if (handle != null) {
+      handle.checkCancelled();
+    }
+  }
+
+  /**
+   * Sets the bytes written so far by an output.
+   */
+  void output(Object output, long bytes) {
+    outputs.put(output, bytes);
+  }
+
+  void emit(Phase phase) {
+    long bytesOut = 0;
+    for (long bytes : outputs.values()) {
+      bytesOut += bytes;
+    }
+    long nanos = System.nanoTime();
+    if (phase == Phase.FLUSH) {
+      flushNanos = nanos;
+      metrics.getWriteLatency().record(nanos - startNanos);
+    } else if (phase == Phase.DONE) {
+      metrics.getFilesConverted().add(inputCount.get());
+      metrics.getRowsConverted().add(rowCount.get());
+      metrics.getFlushLatency().record(nanos - flushNanos);
+      metrics.getConversionLatency().record(nanos - startNanos);
+    }
+    if (phase == Phase.DONE && event.shouldCommit()) {
+      event.input = input.toString();
+      event.rows = rowCount.get();
+      event.declaredRows = totalRowCount.get();
+      event.bytesIn = bytesIn.get();
+      event.bytesOut = bytesOut;
+      event.commit();
+    }
+    consumer.accept(
+        new ProgressEvent(
+            convertTask,
+            input,
+            phase,
+            rowCount.get(),
+            totalRowCount.get(),
+            bytesIn.get(),
+            bytesOut,
+            Duration.ofNanos(nanos - startNanos)));
+  }
+}
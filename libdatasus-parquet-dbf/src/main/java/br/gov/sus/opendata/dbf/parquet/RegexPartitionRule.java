@@ -0,0 +1,53 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link RegexPartitionRule} maps the capturing groups of a regular expression, matched against the
+ * file name without extension, to partition columns.
+ * <pre>
+ *     PartitionRule rule = new RegexPartitionRule("^PA([A-Z]{2})(\\d{2})(\\d{2})$", "uf", "aa", "mm");
+ * </pre>
+ */
+public class RegexPartitionRule implements PartitionRule {
+
+  private final Pattern pattern;
+
+  private final List<String> columns;
+
+  /**
+   * @param regex matched case-insensitively against the whole file name, without extension.
+   * @param columns partition column for each capturing group, in group order.
+   */
+  public RegexPartitionRule(String regex, String... columns) {
+    this.pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+    this.columns = List.copyOf(Arrays.asList(columns));
+
+    if (pattern.matcher("").groupCount() != this.columns.size()) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Pattern %s has %s group(s), but %s column(s) were given",
+              regex, pattern.matcher("").groupCount(), this.columns.size()));
+    }
+  }
+
+  @Override
+  public Optional<Map<String, String>> partition(String fileName) {
+    Matcher matcher = pattern.matcher(PartitionRule.baseName(fileName));
+    if (!matcher.matches()) {
+      return Optional.empty();
+    }
+
+    Map<String, String> partition = new LinkedHashMap<>();
+    for (int group = 1; group <= columns.size(); ++group) {
+      partition.put(columns.get(group - 1), matcher.group(group));
+    }
+    return Optional.of(partition);
+  }
+}
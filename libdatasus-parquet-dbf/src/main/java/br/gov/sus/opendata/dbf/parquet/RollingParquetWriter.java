@@ -0,0 +1,165 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.InternalDbfReader.DbfSchema;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link RollingParquetWriter} writes record batches to a sequence of parquet files, closing the
+ * current file and opening the next one once it reaches the row count or size limit. <br>
+ * Without limits every row goes to a single file. Closing a file flushes its last row group, so
+ * files always roll at row group boundaries. The row count limit is exact, batches are split at it,
+ * while the size is checked after each batch.
+ */
+class RollingParquetWriter implements Closeable {
+
+  private static final Logger logger = LogManager.getLogger(RollingParquetWriter.class);
+
+  private static final String PART_FILE_FORMAT = "part-%05d.parquet";
+
+  @FunctionalInterface
+  interface WriterFactory {
+    DbfBatchWriter create(Path file, DbfSchema dbfSchema) throws IOException;
+  }
+
+  private final Supplier<Path> nextFile;
+
+  private final WriterFactory writerFactory;
+
+  private final DbfSchema dbfSchema;
+
+  private final long maxRowsPerFile;
+
+  private final long targetFileSize;
+
+  private final List<Path> files = new ArrayList<>();
+
+  private final Map<String, ColumnProfile> columnProfiles = new LinkedHashMap<>();
+
+  private DbfBatchWriter writer;
+
+  private long fileRowCount = 0;
+
+  private long rowCount = 0;
+
+  /* Data size of the closed files. */
+  private long closedDataSize = 0;
+
+  /**
+   * Opens the first file right away, so a conversion without rows still results in a file.
+   *
+   * @param nextFile path of each new file.
+   * @param maxRowsPerFile max rows in a file.
+   * @param targetFileSize size in bytes which, once reached, closes the current file.
+   */
+  RollingParquetWriter(
+      Supplier<Path> nextFile,
+      WriterFactory writerFactory,
+      DbfSchema dbfSchema,
+      long maxRowsPerFile,
+      long targetFileSize)
+      throws IOException {
+    this.nextFile = nextFile;
+    this.writerFactory = writerFactory;
+    this.dbfSchema = dbfSchema;
+    this.maxRowsPerFile = maxRowsPerFile;
+    this.targetFileSize = targetFileSize;
+    open();
+  }
+
+  /**
+   * Single file writer, without limits.
+   */
+  RollingParquetWriter(Path file, WriterFactory writerFactory, DbfSchema dbfSchema)
+      throws IOException {
+    this(() -> file, writerFactory, dbfSchema, Long.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  static String partFileName(int part) {
+    return String.format(PART_FILE_FORMAT, part);
+  }
+
+  void write(DbfRecordBatch records) throws IOException {
+    int from = 0;
+    while (from < records.size) {
+      if (writer == null) {
+        open();
+      }
+
+      int count = (int) Math.min(records.size - from, maxRowsPerFile - fileRowCount);
+      writer.write(records, from, count);
+      from += count;
+      fileRowCount += count;
+      rowCount += count;
+
+      if (fileRowCount >= maxRowsPerFile || writer.getDataSize() >= targetFileSize) {
+        closeFile();
+      }
+    }
+  }
+
+  /**
+   * @return every file opened by this writer, in creation order.
+   */
+  List<Path> getFiles() {
+    return Collections.unmodifiableList(files);
+  }
+
+  long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return column profiles merged across the closed files, empty when columns are not profiled.
+   */
+  Map<String, ColumnProfile> getColumnProfiles() {
+    return Collections.unmodifiableMap(columnProfiles);
+  }
+
+  /**
+   * @return the data size of the closed files and of the current file, buffered row groups
+   *     included.
+   */
+  long getDataSize() {
+    return closedDataSize + (writer == null ? 0 : writer.getDataSize());
+  }
+
+  DbfSchema getDbfSchema() {
+    return dbfSchema;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (writer != null) {
+      closeFile();
+    }
+  }
+
+  private void open() throws IOException {
+    Path file = nextFile.get();
+    logger.info(String.format("Opening output file %s", file.toUri()));
+    writer = writerFactory.create(file, dbfSchema);
+    files.add(file);
+    fileRowCount = 0;
+  }
+
+  private void closeFile() throws IOException {
+    DbfBatchWriter current = writer;
+    writer = null;
+    closedDataSize += current.getDataSize();
+    current.close();
+    ColumnProfile.mergeInto(columnProfiles, current.getColumnProfiles());
+    logger.info(
+        String.format(
+            "Output file %s closed - %s row(s)", files.get(files.size() - 1).toUri(), fileRowCount));
+  }
+}
@@ -0,0 +1,51 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import br.gov.sus.opendata.dbf.parquet.LocalOutputFile.CountingOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+/**
+ * {@link StreamOutputFile} writes a single parquet file to an {@link OutputStream}, e.g. a socket
+ * or an in-memory buffer. Parquet files are written sequentially, the footer last, so the stream
+ * needs no seeking. <br>
+ * The stream is owned by the caller: closing the writer flushes it, but does not close it.
+ */
+public class StreamOutputFile implements OutputFile {
+
+  private final OutputStream out;
+
+  private boolean created = false;
+
+  public StreamOutputFile(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * @throws IllegalStateException when a file was already written to the stream.
+   */
+  @Override
+  public synchronized PositionOutputStream create(long blockSizeHint) {
+    if (created) {
+      throw new IllegalStateException("A parquet file was already written to the stream");
+    }
+    created = true;
+    return new CountingOutputStream(out, false);
+  }
+
+  @Override
+  public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+    return create(blockSizeHint);
+  }
+
+  @Override
+  public boolean supportsBlockSize() {
+    return false;
+  }
+
+  @Override
+  public long defaultBlockSize() {
+    return -1;
+  }
+}
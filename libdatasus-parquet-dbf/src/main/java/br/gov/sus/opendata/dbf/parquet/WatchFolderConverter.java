@@ -0,0 +1,495 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link WatchFolderConverter} converts the DBC/DBF files dropped into a landing directory as soon
+ * as they are complete. <br>
+ * New and modified files are detected with a {@link WatchService}, files already in the directory
+ * when started included. A file is complete once its size and modification time did not change
+ * for the settle time, then it is queued and converted by {@link DbfParquet#convert(ConvertTask)},
+ * with the settings of the task template, at most {@code concurrency} files at once. Each file is
+ * moved to the ".converting" directory of the landing directory, not watched, while it is
+ * converted. Converted files are moved to the processed directory, or renamed with the ".done"
+ * suffix, failed ones to the failed directory, or renamed with the ".failed" suffix. <br>
+ * {@link #close()} stops watching, then waits for the queued and running conversions. Files not
+ * complete yet, or left in the ".converting" directory by a crash, are picked up by the next start.
+ *
+ * <pre>
+ *     try (WatchFolderConverter converter = WatchFolderConverter.builder()
+ *             .landingDirectory(Path.of("landing"))
+ *             .outputDirectory(Path.of("parquet"))
+ *             .processedDirectory(Path.of("archive"))
+ *             .concurrency(4)
+ *             .build()) {
+ *         converter.start();
+ *         ...
+ *     }
+ * </pre>
+ */
+public class WatchFolderConverter implements Closeable {
+
+  static final String DONE_SUFFIX = ".done";
+
+  static final String FAILED_SUFFIX = ".failed";
+
+  static final String CONVERTING_DIRECTORY = ".converting";
+
+  private static final Logger logger = LogManager.getLogger(WatchFolderConverter.class);
+
+  private final DbfParquet dbfParquet;
+
+  private final Path landingDirectory;
+
+  /* Not watched: holds the files being converted. */
+  private final Path convertingDirectory;
+
+  private final Path outputDirectory;
+
+  /* Null when converted files are renamed in the landing directory. */
+  private final Path processedDirectory;
+
+  private final Path failedDirectory;
+
+  private final ConvertTask template;
+
+  private final long settleNanos;
+
+  private final Consumer<ConversionResult> onConverted;
+
+  private final BiConsumer<Path, Exception> onFailure;
+
+  private final ThreadPoolExecutor converters;
+
+  /* Files queued or being converted, not moved yet. */
+  private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+
+  /* Files not complete yet, only used by the watching thread. */
+  private final Map<Path, Candidate> candidates = new HashMap<>();
+
+  /* Files landed again while converted under the same name, offered by the watching thread. */
+  private final Queue<Path> relanded = new ConcurrentLinkedQueue<>();
+
+  private WatchService watchService;
+
+  private Thread watcher;
+
+  private volatile boolean running = false;
+
+  WatchFolderConverter(Builder builder) {
+    this.dbfParquet = builder.dbfParquet != null ? builder.dbfParquet : DbfParquet.builder().build();
+    this.landingDirectory = builder.landingDirectory;
+    this.convertingDirectory = landingDirectory.resolve(CONVERTING_DIRECTORY);
+    this.outputDirectory = builder.outputDirectory;
+    this.processedDirectory = builder.processedDirectory;
+    this.failedDirectory = builder.failedDirectory;
+    this.template = builder.template != null ? builder.template : ConvertTask.builder().build();
+    this.settleNanos = builder.settleTime.toNanos();
+    this.onConverted = builder.onConverted != null ? builder.onConverted : result -> {};
+    this.onFailure = builder.onFailure != null ? builder.onFailure : (file, e) -> {};
+
+    AtomicInteger threadCount = new AtomicInteger();
+    this.converters = new ThreadPoolExecutor(builder.concurrency, builder.concurrency, 0,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+        runnable -> {
+          Thread thread = new Thread(runnable, "dbf-parquet-watch-convert-" + threadCount.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Starts watching the landing directory, on a daemon thread.
+   */
+  public synchronized void start() throws IOException {
+    if (watcher != null) {
+      throw new IllegalStateException("Already started");
+    }
+    Files.createDirectories(outputDirectory);
+    if (processedDirectory != null) {
+      Files.createDirectories(processedDirectory);
+    }
+    if (failedDirectory != null) {
+      Files.createDirectories(failedDirectory);
+    }
+    recoverConverting();
+
+    watchService = landingDirectory.getFileSystem().newWatchService();
+    landingDirectory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+    running = true;
+    watcher = new Thread(this::watch, "dbf-parquet-watch");
+    watcher.setDaemon(true);
+    watcher.start();
+    logger.info(String.format("Watching %s", landingDirectory.toUri()));
+  }
+
+  /**
+   * @return number of files queued or being converted.
+   */
+  public int getPendingCount() {
+    return queued.size();
+  }
+
+  /**
+   * Stops watching, then waits for the queued and running conversions.
+   */
+  @Override
+  public void close() throws IOException {
+    Thread watching;
+    synchronized (this) {
+      running = false;
+      watching = watcher;
+      if (watchService != null) {
+        watchService.close();
+      }
+    }
+    try {
+      if (watching != null) {
+        watching.join();
+      }
+      converters.shutdown();
+      while (!converters.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.info(String.format("Waiting for %s conversion(s) to finish", queued.size()));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      converters.shutdownNow();
+      throw new InterruptedIOException("Interrupted waiting for the conversions");
+    }
+    logger.info(String.format("Stopped watching %s", landingDirectory.toUri()));
+  }
+
+  /**
+   * Watches until closed. A failure is logged, then the directory is scanned again on the next poll.
+   */
+  private void watch() {
+    long pollNanos = Math.max(settleNanos / 2, TimeUnit.MILLISECONDS.toNanos(10));
+    boolean rescan = true;
+    while (running) {
+      try {
+        WatchKey key = watchService.poll(pollNanos, TimeUnit.NANOSECONDS);
+        if (key != null) {
+          try {
+            for (WatchEvent<?> event : key.pollEvents()) {
+              if (event.kind() == OVERFLOW) {
+                rescan = true;
+              } else {
+                offer(landingDirectory.resolve((Path) event.context()));
+              }
+            }
+          } finally {
+            key.reset();
+          }
+        }
+        if (rescan) {
+          rescan = false;
+          scan();
+        }
+        Path file;
+        while ((file = relanded.poll()) != null) {
+          offer(file);
+        }
+        submitCompleted();
+      } catch (ClosedWatchServiceException | InterruptedException e) {
+        // Closed.
+        return;
+      } catch (IOException | RuntimeException e) {
+        logger.error(String.format("Watching %s failed, scanning again", landingDirectory.toUri()), e);
+        rescan = true;
+      }
+    }
+  }
+
+  private void scan() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(landingDirectory)) {
+      files.forEach(this::offer);
+    }
+  }
+
+  private void offer(Path file) {
+    String name = file.getFileName().toString().toLowerCase();
+    if ((name.endsWith(".dbc") || name.endsWith(".dbf")) && !queued.contains(file)) {
+      candidates.putIfAbsent(file, new Candidate());
+    }
+  }
+
+  /**
+   * Queues the files whose size and modification time did not change for the settle time.
+   */
+  private void submitCompleted() {
+    long now = System.nanoTime();
+    Iterator<Map.Entry<Path, Candidate>> iterator = candidates.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Path, Candidate> entry = iterator.next();
+      Path file = entry.getKey();
+      Candidate candidate = entry.getValue();
+      long size;
+      long modified;
+      try {
+        if (!Files.isRegularFile(file)) {
+          iterator.remove();
+          continue;
+        }
+        size = Files.size(file);
+        modified = Files.getLastModifiedTime(file).toMillis();
+      } catch (IOException e) {
+        // Moved or deleted meanwhile.
+        iterator.remove();
+        continue;
+      }
+
+      if (size != candidate.size || modified != candidate.modified) {
+        candidate.size = size;
+        candidate.modified = modified;
+        candidate.changedNanos = now;
+      } else if (now - candidate.changedNanos >= settleNanos) {
+        iterator.remove();
+        queued.add(file);
+        try {
+          converters.execute(() -> convert(file));
+        } catch (RejectedExecutionException e) {
+          queued.remove(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves the files left in the converting directory by a crash back to the landing directory,
+   * renamed when a file landed meanwhile under the same name.
+   */
+  private void recoverConverting() throws IOException {
+    Files.createDirectories(convertingDirectory);
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(convertingDirectory)) {
+      stream.forEach(files::add);
+    }
+    // DBF files decompressed next to their DBC file by earlier versions, while it is still there.
+    for (Path file : files) {
+      if (DbfParquet.isDecompressed(file)) {
+        Files.delete(file);
+      }
+    }
+    for (Path file : files) {
+      if (Files.exists(file)) {
+        Path recovered = recover(file);
+        logger.info(String.format("Interrupted conversion of %s queued again as %s", file.getFileName(),
+            recovered.getFileName()));
+      }
+    }
+  }
+
+  /**
+   * Moves the file to the landing directory, e.g. "file.dbf" or, when taken, "file.recovered-1.dbf".
+   */
+  private Path recover(Path file) throws IOException {
+    String name = file.getFileName().toString();
+    int extension = name.lastIndexOf('.') > 0 ? name.lastIndexOf('.') : name.length();
+    for (int attempt = 0; ; ++attempt) {
+      Path target = landingDirectory.resolve(attempt == 0
+          ? name
+          : name.substring(0, extension) + ".recovered-" + attempt + name.substring(extension));
+      try {
+        return Files.move(file, target);
+      } catch (FileAlreadyExistsException e) {
+        // Landed while stopped, kept.
+      }
+    }
+  }
+
+  private void convert(Path file) {
+    Path converting = convertingDirectory.resolve(file.getFileName());
+    try {
+      Files.move(file, converting, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      logger.warn(String.format("Landed file %s moved away before its conversion", file.toUri()), e);
+      queued.remove(file);
+      return;
+    }
+
+    try {
+      logger.info(String.format("Converting landed file %s", file.toUri()));
+      ConversionResult result =
+          dbfParquet.convert(template.toBuilder().input(converting).output(outputDirectory).build());
+      move(converting, processedDirectory, DONE_SUFFIX);
+      onConverted.accept(result);
+    } catch (IOException | RuntimeException e) {
+      logger.error(String.format("Conversion of landed file %s failed", file.toUri()), e);
+      try {
+        move(converting, failedDirectory, FAILED_SUFFIX);
+      } catch (IOException moveFailure) {
+        e.addSuppressed(moveFailure);
+      }
+      onFailure.accept(file, e);
+    } finally {
+      queued.remove(file);
+      // Landed again meanwhile, not offered while this one was queued.
+      if (Files.exists(file)) {
+        relanded.add(file);
+      }
+    }
+  }
+
+  private void move(Path converting, Path directory, String suffix) throws IOException {
+    Path target = directory != null
+        ? directory.resolve(converting.getFileName())
+        : landingDirectory.resolve(converting.getFileName() + suffix);
+    Files.move(converting, target, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * Size and modification time of a file, when they last changed.
+   */
+  private static final class Candidate {
+    long size = -1;
+
+    long modified = -1;
+
+    long changedNanos;
+  }
+
+  public static class Builder {
+
+    private DbfParquet dbfParquet;
+
+    private Path landingDirectory;
+
+    private Path outputDirectory;
+
+    private Path processedDirectory;
+
+    private Path failedDirectory;
+
+    private ConvertTask template;
+
+    private Duration settleTime = Duration.ofSeconds(2);
+
+    private int concurrency = 1;
+
+    private Consumer<ConversionResult> onConverted;
+
+    private BiConsumer<Path, Exception> onFailure;
+
+    /**
+     * Engine of the conversions, shared with other callers. Its tasks are not run.
+     */
+    public Builder dbfParquet(DbfParquet dbfParquet) {
+      this.dbfParquet = dbfParquet;
+      return this;
+    }
+
+    public Builder landingDirectory(Path landingDirectory) {
+      this.landingDirectory = landingDirectory;
+      return this;
+    }
+
+    public Builder outputDirectory(Path outputDirectory) {
+      this.outputDirectory = outputDirectory;
+      return this;
+    }
+
+    /**
+     * Directory of the converted files. By default, they are renamed with the ".done" suffix.
+     */
+    public Builder processedDirectory(Path processedDirectory) {
+      this.processedDirectory = processedDirectory;
+      return this;
+    }
+
+    /**
+     * Directory of the files whose conversion failed. By default, they are renamed with the ".failed" suffix.
+     */
+    public Builder failedDirectory(Path failedDirectory) {
+      this.failedDirectory = failedDirectory;
+      return this;
+    }
+
+    /**
+     * Settings of each conversion, its input and output are replaced by the landed file and the output directory.
+     */
+    public Builder template(ConvertTask template) {
+      this.template = template;
+      return this;
+    }
+
+    /**
+     * Time without size or modification time change after which a file is complete. Defaults to 2 seconds.
+     */
+    public Builder settleTime(Duration settleTime) {
+      if (settleTime.isNegative()) {
+        throw new IllegalArgumentException("`settleTime` must not be negative");
+      }
+      this.settleTime = settleTime;
+      return this;
+    }
+
+    /**
+     * Max files converted at once. Defaults to 1.
+     */
+    public Builder concurrency(int concurrency) {
+      if (concurrency <= 0) {
+        throw new IllegalArgumentException("`concurrency` must be positive");
+      }
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    public Builder onConverted(Consumer<ConversionResult> onConverted) {
+      this.onConverted = onConverted;
+      return this;
+    }
+
+    public Builder onFailure(BiConsumer<Path, Exception> onFailure) {
+      this.onFailure = onFailure;
+      return this;
+    }
+
+    public WatchFolderConverter build() {
+      if (landingDirectory == null || outputDirectory == null) {
+        throw new IllegalArgumentException("`landingDirectory` and `outputDirectory` are required");
+      }
+      if (template != null && (template.combine() || template.getPartitionRule() != null)) {
+        throw new IllegalArgumentException("Landed files are converted one at a time, without combining or partitioning");
+      }
+      return new WatchFolderConverter(this);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class DatasusPartitionRuleTest {
+
+  private final PartitionRule rule = new DatasusPartitionRule();
+
+  @ParameterizedTest
+  @CsvSource({
+    "CIHAMG2004.dbc, uf=MG/ano=2020/mes=04",
+    "CIHAMG2004.dbc.dbf, uf=MG/ano=2020/mes=04",
+    "ATDPB1707.dbc, uf=PB/ano=2017/mes=07",
+    "paam9412.dbc, uf=AM/ano=1994/mes=12",
+    "PASP2004a.dbc, uf=SP/ano=2020/mes=04",
+    "RDAP1405.dbf, uf=AP/ano=2014/mes=05",
+    "DNAC2010.dbc, uf=AC/ano=2010",
+    "DORR2009.dbc, uf=RR/ano=2009",
+    "DNRAM94.DBC, uf=AM/ano=1994",
+    "PCEAL11.dbc, uf=AL/ano=2011",
+    "RESPBR19.dbc, uf=BR/ano=2019",
+    "CPNIGO16.dbf, uf=GO/ano=2016"
+  })
+  void partitionTest(String fileName, String expectedPath) {
+    Optional<Map<String, String>> partition = rule.partition(fileName);
+    assertEquals(expectedPath, PartitionedParquetWriter.partitionPath(partition.orElseThrow()));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"projuf23.dbf", "DOMAT02.DBC", "CIHAMG2013.dbc", "README.md"})
+  void noPartitionTest(String fileName) {
+    assertFalse(rule.partition(fileName).isPresent());
+  }
+
+  @Test
+  void regexFallbackTest() {
+    PartitionRule projections =
+        rule.or(new RegexPartitionRule("^projuf(\\d{2})$", "ano"));
+
+    assertEquals(
+        "ano=23",
+        PartitionedParquetWriter.partitionPath(projections.partition("projuf23.dbf").orElseThrow()));
+    assertEquals(
+        "uf=MG/ano=2020/mes=04",
+        PartitionedParquetWriter.partitionPath(projections.partition("CIHAMG2004.dbc").orElseThrow()));
+  }
+
+  @Test
+  void regexGroupCountTest() {
+    assertThrows(IllegalArgumentException.class, () -> new RegexPartitionRule("^(\\d{2})$", "a", "b"));
+  }
+}
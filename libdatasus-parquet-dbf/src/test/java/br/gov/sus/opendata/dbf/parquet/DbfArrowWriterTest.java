@@ -0,0 +1,114 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.junit.jupiter.api.Test;
+
+class DbfArrowWriterTest {
+
+  @Test
+  void convertToArrowFileTest() throws IOException {
+    List<Object[]> records = TestTypeValueFixture.randomRecords(20000, 37);
+    Path inputFile = Path.of(TestTypeValueFixture.createDbf(records));
+    Path outputFile = Path.of(inputFile + ".arrow");
+
+    ConversionResult result = convert(inputFile, outputFile, ArrowFormat.FILE);
+
+    assertEquals(List.of(outputFile), result.getFiles());
+    assertEquals(records.size(), result.getRowCount());
+    try (RootAllocator allocator = new RootAllocator();
+        FileChannel channel = FileChannel.open(outputFile);
+        ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+      assertEquals(2, reader.getRecordBlocks().size());
+      assertValues(records, readValues(reader));
+    }
+  }
+
+  @Test
+  void convertToArrowStreamTest() throws IOException {
+    List<Object[]> records = TestTypeValueFixture.randomRecords(3000, 41);
+    Path inputFile = Path.of(TestTypeValueFixture.createDbf(records));
+    Path outputFile = Path.of(inputFile + ".arrows");
+
+    convert(inputFile, outputFile, ArrowFormat.STREAM);
+
+    try (RootAllocator allocator = new RootAllocator();
+        InputStream inputStream = Files.newInputStream(outputFile);
+        ArrowStreamReader reader = new ArrowStreamReader(inputStream, allocator)) {
+      assertValues(records, readValues(reader));
+    }
+  }
+
+  @Test
+  void arrowParquetOnlyOptionsTest() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConvertTask.builder().arrowFormat(ArrowFormat.FILE).maxRowsPerFile(10).build());
+  }
+
+  private static void assertValues(List<Object[]> expected, List<Object[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertArrayEquals(expected.get(i), actual.get(i));
+    }
+  }
+
+  private static ConversionResult convert(Path inputFile, Path outputFile, ArrowFormat format)
+      throws IOException {
+    ConvertTask convertTask =
+        ConvertTask.builder()
+            .input(inputFile)
+            .output(outputFile)
+            .arrowFormat(format)
+            .blankAsNull()
+            .build();
+    return DbfParquet.builder().addConvertItem(convertTask).build().convert().get(0);
+  }
+
+  /* Values as the fixture records: DATE as java.util.Date, nulls included. */
+  private static List<Object[]> readValues(ArrowReader reader) throws IOException {
+    List<Object[]> values = new ArrayList<>();
+    VectorSchemaRoot root = reader.getVectorSchemaRoot();
+    while (reader.loadNextBatch()) {
+      VarCharVector characters = (VarCharVector) root.getVector(0);
+      DecimalVector numerics = (DecimalVector) root.getVector(1);
+      DateDayVector dates = (DateDayVector) root.getVector(2);
+      Float4Vector floats = (Float4Vector) root.getVector(3);
+      BitVector logicals = (BitVector) root.getVector(4);
+      for (int i = 0; i < root.getRowCount(); ++i) {
+        values.add(
+            new Object[] {
+              characters.isNull(i) ? null : new String(characters.get(i)),
+              numerics.isNull(i) ? null : numerics.getObject(i),
+              Date.from(
+                  LocalDate.ofEpochDay(dates.get(i)).atStartOfDay(ZoneId.systemDefault()).toInstant()),
+              floats.get(i),
+              logicals.isNull(i) ? null : logicals.getObject(i)
+            });
+      }
+    }
+    return values;
+  }
+}
@@ -1,14 +1,25 @@
 package br.gov.sus.opendata.dbf.parquet;
 
+import br.gov.sus.opendata.dbc.DbcNativeDecompressor;
 import com.exasol.parquetio.data.Row;
 import com.exasol.parquetio.reader.RowParquetReader;
+import com.linuxense.javadbf.DBFDataType;
 import com.linuxense.javadbf.DBFException;
+import com.linuxense.javadbf.DBFField;
 import com.linuxense.javadbf.DBFReader;
 import com.linuxense.javadbf.DBFRow;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.column.values.bloomfilter.BloomFilter;
+import org.apache.parquet.hadoop.ParquetFileReader;
 import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.hadoop.util.HadoopInputFile;
 import org.apache.parquet.io.InputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Disabled;
@@ -20,18 +31,43 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DbfParquetTest {
@@ -57,8 +93,9 @@ class DbfParquetTest {
         DbfParquet dbfParquet = DbfParquet.builder().build();
         dbfParquet.convert(inputFile);
 
+        // Decompressed to a temporary file of the conversion, nothing is left next to the input.
+        assertFalse(Files.exists(Path.of(inputFile + ".dbf")));
         Path dbfFile = dbfFilePath(inputFile);
-        assertTrue(Files.exists(dbfFile));
 
         Path parquetFile = Path.of(inputFile.toString() + ".parquet");
         assertTrue(Files.exists(parquetFile));
@@ -76,8 +113,9 @@ class DbfParquetTest {
         DbfParquet dbfParquet = DbfParquet.builder().build();
         dbfParquet.convert(inputFile, output);
 
+        // Decompressed to a temporary file of the conversion, nothing is left next to the input.
+        assertFalse(Files.exists(Path.of(inputFile + ".dbf")));
         Path dbfFile = dbfFilePath(inputFile);
-        assertTrue(Files.exists(dbfFile));
 
         Path parquetFile = output.resolve(inputFile.getFileName() + ".parquet");
         assertTrue(Files.exists(parquetFile));
@@ -103,13 +141,13 @@ class DbfParquetTest {
         assert (Files.exists(directoryTestDir.resolve("HBRS2104.dbc")));
         assert (Files.exists(directoryTestDir.resolve("SRMS1205.dbc")));
 
-        Path dbfA = directoryTestDir.resolve("CIHAAM1104.dbc.dbf");
-        Path dbfB = directoryTestDir.resolve("HBRS2104.dbc.dbf");
-        Path dbfC = directoryTestDir.resolve("SRMS1205.dbc.dbf");
+        assertFalse(Files.exists(directoryTestDir.resolve("CIHAAM1104.dbc.dbf")));
+        assertFalse(Files.exists(directoryTestDir.resolve("HBRS2104.dbc.dbf")));
+        assertFalse(Files.exists(directoryTestDir.resolve("SRMS1205.dbc.dbf")));
 
-        assert (Files.exists(dbfA));
-        assert (Files.exists(dbfB));
-        assert (Files.exists(dbfC));
+        Path dbfA = dbfFilePath(directoryTestDir.resolve("CIHAAM1104.dbc"));
+        Path dbfB = dbfFilePath(directoryTestDir.resolve("HBRS2104.dbc"));
+        Path dbfC = dbfFilePath(directoryTestDir.resolve("SRMS1205.dbc"));
 
         Path parquetA = directoryTestDir.resolve("CIHAAM1104.dbc.parquet");
         Path parquetB = directoryTestDir.resolve("HBRS2104.dbc.parquet");
@@ -156,6 +194,748 @@ class DbfParquetTest {
         }
     }
 
+    @Test
+    void convertWithBloomFilterTest() throws IOException {
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf());
+        Path parquetFile = testDir.resolve("bloomFilter.parquet");
+        String column = TestTypeValueFixture.CHARACTER_FIELD.getField().getName();
+
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .addConvertItem(
+                        ConvertTask.builder()
+                                .input(inputFile)
+                                .output(parquetFile)
+                                .bloomFilter(column, 1000)
+                                .columnIndexTruncateLength(16)
+                                .pageRowCountLimit(1000)
+                                .build())
+                .build();
+        dbfParquet.convert();
+
+        Configuration config = new Configuration();
+        org.apache.hadoop.fs.Path hadoopPath = new org.apache.hadoop.fs.Path(parquetFile.toString());
+
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(hadoopPath, config))) {
+            BlockMetaData block = reader.getFooter().getBlocks().get(0);
+            ColumnChunkMetaData columnChunk = block.getColumns().get(TestTypeValueFixture.CHARACTER_FIELD.getIndex());
+
+            BloomFilter bloomFilter = reader.getBloomFilterDataReader(block).readBloomFilter(columnChunk);
+            assertNotNull(bloomFilter);
+            assertTrue(bloomFilter.findHash(
+                    bloomFilter.hash(Binary.fromString(TestTypeValueFixture.CHARACTER_FIELD.getValue()))));
+            assertNotNull(reader.readColumnIndex(columnChunk));
+            assertNotNull(reader.readOffsetIndex(columnChunk));
+        }
+    }
+
+    @Test
+    void convertSortedTest() throws IOException {
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(2000, 21, false)));
+        Path parquetFile = testDir.resolve("sorted.parquet");
+        int numericIndex = TestTypeValueFixture.NUMERIC_FIELD.getIndex();
+
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .addConvertItem(
+                        ConvertTask.builder()
+                                .input(inputFile)
+                                .output(parquetFile)
+                                .sortBy(TestTypeValueFixture.NUMERIC_FIELD.getField().getName())
+                                .sortMemoryBudget(8 * 1024)
+                                .build())
+                .build();
+        dbfParquet.convert();
+
+        Configuration config = new Configuration();
+        org.apache.hadoop.fs.Path hadoopPath = new org.apache.hadoop.fs.Path(parquetFile.toString());
+
+        int rowCount = 0;
+        BigDecimal previous = null;
+        try (ParquetReader<Row> parquetReader =
+                     RowParquetReader.builder(HadoopInputFile.fromPath(hadoopPath, config)).build()) {
+            Row row;
+            while ((row = parquetReader.read()) != null) {
+                BigDecimal value = (BigDecimal) row.getValues().get(numericIndex);
+                if (previous != null) {
+                    assertTrue(previous.compareTo(value) <= 0);
+                }
+                previous = value;
+                ++rowCount;
+            }
+        }
+        assertEquals(2000, rowCount);
+    }
+
+    @Test
+    void convertPartitionedTest() throws IOException {
+        Path inputDir = Files.createDirectory(testDir.resolve("partitionedInput"));
+        Path outputDir = testDir.resolve("partitioned");
+        String[] fileNames = {"CIHAMG2004.dbf", "CIHASP2004.dbf", "DNAC2010.dbf", "RDMG2004.dbf"};
+        for (int i = 0; i < fileNames.length; ++i) {
+            Files.copy(Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(10 + i, i, false))),
+                    inputDir.resolve(fileNames[i]));
+        }
+
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .addConvertItem(
+                        ConvertTask.builder()
+                                .input(inputDir)
+                                .output(outputDir)
+                                .partitionByFileName()
+                                .maxOpenWriters(1)
+                                .build())
+                .build();
+        dbfParquet.convert();
+
+        // RDMG2004 reopens the MG partition, already closed in favor of SP and AC.
+        assertEquals(10, parquetRecordCount(outputDir.resolve("uf=MG/ano=2020/mes=04/part-00000.parquet")));
+        assertEquals(13, parquetRecordCount(outputDir.resolve("uf=MG/ano=2020/mes=04/part-00001.parquet")));
+        assertEquals(11, parquetRecordCount(outputDir.resolve("uf=SP/ano=2020/mes=04/part-00000.parquet")));
+        assertEquals(12, parquetRecordCount(outputDir.resolve("uf=AC/ano=2010/part-00000.parquet")));
+    }
+
+    @Test
+    void convertPartitionedUnmatchedTest() throws IOException {
+        Path inputDir = Files.createDirectory(testDir.resolve("partitionedUnmatched"));
+        Files.copy(Path.of(TestTypeValueFixture.createDbf()), inputDir.resolve("unknown.dbf"));
+
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .addConvertItem(
+                        ConvertTask.builder()
+                                .input(inputDir)
+                                .output(testDir.resolve("partitionedUnmatchedOutput"))
+                                .partitionByFileName()
+                                .build())
+                .build();
+
+        assertThrows(IllegalArgumentException.class, dbfParquet::convert);
+    }
+
+    @Test
+    void convertRollingByRowCountTest() throws IOException {
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(2500, 3, false)));
+        Path outputDir = testDir.resolve("rollingByRowCount");
+        ConvertTask convertTask = ConvertTask.builder()
+                .input(inputFile)
+                .output(outputDir)
+                .maxRowsPerFile(1000)
+                .build();
+
+        List<ConversionResult> results = DbfParquet.builder().addConvertItem(convertTask).build().convert();
+
+        assertEquals(1, results.size());
+        assertEquals(2500, results.get(0).getRowCount());
+        assertEquals(
+                List.of(outputDir.resolve("part-00000.parquet"),
+                        outputDir.resolve("part-00001.parquet"),
+                        outputDir.resolve("part-00002.parquet")),
+                results.get(0).getFiles());
+        assertEquals(1000, parquetRecordCount(outputDir.resolve("part-00000.parquet")));
+        assertEquals(1000, parquetRecordCount(outputDir.resolve("part-00001.parquet")));
+        assertEquals(500, parquetRecordCount(outputDir.resolve("part-00002.parquet")));
+    }
+
+    @Test
+    void convertRollingByFileSizeTest() throws IOException {
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(2500, 4, false)));
+        ConvertTask convertTask = ConvertTask.builder()
+                .input(inputFile)
+                .output(testDir.resolve("rollingByFileSize"))
+                .targetFileSize(1024)
+                .build();
+
+        ConversionResult result = DbfParquet.builder().addConvertItem(convertTask).build().convert().get(0);
+
+        assertTrue(result.getFiles().size() > 1);
+        long rowCount = 0;
+        for (Path file : result.getFiles()) {
+            rowCount += parquetRecordCount(file);
+        }
+        assertEquals(2500, rowCount);
+        assertEquals(2500, result.getRowCount());
+    }
+
+    @Test
+    void convertProfilingTest() throws IOException {
+        List<Object[]> records = TestTypeValueFixture.randomRecords(2500, 5);
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf(records));
+        Path outputDir = testDir.resolve("profiling");
+        ConvertTask convertTask = ConvertTask.builder()
+                .input(inputFile)
+                .output(outputDir)
+                .maxRowsPerFile(1000)
+                .blankAsNull(DBFDataType.CHARACTER, DBFDataType.NUMERIC, DBFDataType.LOGICAL)
+                .profileColumns(true)
+                .build();
+
+        ConversionResult result = DbfParquet.builder().addConvertItem(convertTask).build().convert().get(0);
+        Map<String, ColumnProfile> profiles = result.getColumnProfiles();
+
+        long characterNulls = records.stream().filter(record -> record[0] == null).count();
+        ColumnProfile character = profiles.get(TestTypeValueFixture.CHARACTER_FIELD.getField().getName());
+        assertEquals(characterNulls, character.getNullCount());
+        assertEquals(characterNulls, character.getBlankCount());
+        assertEquals(2500 - characterNulls, character.getValueCount());
+        assertEquals(30, character.getDistinctCount(), 3);
+
+        List<BigDecimal> numbers = records.stream()
+                .map(record -> (BigDecimal) record[1])
+                .filter(number -> number != null)
+                .sorted()
+                .collect(Collectors.toList());
+        ColumnProfile numeric = profiles.get(TestTypeValueFixture.NUMERIC_FIELD.getField().getName());
+        assertEquals(numbers.size(), numeric.getValueCount());
+        assertEquals(0, numbers.get(0).compareTo((BigDecimal) numeric.getMin()));
+        assertEquals(0, numbers.get(numbers.size() - 1).compareTo((BigDecimal) numeric.getMax()));
+        long distinctNumbers = numbers.stream().distinct().count();
+        assertEquals(distinctNumbers, numeric.getDistinctCount(), distinctNumbers * 0.1);
+
+        List<LocalDate> dates = records.stream()
+                .map(record -> ((Date) record[2]).toInstant().atZone(ZoneId.systemDefault()).toLocalDate())
+                .sorted()
+                .collect(Collectors.toList());
+        ColumnProfile date = profiles.get(TestTypeValueFixture.DATE_FIELD.getField().getName());
+        assertEquals(dates.get(0), date.getMin());
+        assertEquals(dates.get(dates.size() - 1), date.getMax());
+        assertEquals(0, date.getNullCount());
+
+        assertEquals(2, profiles.get(TestTypeValueFixture.LOGICAL_FIELD.getField().getName()).getDistinctCount());
+
+        Map<String, ColumnProfile> merged = new LinkedHashMap<>();
+        for (Path file : result.getFiles()) {
+            org.apache.hadoop.fs.Path hadoopPath = new org.apache.hadoop.fs.Path(file.toString());
+            try (ParquetFileReader reader =
+                         ParquetFileReader.open(HadoopInputFile.fromPath(hadoopPath, new Configuration()))) {
+                Map<String, ColumnProfile> fileProfiles =
+                        ColumnProfile.fromFooter(reader.getFileMetaData().getKeyValueMetaData());
+                assertEquals(TestTypeValueFixture.FIELDS.length, fileProfiles.size());
+                ColumnProfile.mergeInto(merged, fileProfiles);
+            }
+        }
+        for (ColumnProfile profile : profiles.values()) {
+            assertEquals(profile.toString(), merged.get(profile.getName()).toString());
+        }
+    }
+
+    @Test
+    void convertFanOutTest() throws IOException {
+        List<Object[]> records = TestTypeValueFixture.randomRecords(3000, 6, false);
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf(records));
+        Path outputDir = Files.createDirectories(testDir.resolve("fanOut"));
+        ConvertTask projectedTarget = ConvertTask.builder()
+                .output(outputDir.resolve("projected.parquet"))
+                .columns("DATE", "CHARACTER")
+                .filter("CHARACTER", value -> value.equals("UF1"))
+                .compressionCodec(CompressionCodecName.GZIP)
+                .build();
+        ConvertTask profileTarget = ConvertTask.builder()
+                .output(outputDir.resolve("profile.parquet"))
+                .columns("NUMERIC")
+                .profileColumns(true)
+                .build();
+        ConvertTask convertTask = ConvertTask.builder()
+                .input(inputFile)
+                .output(outputDir.resolve("full.parquet"))
+                .addTarget(projectedTarget)
+                .addTarget(profileTarget)
+                .build();
+
+        ConversionResult result = DbfParquet.builder().addConvertItem(convertTask).build().convert().get(0);
+
+        assertEquals(3000, result.getRowCount());
+        assertEquals(3000, parquetRecordCount(outputDir.resolve("full.parquet")));
+        assertEquals(2, result.getTargetResults().size());
+
+        long uf1 = records.stream().filter(record -> record[0].equals("UF1")).count();
+        ConversionResult projected = result.getTargetResults().get(0);
+        assertEquals(List.of(outputDir.resolve("projected.parquet")), projected.getFiles());
+        assertEquals(uf1, projected.getRowCount());
+        try (ParquetReader<Row> reader = RowParquetReader.builder(
+                HadoopInputFile.fromPath(new org.apache.hadoop.fs.Path(projected.getFiles().get(0).toString()),
+                        new Configuration())).build()) {
+            Row row;
+            long rowCount = 0;
+            while ((row = reader.read()) != null) {
+                assertEquals(List.of("DATE", "CHARACTER"), row.getFieldNames());
+                assertEquals("UF1", row.getValue(1));
+                ++rowCount;
+            }
+            assertEquals(uf1, rowCount);
+        }
+
+        ConversionResult profiled = result.getTargetResults().get(1);
+        assertEquals(3000, profiled.getRowCount());
+        assertEquals(Set.of("NUMERIC"), profiled.getColumnProfiles().keySet());
+        assertTrue(result.getColumnProfiles().isEmpty());
+
+        // Records are read, and sorted, once for every output: a target can not sort them on its own.
+        ConvertTask sortedTarget = ConvertTask.builder()
+                .output(outputDir.resolve("sorted.parquet"))
+                .sortBy("CHARACTER")
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> ConvertTask.builder().addTarget(sortedTarget));
+        ConvertTask arrowTarget = ConvertTask.builder()
+                .output(outputDir.resolve("target.arrow"))
+                .arrowFormat(ArrowFormat.FILE)
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> ConvertTask.builder().addTarget(arrowTarget));
+    }
+
+    @Test
+    void convertTaskEqualityTest() throws IOException {
+        Path inputFile = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100, 8, false)));
+        Path output = testDir.resolve("taskEquality.parquet");
+        ConvertTask task = ConvertTask.builder().input(inputFile).output(output).build();
+        ConvertTask sameTask = ConvertTask.builder().input(inputFile).output(output).build();
+        ConvertTask projectedTask = ConvertTask.builder().input(inputFile).output(output).columns("NUMERIC").build();
+
+        assertEquals(task, sameTask);
+        assertEquals(task.hashCode(), sameTask.hashCode());
+        assertFalse(task.equals(projectedTask));
+        assertFalse(task.equals(task.toBuilder().compressionCodec(CompressionCodecName.GZIP).build()));
+
+        // Equal tasks run once, tasks with other settings on the same paths are kept.
+        List<ConversionResult> results = DbfParquet.builder()
+                .addConvertItem(task)
+                .addConvertItem(sameTask)
+                .addConvertItem(projectedTask)
+                .build()
+                .convert();
+        assertEquals(2, results.size());
+    }
+
+    @Test
+    void convertCombiningWideningTest() throws IOException {
+        Path directory = Files.createDirectories(testDir.resolve("combiningWidening"));
+        Path first = Path.of(TestTypeValueFixture.createDbf(
+                new DBFField[] {
+                        new DBFField("NAME", DBFDataType.CHARACTER, 5),
+                        new DBFField("VALUE", DBFDataType.NUMERIC, 5, 0),
+                        new DBFField("CODE", DBFDataType.NUMERIC, 4, 0)},
+                List.<Object[]>of(new Object[] {"AB", new BigDecimal("123"), new BigDecimal("42")})));
+        Path second = Path.of(TestTypeValueFixture.createDbf(
+                new DBFField[] {
+                        new DBFField("NAME", DBFDataType.CHARACTER, 12),
+                        new DBFField("VALUE", DBFDataType.NUMERIC, 6, 2),
+                        new DBFField("CODE", DBFDataType.CHARACTER, 6)},
+                List.<Object[]>of(new Object[] {"LONGER NAME", new BigDecimal("45.67"), "X1"})));
+        Files.move(first, directory.resolve("A.dbf"));
+        Files.move(second, directory.resolve("B.dbf"));
+        Path parquetFile = testDir.resolve("combiningWidening.parquet");
+
+        ConvertTask convertTask = ConvertTask.builder()
+                .input(directory)
+                .output(parquetFile)
+                .combineFiles()
+                .build();
+        ConversionResult result = DbfParquet.builder().addConvertItem(convertTask).build().convert().get(0);
+
+        assertEquals(2, result.getRowCount());
+        org.apache.hadoop.fs.Path hadoopPath = new org.apache.hadoop.fs.Path(parquetFile.toString());
+        try (ParquetFileReader reader =
+                     ParquetFileReader.open(HadoopInputFile.fromPath(hadoopPath, new Configuration()))) {
+            MessageType schema = reader.getFileMetaData().getSchema();
+            assertEquals(LogicalTypeAnnotation.decimalType(2, 8),
+                    schema.getType("VALUE").getLogicalTypeAnnotation());
+            assertEquals(LogicalTypeAnnotation.stringType(), schema.getType("CODE").getLogicalTypeAnnotation());
+        }
+
+        try (ParquetReader<Row> reader =
+                     RowParquetReader.builder(HadoopInputFile.fromPath(hadoopPath, new Configuration())).build()) {
+            Row row = reader.read();
+            assertEquals(List.of("AB", "42"), List.of(row.getValue("NAME"), row.getValue("CODE")));
+            assertEquals(0, new BigDecimal("123").compareTo((BigDecimal) row.getValue("VALUE")));
+            row = reader.read();
+            assertEquals(List.of("LONGER NAME", "X1"), List.of(row.getValue("NAME"), row.getValue("CODE")));
+            assertEquals(0, new BigDecimal("45.67").compareTo((BigDecimal) row.getValue("VALUE")));
+        }
+    }
+
+    @Test
+    void convertCombiningParallelTest() throws IOException {
+        Path directory = Files.createDirectories(testDir.resolve("combiningParallel"));
+        for (int i = 0; i < 4; ++i) {
+            Path file = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(2000 + i, i, false)));
+            Files.move(file, directory.resolve("PART" + i + ".dbf"));
+        }
+        Path sequentialFile = testDir.resolve("combiningSequential.parquet");
+        Path parallelFile = testDir.resolve("combiningParallel.parquet");
+
+        DbfParquet.builder()
+                .addConvertItem(ConvertTask.builder()
+                        .input(directory)
+                        .output(sequentialFile)
+                        .combineFiles()
+                        .profileColumns(true)
+                        .build())
+                .build()
+                .convert();
+        ConversionResult result = DbfParquet.builder()
+                .addConvertItem(ConvertTask.builder()
+                        .input(directory)
+                        .output(parallelFile)
+                        .combineFiles()
+                        .combineParallelism(3)
+                        .profileColumns(true)
+                        .build())
+                .build()
+                .convert()
+                .get(0);
+
+        assertEquals(List.of(parallelFile), result.getFiles());
+        assertEquals(8006, result.getRowCount());
+        assertEquals(readValues(sequentialFile), readValues(parallelFile));
+        try (ParquetFileReader reader = ParquetFileReader.open(HadoopInputFile.fromPath(
+                new org.apache.hadoop.fs.Path(parallelFile.toString()), new Configuration()))) {
+            assertEquals(4, reader.getRowGroups().size());
+            Map<String, ColumnProfile> profiles =
+                    ColumnProfile.fromFooter(reader.getFooter().getFileMetaData().getKeyValueMetaData());
+            assertEquals(8006, profiles.get("CHARACTER").getValueCount());
+            assertEquals(result.getColumnProfiles().keySet(), profiles.keySet());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> ConvertTask.builder().combineFiles().combineParallelism(2).sortBy("DATE").build());
+    }
+
+    @Test
+    void convertDirectoryParallelTest() throws IOException {
+        Path inputDir = Files.createDirectories(testDir.resolve("parallelInput"));
+        Path outputDir = Files.createDirectories(testDir.resolve("parallelOutput"));
+        for (int i = 0; i < 6; ++i) {
+            Path file = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(500 * (i + 1), i)));
+            Files.move(file, inputDir.resolve("FILE" + i + ".dbf"));
+        }
+        Path broken = Files.write(inputDir.resolve("BROKEN.dbf"), new byte[] {3, 1, 2});
+
+        ConversionResult result = DbfParquet.builder()
+                .addConvertItem(ConvertTask.builder().input(inputDir).output(outputDir).blankAsNull().build())
+                .withParallelism(4)
+                .build()
+                .convert()
+                .get(0);
+
+        assertEquals(6, result.getFiles().size());
+        assertEquals(500 * (1 + 2 + 3 + 4 + 5 + 6), result.getRowCount());
+        assertEquals(Set.of(broken), result.getFailures().keySet());
+        for (int i = 0; i < 6; ++i) {
+            assertEquals(500 * (i + 1), parquetRecordCount(outputDir.resolve("FILE" + i + ".dbf.parquet")));
+        }
+    }
+
+    @Test
+    void convertSharedEngineTest() throws Exception {
+        Path outputDir = Files.createDirectories(testDir.resolve("sharedEngine"));
+        Path builderOutput = outputDir.resolve("builder.parquet");
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .addConvertItem(ConvertTask.builder()
+                        .input(Path.of(TestTypeValueFixture.createDbf()))
+                        .output(builderOutput)
+                        .build())
+                .build();
+
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<ConversionResult>>> calls = new ArrayList<>();
+            for (int i = 0; i < 8; ++i) {
+                Path input = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100 + i, i, false)));
+                Path output = outputDir.resolve("call" + i + ".parquet");
+                calls.add(callers.submit(() -> dbfParquet.convert(input, output)));
+            }
+            for (int i = 0; i < calls.size(); ++i) {
+                List<ConversionResult> results = calls.get(i).get();
+                assertEquals(1, results.size());
+                assertEquals(List.of(outputDir.resolve("call" + i + ".parquet")), results.get(0).getFiles());
+                assertEquals(100 + i, results.get(0).getRowCount());
+            }
+        } finally {
+            callers.shutdown();
+        }
+
+        assertTrue(Files.notExists(builderOutput));
+        assertEquals(List.of(builderOutput), dbfParquet.convert().get(0).getFiles());
+        assertEquals(
+                ConvertTask.builder().input(builderOutput).output(outputDir).build(),
+                ConvertTask.builder().input(builderOutput).output(outputDir).build());
+    }
+
+    @Test
+    void convertProgressTest() throws Exception {
+        Path input = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(5000, 7, false)));
+        Path output = testDir.resolve("progress.parquet");
+        List<ProgressEvent> events = new ArrayList<>();
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .onProgress(event -> events.add((ProgressEvent) event))
+                .withProgressInterval(1000, Long.MAX_VALUE)
+                .build();
+
+        ConversionResult result = dbfParquet.convert(ConvertTask.builder().input(input).output(output).build());
+
+        assertEquals(ProgressEvent.Phase.READ, events.get(0).getPhase());
+        assertEquals(ProgressEvent.Phase.FLUSH, events.get(events.size() - 2).getPhase());
+        assertEquals(ProgressEvent.Phase.DONE, events.get(events.size() - 1).getPhase());
+        assertTrue(events.stream().filter(event -> event.getPhase() == ProgressEvent.Phase.WRITE).count() >= 4);
+        for (int i = 1; i < events.size(); ++i) {
+            assertTrue(events.get(i).getRowCount() >= events.get(i - 1).getRowCount());
+            assertTrue(events.get(i).getBytesIn() >= events.get(i - 1).getBytesIn());
+        }
+
+        ProgressEvent done = events.get(events.size() - 1);
+        assertEquals(input, done.getInput());
+        assertEquals(5000, done.getRowCount());
+        assertEquals(5000, done.getTotalRowCount());
+        assertEquals(result.getRowCount(), done.getRowCount());
+        assertTrue(done.getBytesOut() > 0);
+        assertTrue(done.getRowsPerSecond() > 0);
+        assertEquals(Duration.ZERO, done.getEstimatedRemaining().orElseThrow());
+    }
+
+    @Test
+    void convertFlightRecorderEventsTest() throws Exception {
+        Path input = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(3000, 11, false)));
+        Path output = testDir.resolve("flightRecorder.parquet");
+        Path recordingFile = testDir.resolve("conversion.jfr");
+
+        try (Recording recording = new Recording()) {
+            for (String event : List.of("Conversion", "Schema", "RowGroupFlush")) {
+                recording.enable("br.gov.sus.opendata.dbf." + event).withThreshold(Duration.ZERO);
+            }
+            recording.start();
+            DbfParquet.builder().build().convert(ConvertTask.builder().input(input).output(output).build());
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile);
+        RecordedEvent conversion = events.stream()
+                .filter(event -> event.getEventType().getName().equals("br.gov.sus.opendata.dbf.Conversion"))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(input.toString(), conversion.getString("input"));
+        assertEquals(3000, conversion.getLong("rows"));
+        assertTrue(conversion.getLong("bytesOut") > 0);
+        assertTrue(events.stream().anyMatch(event ->
+                event.getEventType().getName().equals("br.gov.sus.opendata.dbf.Schema")
+                        && event.getString("format").equals("parquet")));
+        assertEquals(3000, events.stream()
+                .filter(event -> event.getEventType().getName().equals("br.gov.sus.opendata.dbf.RowGroupFlush"))
+                .mapToLong(event -> event.getLong("rows"))
+                .sum());
+    }
+
+    @Test
+    void convertMetricsTest() throws Exception {
+        Path inputDir = Files.createDirectories(testDir.resolve("metrics"));
+        for (int i = 0; i < 3; ++i) {
+            Files.copy(Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(200, i, false))),
+                    inputDir.resolve("file" + i + ".dbf"));
+        }
+        ConversionMetrics metrics = new ConversionMetrics();
+        DbfParquet dbfParquet = DbfParquet.builder().withMetrics(metrics).withParallelism(2).build();
+
+        dbfParquet.convert(ConvertTask.builder()
+                .input(inputDir)
+                .output(Files.createDirectories(testDir.resolve("metricsOutput")))
+                .build());
+
+        assertSame(metrics, dbfParquet.getMetrics());
+        assertEquals(3, metrics.getFilesConverted().get());
+        assertEquals(600, metrics.getRowsConverted().get());
+        assertEquals(0, metrics.getFailures().get());
+        assertEquals(0, metrics.getQueueDepth().get());
+        assertEquals(3, metrics.getConversionLatency().getCount());
+        assertEquals(3, Arrays.stream(metrics.getWriteLatency().getBucketCounts()).sum());
+
+        try (ConversionMetrics.Endpoint endpoint = metrics.serve(0)) {
+            HttpURLConnection connection = (HttpURLConnection)
+                    new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            String text = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            assertTrue(text.contains("# TYPE libdatasus_rows_converted_total counter"));
+            assertTrue(text.contains("libdatasus_files_converted_total 3"));
+            assertTrue(text.contains("libdatasus_conversion_seconds_bucket{le=\"+Inf\"} 3"));
+            assertEquals(metrics.toPrometheusText(), text);
+        }
+    }
+
+    @Test
+    void convertAsyncTest() throws Exception {
+        Path input = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(5000, 13, false)));
+        Path output = testDir.resolve("async.parquet");
+
+        ConversionHandle handle = DbfParquet.builder().build()
+                .convertAsync(ConvertTask.builder().input(input).output(output).build());
+        ConversionResult result = handle.getFuture().get(30, TimeUnit.SECONDS);
+        assertEquals(5000, result.getRowCount());
+        assertEquals(5000, readValues(output).size());
+        assertFalse(handle.cancel());
+
+        // Cancelled by the first WRITE event, the conversion stops between batches and deletes its output.
+        Path cancelledOutput = testDir.resolve("asyncCancelled.parquet");
+        AtomicReference<ConversionHandle> cancelled = new AtomicReference<>();
+        DbfParquet dbfParquet = DbfParquet.builder()
+                .withProgressInterval(1000, Long.MAX_VALUE)
+                .onProgress(event -> {
+                    if (((ProgressEvent) event).getPhase() == ProgressEvent.Phase.WRITE) {
+                        cancelled.get().cancel();
+                    }
+                })
+                .build();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            // Holds the executor until the handle is published to the progress listener.
+            executor.execute(() -> {
+                try {
+                    started.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            cancelled.set(dbfParquet.convertAsync(
+                    ConvertTask.builder().input(input).output(cancelledOutput).build(), executor));
+            started.countDown();
+
+            assertThrows(CancellationException.class, () -> cancelled.get().getFuture().get(30, TimeUnit.SECONDS));
+            assertTrue(cancelled.get().isCancelled());
+            assertFalse(Files.exists(cancelledOutput));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void convertSameDbcConcurrentlyTest() throws Exception {
+        Path inputDir = Files.createDirectories(testDir.resolve("concurrentDbc"));
+        Path input = Files.copy(Path.of(TestUtils.getResourcePath("dbf/conversion/exhaustive/CIHAAC1201.dbc")),
+                inputDir.resolve("CIHAAC1201.dbc"));
+        DbfParquet dbfParquet = DbfParquet.builder().build();
+
+        // Each call decompresses to a temporary file of its own.
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<ConversionHandle> handles = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                handles.add(dbfParquet.convertAsync(
+                        ConvertTask.builder().input(input).output(inputDir.resolve(i + ".parquet")).build(), executor));
+            }
+            for (ConversionHandle handle : handles) {
+                assertEquals(398, handle.getFuture().get(60, TimeUnit.SECONDS).getRowCount());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertFalse(Files.exists(inputDir.resolve("CIHAAC1201.dbc.dbf")));
+    }
+
+    @Test
+    void convertIncrementalTest() throws Exception {
+        Path inputDir = Files.createDirectories(testDir.resolve("incremental"));
+        Path outputDir = Files.createDirectories(testDir.resolve("incrementalOutput"));
+        Files.copy(Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100, 1, false))),
+                inputDir.resolve("a.dbf"));
+        Files.copy(Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(200, 2, false))),
+                inputDir.resolve("b.dbf"));
+        ConvertTask convertTask = ConvertTask.builder().input(inputDir).output(outputDir).incremental(true).build();
+        DbfParquet dbfParquet = DbfParquet.builder().build();
+
+        assertEquals(300, dbfParquet.convert(convertTask).getRowCount());
+        assertEquals(300, dbfParquet.getMetrics().getRowsConverted().get());
+        assertTrue(Files.exists(outputDir.resolve(ConversionManifest.FILE_NAME)));
+        List<List<Object>> values = readValues(outputDir.resolve("b.dbf.parquet"));
+
+        // Unchanged inputs are skipped.
+        assertEquals(300, dbfParquet.convert(convertTask).getRowCount());
+        assertEquals(300, dbfParquet.getMetrics().getRowsConverted().get());
+
+        // Same content under another name is copied.
+        Files.copy(inputDir.resolve("b.dbf"), inputDir.resolve("c.dbf"));
+        assertEquals(500, dbfParquet.convert(convertTask).getRowCount());
+        assertEquals(300, dbfParquet.getMetrics().getRowsConverted().get());
+        assertEquals(values, readValues(outputDir.resolve("c.dbf.parquet")));
+
+        // Changed inputs are converted again, missing outputs are copied from an output of the same content.
+        Files.copy(Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(50, 3, false))),
+                inputDir.resolve("a.dbf"), StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(outputDir.resolve("b.dbf.parquet"));
+        assertEquals(450, dbfParquet.convert(convertTask).getRowCount());
+        assertEquals(350, dbfParquet.getMetrics().getRowsConverted().get());
+        assertEquals(values, readValues(outputDir.resolve("b.dbf.parquet")));
+
+        // Other writer settings convert every distinct content again.
+        ConvertTask snappyTask = ConvertTask.builder()
+                .input(inputDir)
+                .output(outputDir)
+                .compressionCodec(CompressionCodecName.SNAPPY)
+                .incremental(true)
+                .build();
+        assertEquals(450, dbfParquet.convert(snappyTask).getRowCount());
+        assertEquals(600, dbfParquet.getMetrics().getRowsConverted().get());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ConvertTask.builder().input(inputDir).combineFiles().incremental(true).build());
+    }
+
+    @Test
+    void convertIncrementalConcurrentlyTest() throws Exception {
+        Path inputDir = Files.createDirectories(testDir.resolve("incrementalConcurrent"));
+        Path outputDir = Files.createDirectories(testDir.resolve("incrementalConcurrentOutput"));
+        List<ConvertTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Path input = Files.copy(
+                    Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100, i, false))),
+                    inputDir.resolve("file" + i + ".dbf"));
+            tasks.add(ConvertTask.builder().input(input).output(outputDir).incremental(true).build());
+        }
+
+        // Two engines, each running its tasks concurrently, record to the same manifest.
+        List<DbfParquet> engines = List.of(DbfParquet.builder().build(), DbfParquet.builder().build());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<ConversionHandle> handles = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                handles.add(engines.get(i % 2).convertAsync(tasks.get(i), executor));
+            }
+            for (ConversionHandle handle : handles) {
+                assertEquals(100, handle.getFuture().get(30, TimeUnit.SECONDS).getRowCount());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<String> entries = Files.readAllLines(outputDir.resolve(ConversionManifest.FILE_NAME)).stream()
+                .filter(line -> !line.startsWith("#"))
+                .collect(Collectors.toList());
+        assertEquals(8, entries.size());
+        try (Stream<Path> files = Files.list(outputDir)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+
+        DbfParquet dbfParquet = DbfParquet.builder().build();
+        for (ConvertTask convertTask : tasks) {
+            dbfParquet.convert(convertTask);
+        }
+        assertEquals(0, dbfParquet.getMetrics().getRowsConverted().get());
+    }
+
+    private List<List<Object>> readValues(Path parquetFile) throws IOException {
+        List<List<Object>> values = new ArrayList<>();
+        try (ParquetReader<Row> reader = RowParquetReader.builder(HadoopInputFile.fromPath(
+                new org.apache.hadoop.fs.Path(parquetFile.toString()), new Configuration())).build()) {
+            Row row;
+            while ((row = reader.read()) != null) {
+                values.add(row.getValues());
+            }
+        }
+        return values;
+    }
+
+    private long parquetRecordCount(Path parquetFile) throws IOException {
+        org.apache.hadoop.fs.Path hadoopPath = new org.apache.hadoop.fs.Path(parquetFile.toString());
+        try (ParquetFileReader reader =
+                     ParquetFileReader.open(HadoopInputFile.fromPath(hadoopPath, new Configuration()))) {
+            return reader.getRecordCount();
+        }
+    }
+
     private void assertConvertedFile(Path dbfFile, Path parquetFile) throws IOException {
         Configuration config = new Configuration();
         org.apache.hadoop.fs.Path hadoopPath = new org.apache.hadoop.fs.Path(parquetFile.toString());
@@ -186,9 +966,15 @@ class DbfParquetTest {
         }
     }
 
-    private Path dbfFilePath(Path path) {
+    /**
+     * @return the DBF file, decompressed to a temporary directory for a DBC file.
+     */
+    private Path dbfFilePath(Path path) throws IOException {
         if (TestUtils.isCompressedFile(path)) {
-            return Path.of(path.toString() + ".dbf");
+            Path dbfFile = TestUtils.createTempDir().resolve(path.getFileName() + ".dbf");
+            dbfFile.toFile().deleteOnExit();
+            DbcNativeDecompressor.decompress(path, dbfFile);
+            return dbfFile;
         }
         return path;
     }
@@ -224,25 +1010,29 @@ class DbfParquetTest {
         }
 
         @Override
-        List<InternalDbfReader> createReaders(ConvertTask convertTask) throws IOException {
-            super.createReaders(convertTask);
-            return createReadersCombined(convertTask.getInput());
+        List<Path> listInputs(ConvertTask convertTask) throws IOException {
+            // Decompressed next to the DBC files, the DBF files are combined and then compared to the output.
+            for (Path input : super.listInputs(convertTask)) {
+                DbcNativeDecompressor.decompress(input);
+            }
+            return combinedFiles(convertTask.getInput());
+        }
+
+        public static List<Path> combinedFiles(Path directory) {
+            return List.of(
+                    directory.resolve("CIHAAC1109.dbc.dbf"),
+                    directory.resolve("CIHAAC1112.dbc.dbf"),
+                    directory.resolve("CIHAAC1201.dbc.dbf"),
+                    directory.resolve("CIHAAL1203.dbc.dbf"),
+                    directory.resolve("CIHAMG2004.dbc.dbf"),
+                    directory.resolve("CIHASP2307.dbc.dbf"));
         }
 
         public static List<InternalDbfReader> createReadersCombined(Path directory) throws IOException {
             List<InternalDbfReader> readers = new ArrayList<>();
-            readers.add(new InternalDbfReader(
-                    new FileInputStream(directory.resolve("CIHAAC1109.dbc.dbf").toFile()), "Combined"));
-            readers.add(new InternalDbfReader(
-                    new FileInputStream(directory.resolve("CIHAAC1112.dbc.dbf").toFile()), "Combined"));
-            readers.add(new InternalDbfReader(
-                    new FileInputStream(directory.resolve("CIHAAC1201.dbc.dbf").toFile()), "Combined"));
-            readers.add(new InternalDbfReader(
-                    new FileInputStream(directory.resolve("CIHAAL1203.dbc.dbf").toFile()), "Combined"));
-            readers.add(new InternalDbfReader(
-                    new FileInputStream(directory.resolve("CIHAMG2004.dbc.dbf").toFile()), "Combined"));
-            readers.add(new InternalDbfReader(
-                    new FileInputStream(directory.resolve("CIHASP2307.dbc.dbf").toFile()), "Combined"));
+            for (Path file : combinedFiles(directory)) {
+                readers.add(new InternalDbfReader(new FileInputStream(file.toFile()), "Combined"));
+            }
             return readers;
         }
     }
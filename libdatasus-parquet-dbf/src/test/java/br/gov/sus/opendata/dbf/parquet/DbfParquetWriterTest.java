@@ -1,20 +1,38 @@
 package br.gov.sus.opendata.dbf.parquet;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.exasol.parquetio.data.Row;
 import com.exasol.parquetio.reader.RowParquetReader;
+import com.linuxense.javadbf.DBFDataType;
 import com.linuxense.javadbf.DBFRow;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.parquet.column.ParquetProperties.WriterVersion;
+import org.apache.parquet.crypto.EncryptionPropertiesFactory;
+import org.apache.parquet.hadoop.BadConfigurationException;
+import org.apache.parquet.hadoop.ParquetFileReader;
 import org.apache.parquet.hadoop.ParquetReader;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.hadoop.util.HadoopInputFile;
 import org.apache.parquet.io.InputFile;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.Type.Repetition;
 import org.junit.jupiter.api.Test;
 
 class DbfParquetWriterTest {
@@ -65,4 +83,228 @@ class DbfParquetWriterTest {
       assertEquals(TestTypeValueFixture.LOGICAL_FIELD.getValue(), logicalField);
     }
   }
+
+  @Test
+  void writeBatchesTest() throws IOException {
+    String dbfPath = TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(5000, 17, false));
+    String rowsPath = dbfPath + ".rows.parquet";
+    String batchesPath = dbfPath + ".batches.parquet";
+
+    try (FileInputStream fis = new FileInputStream(dbfPath);
+        InternalDbfReader dbfReader = new InternalDbfReader(fis);
+        ParquetWriter<DBFRow> parquetWriter =
+            DbfParquetWriter.builder(rowsPath)
+                .withDbfSchema(dbfReader.schema)
+                .withRowGroupSize(16 * 1024)
+                .withWriterVersion(WriterVersion.PARQUET_2_0)
+                .build()) {
+      DBFRow dbfRow;
+      while ((dbfRow = dbfReader.nextRow()) != null) {
+        parquetWriter.write(dbfRow);
+      }
+    }
+
+    writeBatches(dbfPath, DbfParquetWriter.builder(batchesPath).withRowGroupSize(16 * 1024));
+
+    assertEquals(readValues(rowsPath), readValues(batchesPath));
+    assertTrue(rowGroupCount(batchesPath) > 1);
+
+    // Inherited settings reach the batch writer, or are rejected.
+    assertThrows(
+        BadConfigurationException.class,
+        () ->
+            writeBatches(
+                dbfPath,
+                DbfParquetWriter.builder(batchesPath)
+                    .config(EncryptionPropertiesFactory.CRYPTO_FACTORY_CLASS_PROPERTY_NAME, "missing.Factory")));
+    assertThrows(
+        IllegalStateException.class,
+        () -> writeBatches(dbfPath, DbfParquetWriter.builder(batchesPath).enableValidation()));
+  }
+
+  @Test
+  void writeBlankAsNullTest() throws IOException {
+    List<Object[]> records = TestTypeValueFixture.randomRecords(3000, 29);
+    String dbfPath = TestTypeValueFixture.createDbf(records);
+    String rowsPath = dbfPath + ".rows.parquet";
+    String batchesPath = dbfPath + ".batches.parquet";
+    Set<DBFDataType> blankAsNull =
+        EnumSet.of(DBFDataType.CHARACTER, DBFDataType.NUMERIC, DBFDataType.LOGICAL);
+
+    try (FileInputStream fis = new FileInputStream(dbfPath);
+        InternalDbfReader dbfReader = new InternalDbfReader(fis);
+        ParquetWriter<DBFRow> parquetWriter =
+            DbfParquetWriter.builder(rowsPath)
+                .withDbfSchema(dbfReader.schema)
+                .withBlankAsNull(blankAsNull)
+                .withWriterVersion(WriterVersion.PARQUET_2_0)
+                .build()) {
+      DBFRow dbfRow;
+      while ((dbfRow = dbfReader.nextRow()) != null) {
+        parquetWriter.write(dbfRow);
+      }
+    }
+    writeBatches(dbfPath, DbfParquetWriter.builder(batchesPath).withBlankAsNull(blankAsNull));
+
+    List<List<Object>> values = readValues(batchesPath);
+    assertEquals(readValues(rowsPath), values);
+    assertEquals(records.size(), values.size());
+    for (int i = 0; i < records.size(); ++i) {
+      for (int field = 0; field < records.get(i).length; ++field) {
+        assertEquals(records.get(i)[field] == null, values.get(i).get(field) == null);
+      }
+    }
+
+    try (ParquetFileReader reader =
+        ParquetFileReader.open(HadoopInputFile.fromPath(new Path(batchesPath), new Configuration()))) {
+      MessageType schema = reader.getFileMetaData().getSchema();
+      assertEquals(
+          Repetition.OPTIONAL,
+          schema.getType(TestTypeValueFixture.CHARACTER_FIELD.getIndex()).getRepetition());
+      assertEquals(
+          Repetition.REQUIRED,
+          schema.getType(TestTypeValueFixture.DATE_FIELD.getIndex()).getRepetition());
+    }
+  }
+
+  @Test
+  void writeBatchesAsyncFlushTest() throws IOException {
+    String dbfPath = TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(5000, 19, false));
+    String syncPath = dbfPath + ".sync.parquet";
+    String asyncPath = dbfPath + ".async.parquet";
+
+    writeBatches(dbfPath, DbfParquetWriter.builder(syncPath).withRowGroupSize(8 * 1024));
+    writeBatches(
+        dbfPath,
+        DbfParquetWriter.builder(asyncPath).withRowGroupSize(8 * 1024).withAsyncFlush(2));
+
+    assertEquals(readValues(syncPath), readValues(asyncPath));
+    assertEquals(rowGroupCount(syncPath), rowGroupCount(asyncPath));
+    assertTrue(rowGroupCount(asyncPath) > 2);
+
+    // Row writers are always flushed synchronously.
+    assertThrows(
+        IllegalStateException.class,
+        () -> DbfParquetWriter.builder(dbfPath + ".rows.parquet").withAsyncFlush(2).build());
+  }
+
+  @Test
+  void writeBatchesParallelCompressionTest() throws IOException {
+    String dbfPath = TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(5000, 23, false));
+    String sequentialPath = dbfPath + ".sequential.parquet";
+    String singleThreadPath = dbfPath + ".single.parquet";
+    String parallelPath = dbfPath + ".parallel.parquet";
+
+    writeBatches(
+        dbfPath,
+        DbfParquetWriter.builder(sequentialPath)
+            .withRowGroupSize(16 * 1024)
+            .withCompressionCodec(CompressionCodecName.GZIP));
+
+    ExecutorService singleThread = Executors.newSingleThreadExecutor();
+    ExecutorService fourThreads = Executors.newFixedThreadPool(4);
+    try {
+      writeBatches(
+          dbfPath,
+          DbfParquetWriter.builder(singleThreadPath)
+              .withRowGroupSize(16 * 1024)
+              .withCompressionCodec(CompressionCodecName.GZIP)
+              .withParallelCompression(singleThread));
+      writeBatches(
+          dbfPath,
+          DbfParquetWriter.builder(parallelPath)
+              .withRowGroupSize(16 * 1024)
+              .withCompressionCodec(CompressionCodecName.GZIP)
+              .withParallelCompression(fourThreads)
+              .withAsyncFlush(1));
+    } finally {
+      singleThread.shutdown();
+      fourThreads.shutdown();
+    }
+
+    assertEquals(readValues(sequentialPath), readValues(parallelPath));
+    assertEquals(
+        -1, Files.mismatch(java.nio.file.Path.of(singleThreadPath), java.nio.file.Path.of(parallelPath)));
+    assertTrue(rowGroupCount(parallelPath) > 1);
+  }
+
+  @Test
+  void writeLocalAndStreamOutputTest() throws IOException {
+    String dbfPath = TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(3000, 31, false));
+    String hadoopPath = dbfPath + ".hadoop.parquet";
+    java.nio.file.Path localPath = java.nio.file.Path.of(dbfPath + ".local", "nested", "file.parquet");
+
+    writeBatches(dbfPath, DbfParquetWriter.builder(hadoopPath).withRowGroupSize(16 * 1024));
+    writeBatches(
+        dbfPath, DbfParquetWriter.builder(new LocalOutputFile(localPath)).withRowGroupSize(16 * 1024));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeBatches(
+        dbfPath, DbfParquetWriter.builder(new StreamOutputFile(out)).withRowGroupSize(16 * 1024));
+
+    byte[] hadoopBytes = Files.readAllBytes(java.nio.file.Path.of(hadoopPath));
+    assertArrayEquals(hadoopBytes, Files.readAllBytes(localPath));
+    assertArrayEquals(hadoopBytes, out.toByteArray());
+    assertTrue(rowGroupCount(localPath.toString()) > 1);
+  }
+
+  @Test
+  void writeBatchesMemoryBudgetTest() throws IOException {
+    String dbfPath =
+        TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(300000, 43, false));
+    String unboundedPath = dbfPath + ".unbounded.parquet";
+    String budgetPath = dbfPath + ".budget.parquet";
+    MemoryBudget memoryBudget = new MemoryBudget(2 * MemoryBudget.MIN_ROW_GROUP_SIZE);
+
+    writeBatches(dbfPath, DbfParquetWriter.builder(unboundedPath));
+    writeBatches(dbfPath, DbfParquetWriter.builder(budgetPath).withMemoryBudget(memoryBudget));
+
+    assertEquals(readValues(unboundedPath), readValues(budgetPath));
+    assertEquals(1, rowGroupCount(unboundedPath));
+    assertTrue(rowGroupCount(budgetPath) > 1);
+    assertEquals(0, memoryBudget.getBufferedBytes());
+    assertEquals(0, memoryBudget.getWriterCount());
+
+    // A flush finishing after its writer closed the reservation releases nothing more.
+    MemoryBudget.Reservation reservation = memoryBudget.reserve();
+    reservation.add(1000);
+    reservation.close();
+    reservation.add(-1000);
+    assertEquals(0, memoryBudget.getBufferedBytes());
+  }
+
+  private static void writeBatches(String dbfPath, DbfParquetWriter.Builder builder)
+      throws IOException {
+    try (FileInputStream fis = new FileInputStream(dbfPath);
+        InternalDbfReader dbfReader = new InternalDbfReader(fis);
+        DbfBatchWriter batchWriter =
+            builder
+                .withDbfSchema(dbfReader.schema)
+                .withWriterVersion(WriterVersion.PARQUET_2_0)
+                .buildBatchWriter()) {
+      DbfRecordBatch batch = new DbfRecordBatch(dbfReader.schema, 700);
+      while (dbfReader.nextRecords(batch)) {
+        batchWriter.write(batch);
+      }
+      assertEquals(dbfReader.getRecordCount(), batchWriter.getRecordCount());
+    }
+  }
+
+  private static int rowGroupCount(String parquetPath) throws IOException {
+    try (ParquetFileReader reader =
+        ParquetFileReader.open(HadoopInputFile.fromPath(new Path(parquetPath), new Configuration()))) {
+      return reader.getRowGroups().size();
+    }
+  }
+
+  private static List<List<Object>> readValues(String parquetPath) throws IOException {
+    InputFile inputFile = HadoopInputFile.fromPath(new Path(parquetPath), new Configuration());
+    List<List<Object>> values = new ArrayList<>();
+    try (ParquetReader<Row> reader = RowParquetReader.builder(inputFile).build()) {
+      Row row;
+      while ((row = reader.read()) != null) {
+        values.add(row.getValues());
+      }
+    }
+    return values;
+  }
 }
@@ -0,0 +1,160 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.linuxense.javadbf.DBFRow;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class DbfRecordSorterTest {
+
+  private static final int RECORD_COUNT = 5000;
+
+  /* Small enough to spill several runs. */
+  private static final long MEMORY_BUDGET = 16 * 1024;
+
+  private static Path spillDir;
+
+  @BeforeAll
+  static void setup() throws IOException {
+    spillDir = TestUtils.createTempDir();
+  }
+
+  @AfterAll
+  static void tearDown() {
+    assertEquals(0, Objects.requireNonNull(spillDir.toFile().list()).length);
+    spillDir.toFile().delete();
+  }
+
+  @Test
+  void sortNumericSpillingTest() throws IOException {
+    String dbfPath =
+        TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(RECORD_COUNT, 42));
+    int numericIndex = TestTypeValueFixture.NUMERIC_FIELD.getIndex();
+
+    List<DBFRow> sorted = sort(dbfPath, List.of("NUMERIC"), false);
+
+    Comparator<DBFRow> numericOrder =
+        Comparator.comparing(
+            row -> row.getBigDecimal(numericIndex),
+            Comparator.nullsFirst(Comparator.<BigDecimal>naturalOrder()));
+    assertSorted(sorted, numericOrder);
+    assertSameRecords(readAll(dbfPath), sorted);
+  }
+
+  @Test
+  void sortMultipleColumnsTest() throws IOException {
+    String dbfPath =
+        TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(RECORD_COUNT, 7));
+    int characterIndex = TestTypeValueFixture.CHARACTER_FIELD.getIndex();
+    int dateIndex = TestTypeValueFixture.DATE_FIELD.getIndex();
+
+    List<DBFRow> sorted = sort(dbfPath, List.of("CHARACTER", "DATE"), false);
+
+    Comparator<DBFRow> order =
+        Comparator.comparing(
+                (DBFRow row) -> row.getString(characterIndex),
+                Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(row -> (Date) row.getObject(dateIndex));
+    assertSorted(sorted, order);
+    assertSameRecords(readAll(dbfPath), sorted);
+  }
+
+  @Test
+  void sortZOrderTest() throws IOException {
+    String dbfPath =
+        TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(RECORD_COUNT, 13));
+
+    List<DBFRow> sorted = sort(dbfPath, List.of("NUMERIC", "DATE"), true);
+
+    assertEquals(RECORD_COUNT, sorted.size());
+    assertSameRecords(readAll(dbfPath), sorted);
+  }
+
+  @Test
+  void unknownSortColumnTest() throws IOException {
+    String dbfPath = TestTypeValueFixture.createDbf();
+
+    try (InternalDbfReader dbfReader = new InternalDbfReader(new FileInputStream(dbfPath))) {
+      assertThrows(
+          IllegalArgumentException.class,
+          () ->
+              new DbfRecordSorter(
+                  dbfReader.schema,
+                  StandardCharsets.ISO_8859_1,
+                  List.of("MISSING"),
+                  false,
+                  MEMORY_BUDGET,
+                  spillDir));
+    }
+  }
+
+  private List<DBFRow> sort(String dbfPath, List<String> columns, boolean zOrder)
+      throws IOException {
+    try (InternalDbfReader dbfReader = new InternalDbfReader(new FileInputStream(dbfPath));
+        DbfRecordSorter sorter =
+            new DbfRecordSorter(
+                dbfReader.schema, dbfReader.getCharset(), columns, zOrder, MEMORY_BUDGET, spillDir)) {
+      sorter.add(dbfReader);
+      assertEquals(RECORD_COUNT, sorter.getRecordCount());
+
+      try (InternalDbfReader sortedReader =
+          new InternalDbfReader(sorter.sortedStream(), null, dbfReader.getCharset())) {
+        return readAll(sortedReader);
+      }
+    }
+  }
+
+  private static List<DBFRow> readAll(String dbfPath) throws IOException {
+    try (InternalDbfReader dbfReader = new InternalDbfReader(new FileInputStream(dbfPath))) {
+      return readAll(dbfReader);
+    }
+  }
+
+  private static List<DBFRow> readAll(InternalDbfReader dbfReader) {
+    List<DBFRow> rows = new ArrayList<>();
+    DBFRow dbfRow;
+    while ((dbfRow = dbfReader.nextRow()) != null) {
+      rows.add(dbfRow);
+    }
+    return rows;
+  }
+
+  private static void assertSorted(List<DBFRow> rows, Comparator<DBFRow> order) {
+    for (int i = 1; i < rows.size(); ++i) {
+      assertTrue(order.compare(rows.get(i - 1), rows.get(i)) <= 0, "Unsorted at row " + i);
+    }
+  }
+
+  private static void assertSameRecords(List<DBFRow> expected, List<DBFRow> actual) {
+    assertEquals(toStrings(expected), toStrings(actual));
+  }
+
+  private static List<String> toStrings(List<DBFRow> rows) {
+    return rows.stream()
+        .map(
+            row -> {
+              StringBuilder sb = new StringBuilder();
+              for (int i = 0; i < TestTypeValueFixture.FIELDS.length; ++i) {
+                sb.append(row.getObject(i)).append('|');
+              }
+              return sb.toString();
+            })
+        .sorted()
+        .collect(Collectors.toList());
+  }
+}
@@ -8,10 +8,12 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import br.gov.sus.opendata.dbf.parquet.DbfSchemaConverter.ParquetDefinition;
+import com.linuxense.javadbf.DBFDataType;
 import com.linuxense.javadbf.DBFException;
 import com.linuxense.javadbf.DBFField;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import org.apache.parquet.schema.LogicalTypeAnnotation;
@@ -83,6 +85,24 @@ class DbfSchemaConverterTest {
     }
   }
 
+  @Test
+  void convertBlankAsNull() throws IOException {
+    DbfSchemaConverter schemaConverter =
+        new DbfSchemaConverter(EnumSet.of(DBFDataType.CHARACTER, DBFDataType.DATE));
+
+    try (FileInputStream fis = new FileInputStream(TestTypeValueFixture.createDbf());
+        InternalDbfReader dbfReader = new InternalDbfReader(fis)) {
+      MessageType messageType = schemaConverter.convert(dbfReader.schema);
+      for (DBFField dbfField : dbfReader.schema.fields) {
+        Repetition expected =
+            dbfField.getType() == DBFDataType.CHARACTER || dbfField.getType() == DBFDataType.DATE
+                ? Repetition.OPTIONAL
+                : Repetition.REQUIRED;
+        assertEquals(expected, messageType.getType(dbfField.getName()).getRepetition());
+      }
+    }
+  }
+
   @Test
   void convertValidateType() throws IOException {
     DbfSchemaConverter schemaConverter = new DbfSchemaConverter();
@@ -0,0 +1,194 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DecompressionCacheTest {
+
+  private Path testDir;
+
+  private final AtomicInteger decompressions = new AtomicInteger();
+
+  @BeforeEach
+  void setup() throws IOException {
+    testDir = TestUtils.createTempDir();
+    decompressions.set(0);
+  }
+
+  @Test
+  void memoryTierTest() throws IOException {
+    DecompressionCache cache = new DecompressionCache(testDir.resolve("cache"), 1024, 1024);
+    Path input = createInput("a.dbc", 100, (byte) 1);
+
+    byte[] first = read(cache, input);
+    byte[] second = read(cache, input);
+
+    assertArrayEquals(first, second);
+    assertArrayEquals(decompressed(100, (byte) 1), second);
+    assertEquals(1, decompressions.get());
+    assertEquals(1, cache.getMisses());
+    assertEquals(1, cache.getMemoryHits());
+    assertEquals(200, cache.getMemoryBytes());
+    assertEquals(0, cache.getDiskBytes());
+  }
+
+  @Test
+  void diskTierEvictionTest() throws IOException {
+    Path cacheDir = testDir.resolve("cache");
+    DecompressionCache cache = new DecompressionCache(cacheDir, 500, 0);
+    Path a = createInput("a.dbc", 100, (byte) 1);
+    Path b = createInput("b.dbc", 100, (byte) 2);
+    Path c = createInput("c.dbc", 100, (byte) 3);
+
+    read(cache, a);
+    read(cache, b);
+    // Same content under another name is a hit.
+    assertArrayEquals(decompressed(100, (byte) 1), read(cache, createInput("a2.dbc", 100, (byte) 1)));
+    read(cache, c);
+
+    // a was used last, b is evicted.
+    assertEquals(3, decompressions.get());
+    assertEquals(1, cache.getDiskHits());
+    assertEquals(400, cache.getDiskBytes());
+    assertEquals(2, fileCount(cacheDir));
+
+    DecompressionCache reopened = new DecompressionCache(cacheDir, 500, 0);
+    assertEquals(400, reopened.getDiskBytes());
+    assertArrayEquals(decompressed(100, (byte) 3), read(reopened, c));
+    read(reopened, b);
+    assertEquals(1, reopened.getDiskHits());
+    assertEquals(4, decompressions.get());
+
+    reopened.clear();
+    assertEquals(0, fileCount(cacheDir));
+  }
+
+  @Test
+  void missingEntryFileTest() throws IOException {
+    Path cacheDir = testDir.resolve("cache");
+    DecompressionCache cache = new DecompressionCache(cacheDir, 500, 0);
+    Path a = createInput("a.dbc", 100, (byte) 1);
+    read(cache, a);
+
+    // Deleted behind the cache: dropped, then decompressed again.
+    try (Stream<Path> files = Files.list(cacheDir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    assertArrayEquals(decompressed(100, (byte) 1), read(cache, a));
+    assertEquals(0, cache.getDiskHits());
+    assertEquals(2, cache.getMisses());
+    assertEquals(200, cache.getDiskBytes());
+    assertEquals(1, fileCount(cacheDir));
+  }
+
+  @Test
+  void memoryEvictionToDiskTest() throws IOException {
+    DecompressionCache cache = new DecompressionCache(testDir.resolve("cache"), 1024, 800);
+    Path a = createInput("a.dbc", 100, (byte) 1);
+    Path b = createInput("b.dbc", 100, (byte) 2);
+    Path c = createInput("c.dbc", 100, (byte) 3);
+    Path d = createInput("d.dbc", 100, (byte) 4);
+    Path e = createInput("e.dbc", 100, (byte) 5);
+
+    for (Path input : Arrays.asList(a, b, c, d, e)) {
+      read(cache, input);
+    }
+
+    assertEquals(800, cache.getMemoryBytes());
+    assertEquals(200, cache.getDiskBytes());
+    assertArrayEquals(decompressed(100, (byte) 1), read(cache, a));
+    assertEquals(1, cache.getDiskHits());
+    assertEquals(5, decompressions.get());
+  }
+
+  @Test
+  void concurrentMissesTest() throws Exception {
+    Path cacheDir = testDir.resolve("cache");
+    DecompressionCache cache = new DecompressionCache(cacheDir, 1024, 0);
+    Path input = createInput("a.dbc", 100, (byte) 1);
+    Set<Path> outputs = ConcurrentHashMap.newKeySet();
+    CyclicBarrier bothMissed = new CyclicBarrier(2);
+    Callable<byte[]> reader = () -> {
+      try (InputStream in = cache.open(input, (file, output) -> {
+        outputs.add(output);
+        try {
+          bothMissed.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+          throw new IOException(e);
+        }
+        return decompress(file, output);
+      })) {
+        return in.readAllBytes();
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<byte[]> first = executor.submit(reader);
+      Future<byte[]> second = executor.submit(reader);
+      assertArrayEquals(decompressed(100, (byte) 1), first.get());
+      assertArrayEquals(decompressed(100, (byte) 1), second.get());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Each miss decompressed to its own file, a single entry is left.
+    assertEquals(2, outputs.size());
+    assertEquals(2, cache.getMisses());
+    assertEquals(200, cache.getDiskBytes());
+    assertEquals(1, fileCount(cacheDir));
+  }
+
+  private byte[] read(DecompressionCache cache, Path input) throws IOException {
+    try (InputStream in = cache.open(input, this::decompress)) {
+      return in.readAllBytes();
+    }
+  }
+
+  /* Stands for the native decompressor: a DBF twice the size of the DBC. */
+  private Path decompress(Path input, Path output) throws IOException {
+    decompressions.incrementAndGet();
+    byte[] content = Files.readAllBytes(input);
+    return Files.write(output, decompressed(content.length, content[0]));
+  }
+
+  private Path createInput(String name, int size, byte value) throws IOException {
+    byte[] content = new byte[size];
+    Arrays.fill(content, value);
+    return Files.write(testDir.resolve(name), content);
+  }
+
+  private static long fileCount(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.count();
+    }
+  }
+
+  private static byte[] decompressed(int size, byte value) {
+    byte[] content = new byte[size * 2];
+    Arrays.fill(content, value);
+    return content;
+  }
+}
@@ -0,0 +1,114 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import br.gov.sus.opendata.dbc.DbcNativeDecompressor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+class DistributedConverterTest {
+
+  @Test
+  void workersShareDirectoryTest() throws Exception {
+    Path testDir = TestUtils.createTempDir();
+    Path inputDir = Files.createDirectories(testDir.resolve("input"));
+    Path outputDir = testDir.resolve("output");
+    for (int i = 0; i < 8; ++i) {
+      Files.copy(
+          Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100 + i, i, false))),
+          inputDir.resolve("file" + i + ".dbf"));
+    }
+    Path dbc = Files.copy(Path.of(TestUtils.getResourcePath("dbf/conversion/exhaustive/CIHAAC1201.dbc")),
+        inputDir.resolve("CIHAAC1201.dbc"));
+    // Decompressed next to the DBC file by an earlier version: not an input.
+    DbcNativeDecompressor.decompress(dbc, inputDir.resolve("CIHAAC1201.dbc.dbf"));
+    Path leaseDir = Files.createDirectories(outputDir.resolve(DistributedConverter.LEASE_DIRECTORY));
+    // Left by a crashed worker: reclaimed.
+    Path expired = Files.writeString(leaseDir.resolve("file0.dbf.lease"), "crashed/1");
+    Files.setLastModifiedTime(expired, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    // Held by a live worker: skipped.
+    Files.writeString(leaseDir.resolve("file1.dbf.lease"), "live/1");
+
+    ConvertTask convertTask = ConvertTask.builder().input(inputDir).output(outputDir).build();
+    DbfParquet dbfParquet = DbfParquet.builder().build();
+    ExecutorService workers = Executors.newFixedThreadPool(3);
+    List<ConversionResult> results = new ArrayList<>();
+    try {
+      List<Future<ConversionResult>> futures = new ArrayList<>();
+      for (int i = 0; i < 3; ++i) {
+        DistributedConverter converter = DistributedConverter.builder()
+            .dbfParquet(dbfParquet)
+            .task(convertTask)
+            .workerName("worker" + i)
+            .leaseDuration(Duration.ofSeconds(10))
+            .build();
+        futures.add(workers.submit(converter::run));
+      }
+      for (Future<ConversionResult> future : futures) {
+        results.add(future.get());
+      }
+    } finally {
+      workers.shutdown();
+    }
+
+    List<Path> converted = results.stream()
+        .flatMap(result -> result.getFiles().stream())
+        .sorted()
+        .collect(Collectors.toList());
+    List<Path> expected = new ArrayList<>();
+    expected.add(outputDir.resolve("CIHAAC1201.dbc.parquet"));
+    long expectedRows = 398;
+    for (int i = 0; i < 8; ++i) {
+      if (i != 1) {
+        expected.add(outputDir.resolve("file" + i + ".dbf.parquet"));
+        expectedRows += 100 + i;
+      }
+    }
+    assertEquals(expected, converted);
+    assertEquals(expectedRows, results.stream().mapToLong(ConversionResult::getRowCount).sum());
+    assertTrue(results.stream().allMatch(result -> result.getFailures().isEmpty()));
+    assertFalse(Files.exists(outputDir.resolve("file1.dbf.parquet")));
+    assertFalse(Files.exists(outputDir.resolve("CIHAAC1201.dbc.dbf.parquet")));
+    try (Stream<Path> leases = Files.list(leaseDir)) {
+      assertEquals(List.of(leaseDir.resolve("file1.dbf.lease")), leases.collect(Collectors.toList()));
+    }
+    try (Stream<Path> outputs = Files.list(outputDir)) {
+      assertTrue(outputs.noneMatch(path -> path.getFileName().toString().endsWith(".tmp")));
+    }
+  }
+
+  @Test
+  void leaseTest() throws Exception {
+    Path leaseFile = TestUtils.createTempDir().resolve("input.dbf.lease");
+    Duration leaseDuration = Duration.ofSeconds(10);
+
+    FileLease lease = FileLease.tryAcquire(leaseFile, "a", leaseDuration);
+    assertNotNull(lease);
+    assertNull(FileLease.tryAcquire(leaseFile, "b", leaseDuration));
+    assertTrue(lease.heartbeat());
+
+    Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+    FileLease reclaimed = FileLease.tryAcquire(leaseFile, "b", leaseDuration);
+    assertNotNull(reclaimed);
+    assertFalse(lease.isHeld());
+    lease.close();
+    assertTrue(Files.exists(leaseFile));
+
+    reclaimed.close();
+    assertFalse(Files.exists(leaseFile));
+  }
+}
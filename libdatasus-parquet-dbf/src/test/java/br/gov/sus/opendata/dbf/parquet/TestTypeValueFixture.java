@@ -7,9 +7,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.Random;
 
 class TestTypeValueFixture {
   public static final FieldFixtureDefinition<String> CHARACTER_FIELD = dbfCharacter();
@@ -28,21 +31,66 @@ class TestTypeValueFixture {
       };
 
   public static String createDbf() throws IOException {
+    return createDbf(
+        List.<Object[]>of(
+            Arrays.stream(FIELDS).map(FieldFixtureDefinition::getValue).toArray(Object[]::new)));
+  }
+
+  /** Creates a DBF file with the fixture fields and the given records. */
+  public static String createDbf(List<Object[]> records) throws IOException {
+    return createDbf(
+        Arrays.stream(FIELDS).map(FieldFixtureDefinition::getField).toArray(DBFField[]::new),
+        records);
+  }
+
+  /** Creates a DBF file with the given fields and records. */
+  public static String createDbf(DBFField[] fields, List<Object[]> records) throws IOException {
     File tempFile = File.createTempFile("libdatasus", "testTypes.dbf");
     tempFile.deleteOnExit();
 
     try (FileOutputStream fos = new FileOutputStream(tempFile);
         DBFWriter dbfWriter = new DBFWriter(fos)) {
-      dbfWriter.setFields(
-          Arrays.stream(FIELDS).map(FieldFixtureDefinition::getField).toArray(DBFField[]::new));
+      dbfWriter.setFields(fields);
 
-      dbfWriter.addRecord(
-          Arrays.stream(FIELDS).map(FieldFixtureDefinition::getValue).toArray(Object[]::new));
+      for (Object[] record : records) {
+        dbfWriter.addRecord(record);
+      }
     }
 
     return tempFile.getPath();
   }
 
+  /** Random records with the fixture fields, including blank (null) values. */
+  public static List<Object[]> randomRecords(int count, long seed) {
+    return randomRecords(count, seed, true);
+  }
+
+  /** Random records with the fixture fields. */
+  public static List<Object[]> randomRecords(int count, long seed, boolean withNulls) {
+    Random random = new Random(seed);
+    int nullBound = withNulls ? 10 : Integer.MAX_VALUE;
+    List<Object[]> records = new ArrayList<>(count);
+    Calendar cal = Calendar.getInstance();
+
+    for (int i = 0; i < count; ++i) {
+      cal.set(1990 + random.nextInt(40), random.nextInt(12), 1 + random.nextInt(28), 0, 0, 0);
+      cal.clear(Calendar.MILLISECOND);
+
+      records.add(
+          new Object[] {
+            random.nextInt(nullBound) == 0 ? null : "UF" + random.nextInt(30),
+            random.nextInt(nullBound) == 0
+                ? null
+                : BigDecimal.valueOf(random.nextInt(1999999) - 999999, 2),
+            cal.getTime(),
+            (float) random.nextInt(100000) / 100,
+            withNulls && random.nextInt(3) == 0 ? null : random.nextBoolean()
+          });
+    }
+
+    return records;
+  }
+
   private static FieldFixtureDefinition<String> dbfCharacter() {
     DBFField dbfField = new DBFField();
     dbfField.setName("CHARACTER");
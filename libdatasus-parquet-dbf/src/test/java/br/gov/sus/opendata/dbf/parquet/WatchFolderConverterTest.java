@@ -0,0 +1,162 @@
+package br.gov.sus.opendata.dbf.parquet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.junit.jupiter.api.Test;
+
+class WatchFolderConverterTest {
+
+  @Test
+  void convertLandedFilesTest() throws Exception {
+    Path testDir = TestUtils.createTempDir();
+    Path landing = Files.createDirectories(testDir.resolve("landing"));
+    Path output = testDir.resolve("output");
+    Path processed = testDir.resolve("processed");
+    List<ConversionResult> results = new CopyOnWriteArrayList<>();
+    Map<Path, Exception> failures = new ConcurrentHashMap<>();
+
+    Path dbf = Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100, 1, false)));
+    byte[] content = Files.readAllBytes(dbf);
+    Files.write(landing.resolve("before.dbf"), content);
+    Path dbc = Path.of(TestUtils.getResourcePath("dbf/conversion/exhaustive/CIHAAC1201.dbc"));
+
+    try (WatchFolderConverter converter = WatchFolderConverter.builder()
+        .landingDirectory(landing)
+        .outputDirectory(output)
+        .processedDirectory(processed)
+        .template(ConvertTask.builder().compressionCodec(CompressionCodecName.SNAPPY).build())
+        .settleTime(Duration.ofMillis(300))
+        .concurrency(2)
+        .onConverted(results::add)
+        .onFailure(failures::put)
+        .build()) {
+      converter.start();
+
+      // Written in two steps, converted once complete.
+      try (OutputStream out = Files.newOutputStream(landing.resolve("partial.dbf"))) {
+        out.write(content, 0, content.length / 2);
+        out.flush();
+        Thread.sleep(100);
+        out.write(content, content.length / 2, content.length - content.length / 2);
+      }
+      // Decompressed to a temporary file, its DBF file is not taken for a landed file.
+      Files.copy(dbc, landing.resolve("CIHAAC1201.dbc"));
+      Files.write(landing.resolve("corrupted.dbf"), new byte[] {1, 2, 3});
+      Files.write(landing.resolve("ignored.txt"), content);
+
+      long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+      while ((results.size() < 3 || failures.isEmpty()) && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+    }
+
+    assertEquals(3, results.size());
+    for (ConversionResult result : results) {
+      String name = result.getConvertTask().getInput().getFileName().toString();
+      assertEquals(name.endsWith(".dbc") ? 398 : 100, result.getRowCount());
+    }
+    assertTrue(Files.exists(output.resolve("before.dbf.parquet")));
+    assertTrue(Files.exists(output.resolve("partial.dbf.parquet")));
+    assertTrue(Files.exists(output.resolve("CIHAAC1201.dbc.parquet")));
+    assertFalse(Files.exists(output.resolve("CIHAAC1201.dbc.dbf.parquet")));
+    assertTrue(Files.exists(processed.resolve("before.dbf")));
+    assertTrue(Files.exists(processed.resolve("partial.dbf")));
+    assertTrue(Files.exists(processed.resolve("CIHAAC1201.dbc")));
+    assertFalse(Files.exists(landing.resolve("CIHAAC1201.dbc.dbf")));
+    try (Stream<Path> converting = Files.list(landing.resolve(WatchFolderConverter.CONVERTING_DIRECTORY))) {
+      assertEquals(0, converting.count());
+    }
+    assertEquals(1, failures.size());
+    assertTrue(Files.exists(landing.resolve("corrupted.dbf" + WatchFolderConverter.FAILED_SUFFIX)));
+    assertTrue(Files.exists(landing.resolve("ignored.txt")));
+  }
+
+  @Test
+  void convertRelandedFileTest() throws Exception {
+    Path testDir = TestUtils.createTempDir();
+    Path landing = Files.createDirectories(testDir.resolve("landing"));
+    Path output = testDir.resolve("output");
+    List<ConversionResult> results = new CopyOnWriteArrayList<>();
+    byte[] content = Files.readAllBytes(
+        Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100, 2, false))));
+    Duration settleTime = Duration.ofMillis(100);
+
+    try (WatchFolderConverter converter = WatchFolderConverter.builder()
+        .landingDirectory(landing)
+        .outputDirectory(output)
+        .settleTime(settleTime)
+        .onConverted(result -> {
+          if (results.isEmpty()) {
+            // Landed again while the first one is still converting.
+            try {
+              Files.write(landing.resolve("relanded.dbf"), content);
+              Thread.sleep(settleTime.multipliedBy(5).toMillis());
+            } catch (IOException | InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          results.add(result);
+        })
+        .build()) {
+      Files.write(landing.resolve("relanded.dbf"), content);
+      converter.start();
+
+      long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+      while (results.size() < 2 && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+    }
+
+    assertEquals(2, results.size());
+    assertFalse(Files.exists(landing.resolve("relanded.dbf")));
+    assertTrue(Files.exists(landing.resolve("relanded.dbf" + WatchFolderConverter.DONE_SUFFIX)));
+  }
+
+  @Test
+  void recoverConvertingFilesTest() throws Exception {
+    Path testDir = TestUtils.createTempDir();
+    Path landing = Files.createDirectories(testDir.resolve("landing"));
+    Path converting = Files.createDirectories(landing.resolve(WatchFolderConverter.CONVERTING_DIRECTORY));
+    Path output = testDir.resolve("output");
+    List<ConversionResult> results = new CopyOnWriteArrayList<>();
+    // Left by a crash, and landed again while stopped: both kept.
+    Files.copy(
+        Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(100, 3, false))),
+        converting.resolve("file.dbf"));
+    Files.copy(
+        Path.of(TestTypeValueFixture.createDbf(TestTypeValueFixture.randomRecords(200, 4, false))),
+        landing.resolve("file.dbf"));
+
+    try (WatchFolderConverter converter = WatchFolderConverter.builder()
+        .landingDirectory(landing)
+        .outputDirectory(output)
+        .settleTime(Duration.ofMillis(100))
+        .onConverted(results::add)
+        .build()) {
+      converter.start();
+
+      long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+      while (results.size() < 2 && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+      }
+    }
+
+    assertEquals(2, results.size());
+    assertEquals(300, results.stream().mapToLong(ConversionResult::getRowCount).sum());
+    assertTrue(Files.exists(output.resolve("file.dbf.parquet")));
+    assertTrue(Files.exists(output.resolve("file.recovered-1.dbf.parquet")));
+  }
+}